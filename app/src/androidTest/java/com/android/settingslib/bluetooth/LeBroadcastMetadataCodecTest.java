@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothLeAudioCodecConfigMetadata;
+import android.bluetooth.BluetoothLeAudioContentMetadata;
+import android.bluetooth.BluetoothLeBroadcastChannel;
+import android.bluetooth.BluetoothLeBroadcastMetadata;
+import android.bluetooth.BluetoothLeBroadcastSubgroup;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Round trip tests of {@link LeBroadcastMetadataCodec} over randomly generated metadata.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LeBroadcastMetadataCodecTest {
+    private static final int ITERATIONS = 500;
+    // Includes the grammar characters, the escape character and non-ASCII characters
+    private static final String TEXT_CHARS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJ0123456789 <>;:\\[],äöüé音乐广播";
+    private static final String[] LANGUAGES = {"eng", "deu", "fra", "zho"};
+
+    @Test
+    public void encodeThenDecode_returnsSameMetadata() {
+        final Random random = new Random(0x5eed);
+        for (int i = 0; i < ITERATIONS; i++) {
+            final BluetoothLeBroadcastMetadata metadata = randomMetadata(random);
+            final String qrCode = LeBroadcastMetadataCodec.encode(metadata);
+
+            final BluetoothLeBroadcastMetadata decoded = LeBroadcastMetadataCodec.decode(qrCode);
+
+            assertNotNull(qrCode, decoded);
+            assertMetadataEquals(qrCode, metadata, decoded);
+            assertEquals(qrCode, LeBroadcastMetadataCodec.encode(decoded));
+        }
+    }
+
+    @Test
+    public void encodeThenDecode_nullText_keepsNullAndText() {
+        final Random random = new Random(0x5eed);
+        final BluetoothLeBroadcastMetadata metadata = randomMetadata(random);
+        final BluetoothLeBroadcastSubgroup subgroup = metadata.getSubgroups().get(0);
+        for (String programInfo : new String[] {null, "null", "\\null", "null\\"}) {
+            final BluetoothLeBroadcastSubgroup.Builder builder =
+                    new BluetoothLeBroadcastSubgroup.Builder()
+                            .setCodecId(subgroup.getCodecId())
+                            .setCodecSpecificConfig(subgroup.getCodecSpecificConfig())
+                            .setContentMetadata(new BluetoothLeAudioContentMetadata.Builder()
+                                    .setProgramInfo(programInfo)
+                                    .build());
+            for (BluetoothLeBroadcastChannel channel : subgroup.getChannels()) {
+                builder.addChannel(channel);
+            }
+            final BluetoothLeBroadcastMetadata expected =
+                    new BluetoothLeBroadcastMetadata.Builder(metadata)
+                            .clearSubgroup()
+                            .addSubgroup(builder.build())
+                            .build();
+            final String qrCode = LeBroadcastMetadataCodec.encode(expected);
+
+            final BluetoothLeBroadcastMetadata decoded = LeBroadcastMetadataCodec.decode(qrCode);
+
+            assertNotNull(qrCode, decoded);
+            assertEquals(qrCode, programInfo,
+                    decoded.getSubgroups().get(0).getContentMetadata().getProgramInfo());
+        }
+    }
+
+    @Test
+    public void decode_truncatedString_returnsNull() {
+        final Random random = new Random(0x5eed);
+        final String qrCode = LeBroadcastMetadataCodec.encode(randomMetadata(random));
+        for (int length = 0; length < qrCode.length(); length++) {
+            assertNull(qrCode.substring(0, length),
+                    LeBroadcastMetadataCodec.decode(qrCode.substring(0, length)));
+        }
+    }
+
+    private static BluetoothLeBroadcastMetadata randomMetadata(Random random) {
+        final BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(
+                String.format(Locale.US, "%02X:%02X:%02X:%02X:%02X:%02X", random.nextInt(256),
+                        random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256), random.nextInt(256)));
+        final boolean encrypted = random.nextBoolean();
+        final byte[] code = new byte[1 + random.nextInt(16)];
+        random.nextBytes(code);
+        final BluetoothLeBroadcastMetadata.Builder builder =
+                new BluetoothLeBroadcastMetadata.Builder()
+                        .setSourceDevice(device, random.nextBoolean()
+                                ? BluetoothDevice.ADDRESS_TYPE_PUBLIC
+                                : BluetoothDevice.ADDRESS_TYPE_RANDOM)
+                        .setSourceAdvertisingSid(random.nextInt(16))
+                        .setBroadcastId(random.nextInt(0x1000000))
+                        .setPaSyncInterval(random.nextInt(0x10000))
+                        .setEncrypted(encrypted)
+                        .setBroadcastCode(encrypted ? code : null)
+                        .setPresentationDelayMicros(random.nextInt(0x1000000));
+        final int subgroupCount = 1 + random.nextInt(3);
+        for (int i = 0; i < subgroupCount; i++) {
+            final BluetoothLeBroadcastSubgroup.Builder subgroup =
+                    new BluetoothLeBroadcastSubgroup.Builder()
+                            .setCodecId(random.nextLong() & Long.MAX_VALUE)
+                            .setCodecSpecificConfig(randomCodecConfig(random))
+                            .setContentMetadata(new BluetoothLeAudioContentMetadata.Builder()
+                                    .setProgramInfo(randomText(random))
+                                    .setLanguage(LANGUAGES[random.nextInt(LANGUAGES.length)])
+                                    .build());
+            final int channelCount = 1 + random.nextInt(3);
+            for (int j = 0; j < channelCount; j++) {
+                subgroup.addChannel(new BluetoothLeBroadcastChannel.Builder()
+                        .setChannelIndex(1 + j)
+                        .setCodecMetadata(randomCodecConfig(random))
+                        .build());
+            }
+            builder.addSubgroup(subgroup.build());
+        }
+        return builder.build();
+    }
+
+    private static BluetoothLeAudioCodecConfigMetadata randomCodecConfig(Random random) {
+        return new BluetoothLeAudioCodecConfigMetadata.Builder()
+                .setAudioLocation(random.nextInt() & Integer.MAX_VALUE)
+                .build();
+    }
+
+    // Sometimes null or the text "null", which must not decode as null
+    private static String randomText(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return null;
+            case 1:
+                return "null";
+            default:
+                break;
+        }
+        final char[] chars = new char[1 + random.nextInt(32)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = TEXT_CHARS.charAt(random.nextInt(TEXT_CHARS.length()));
+        }
+        return new String(chars);
+    }
+
+    private static void assertMetadataEquals(String message, BluetoothLeBroadcastMetadata expected,
+            BluetoothLeBroadcastMetadata actual) {
+        assertEquals(message, expected.getSourceAddressType(), actual.getSourceAddressType());
+        assertEquals(message, expected.getSourceDevice(), actual.getSourceDevice());
+        assertEquals(message, expected.getSourceAdvertisingSid(),
+                actual.getSourceAdvertisingSid());
+        assertEquals(message, expected.getBroadcastId(), actual.getBroadcastId());
+        assertEquals(message, expected.getPaSyncInterval(), actual.getPaSyncInterval());
+        assertEquals(message, expected.isEncrypted(), actual.isEncrypted());
+        assertArrayEquals(message, expected.getBroadcastCode(), actual.getBroadcastCode());
+        assertEquals(message, expected.getPresentationDelayMicros(),
+                actual.getPresentationDelayMicros());
+        final List<BluetoothLeBroadcastSubgroup> expectedSubgroups = expected.getSubgroups();
+        final List<BluetoothLeBroadcastSubgroup> actualSubgroups = actual.getSubgroups();
+        assertEquals(message, expectedSubgroups.size(), actualSubgroups.size());
+        for (int i = 0; i < expectedSubgroups.size(); i++) {
+            final BluetoothLeBroadcastSubgroup expectedSubgroup = expectedSubgroups.get(i);
+            final BluetoothLeBroadcastSubgroup actualSubgroup = actualSubgroups.get(i);
+            assertEquals(message, expectedSubgroup.getCodecId(), actualSubgroup.getCodecId());
+            assertEquals(message, expectedSubgroup.getCodecSpecificConfig(),
+                    actualSubgroup.getCodecSpecificConfig());
+            assertEquals(message, expectedSubgroup.getContentMetadata(),
+                    actualSubgroup.getContentMetadata());
+            final List<BluetoothLeBroadcastChannel> expectedChannels =
+                    expectedSubgroup.getChannels();
+            final List<BluetoothLeBroadcastChannel> actualChannels = actualSubgroup.getChannels();
+            assertEquals(message, expectedChannels.size(), actualChannels.size());
+            for (int j = 0; j < expectedChannels.size(); j++) {
+                assertEquals(message, expectedChannels.get(j).getChannelIndex(),
+                        actualChannels.get(j).getChannelIndex());
+                assertEquals(message, expectedChannels.get(j).getCodecMetadata(),
+                        actualChannels.get(j).getCodecMetadata());
+            }
+        }
+    }
+}
@@ -65,8 +65,9 @@ public class A2dpProfile implements LocalBluetoothProfile {
 
         public void onServiceConnected(int profile, BluetoothProfile proxy) {
             mService = (BluetoothA2dp) proxy;
-            // We just bound to the service, so refresh the UI for any connected A2DP devices.
             List<BluetoothDevice> deviceList = mService.getConnectedDevices();
+            mProfileManager.onProfileServiceConnected(A2dpProfile.this, deviceList);
+            // We just bound to the service, so refresh the UI for any connected A2DP devices.
             while (!deviceList.isEmpty()) {
                 BluetoothDevice nextDevice = deviceList.remove(0);
                 CachedBluetoothDevice device = mDeviceManager.findDevice(nextDevice);
@@ -83,6 +84,7 @@ public class A2dpProfile implements LocalBluetoothProfile {
         }
 
         public void onServiceDisconnected(int profile) {
+            mProfileManager.onProfileServiceDisconnected(A2dpProfile.this);
             mIsProfileReady=false;
         }
     }
@@ -366,6 +368,11 @@ public class A2dpProfile implements LocalBluetoothProfile {
 
     protected void finalize() {
         Log.d(TAG, "finalize()");
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(BluetoothProfile.A2DP,
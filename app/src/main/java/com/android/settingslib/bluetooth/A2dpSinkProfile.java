@@ -201,6 +201,11 @@ final class A2dpSinkProfile implements LocalBluetoothProfile {
 
     protected void finalize() {
         Log.d(TAG, "finalize()");
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(BluetoothProfile.A2DP_SINK,
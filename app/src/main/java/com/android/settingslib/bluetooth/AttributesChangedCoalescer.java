@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges {@link CachedBluetoothDevice.Callback#onDeviceAttributesChanged()} notifications so
+ * that each device notifies its callbacks at most once per frame, or once per configured window.
+ *
+ * <p>Coalescing is off by default; in that mode every attribute change is dispatched
+ * synchronously as before. Once enabled, notifications are delivered on the main thread.
+ */
+public final class AttributesChangedCoalescer {
+    /** Dispatch every attribute change immediately on the calling thread. */
+    public static final long WINDOW_DISABLED = 0;
+    /** Deliver pending attribute changes on the next Choreographer frame. */
+    public static final long WINDOW_FRAME = -1;
+
+    private static final AttributesChangedCoalescer sInstance = new AttributesChangedCoalescer();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDeliverRunnable = this::deliverPending;
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> deliverPending();
+    private final Runnable mPostFrameCallbackRunnable =
+            () -> Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    // Identity based since CachedBluetoothDevice#hashCode changes on main / sub content switch
+    private final Set<CachedBluetoothDevice> mPendingDevices =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private final AtomicLong mSuppressedCount = new AtomicLong();
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+
+    private volatile long mWindowMillis = WINDOW_DISABLED;
+    private boolean mDeliveryScheduled;
+
+    static AttributesChangedCoalescer getInstance() {
+        return sInstance;
+    }
+
+    private AttributesChangedCoalescer() {
+    }
+
+    /**
+     * Sets how attribute changes are coalesced.
+     *
+     * @param windowMillis {@link #WINDOW_DISABLED}, {@link #WINDOW_FRAME}, or a window in
+     *                     milliseconds during which changes of a device are merged
+     */
+    public static void setCoalescingWindow(long windowMillis) {
+        sInstance.mWindowMillis = windowMillis;
+    }
+
+    /**
+     * @return the number of attribute change notifications merged into an already pending one
+     */
+    public static long getSuppressedCount() {
+        return sInstance.mSuppressedCount.get();
+    }
+
+    /**
+     * @return the number of attribute change notifications delivered after coalescing
+     */
+    public static long getDeliveredCount() {
+        return sInstance.mDeliveredCount.get();
+    }
+
+    /**
+     * Queues an attribute change of {@code device}.
+     *
+     * @return {@code false} if coalescing is disabled and the caller should dispatch directly
+     */
+    boolean enqueue(CachedBluetoothDevice device) {
+        final long windowMillis = mWindowMillis;
+        if (windowMillis == WINDOW_DISABLED) {
+            return false;
+        }
+        synchronized (this) {
+            if (!mPendingDevices.add(device)) {
+                mSuppressedCount.incrementAndGet();
+                return true;
+            }
+            if (mDeliveryScheduled) {
+                return true;
+            }
+            mDeliveryScheduled = true;
+        }
+        if (windowMillis == WINDOW_FRAME) {
+            // Choreographer is bound to the looper of the thread that gets it
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                mPostFrameCallbackRunnable.run();
+            } else {
+                mMainHandler.post(mPostFrameCallbackRunnable);
+            }
+        } else {
+            mMainHandler.postDelayed(mDeliverRunnable, windowMillis);
+        }
+        return true;
+    }
+
+    private void deliverPending() {
+        final List<CachedBluetoothDevice> devices;
+        synchronized (this) {
+            devices = new ArrayList<>(mPendingDevices);
+            mPendingDevices.clear();
+            mDeliveryScheduled = false;
+        }
+        for (CachedBluetoothDevice device : devices) {
+            mDeliveredCount.incrementAndGet();
+            device.deliverAttributesChanged();
+        }
+    }
+}
@@ -25,11 +25,23 @@ import android.util.Log;
 
 import com.android.internal.util.ArrayUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * BluetoothDeviceFilter contains a static method that returns a
  * Filter object that returns whether or not the BluetoothDevice
  * passed to it matches the specified filter type constant from
  * {@link android.bluetooth.BluetoothDevicePicker}.
+ *
+ * <p>The filters of this class can also be combined with {@link #compile} into a single
+ * {@link CompiledFilter}, which tests the capability bits cached by
+ * {@link CachedBluetoothDevice} instead of reading UUIDs and class over binder, and a
+ * {@link FilteredView} keeps the matching devices of a {@link CachedBluetoothDeviceManager}.
  */
 public final class BluetoothDeviceFilter {
     private static final String TAG = "BluetoothDeviceFilter";
@@ -39,6 +51,17 @@ public final class BluetoothDeviceFilter {
         boolean matches(BluetoothDevice device);
     }
 
+    // Capability bits, the low 32 bits are ProfileUuidTable bits of the remote UUIDs
+    private static final long CAP_UUIDS_MASK = 0xffffffffL;
+    // Set if the device reports UUIDs, even none
+    static final long CAP_HAS_UUIDS = 1L << 32;
+    static final long CAP_BONDED = 1L << 33;
+    static final long CAP_CLASS_A2DP = 1L << 34;
+    static final long CAP_CLASS_HEADSET = 1L << 35;
+    static final long CAP_CLASS_OPP = 1L << 36;
+    static final long CAP_CLASS_PANU = 1L << 37;
+    static final long CAP_CLASS_NAP = 1L << 38;
+
     /** All filter singleton (referenced directly). */
     public static final Filter ALL_FILTER = new AllFilter();
 
@@ -77,29 +100,319 @@ public final class BluetoothDeviceFilter {
         }
     }
 
+    /**
+     * Combines {@code filters} into one filter matching the devices that all of them match.
+     *
+     * @param filters filters of this class or {@link CompiledFilter}s
+     * @throws IllegalArgumentException if a filter is of another class
+     */
+    public static CompiledFilter compile(Filter... filters) {
+        List<Term> terms = Collections.singletonList(Term.ANY);
+        for (Filter filter : filters) {
+            if (!(filter instanceof CapabilityFilter)) {
+                throw new IllegalArgumentException("Cannot compile " + filter);
+            }
+            terms = and(terms, ((CapabilityFilter) filter).getTerms());
+        }
+        return new CompiledFilter(terms);
+    }
+
+    /**
+     * @return the capability bits of a device with these attributes
+     */
+    static long getCapabilities(ParcelUuid[] uuids, BluetoothClass btClass, int bondState) {
+        long capabilities = ProfileUuidTable.toBitmask(uuids) & CAP_UUIDS_MASK;
+        if (uuids != null) {
+            capabilities |= CAP_HAS_UUIDS;
+        }
+        if (bondState == BluetoothDevice.BOND_BONDED) {
+            capabilities |= CAP_BONDED;
+        }
+        if (btClass != null) {
+            if (doesClassMatch(btClass, BluetoothClass.PROFILE_A2DP)) {
+                capabilities |= CAP_CLASS_A2DP;
+            }
+            if (doesClassMatch(btClass, BluetoothClass.PROFILE_HEADSET)) {
+                capabilities |= CAP_CLASS_HEADSET;
+            }
+            if (doesClassMatch(btClass, BluetoothClass.PROFILE_OPP)) {
+                capabilities |= CAP_CLASS_OPP;
+            }
+            if (doesClassMatch(btClass, BluetoothClass.PROFILE_PANU)) {
+                capabilities |= CAP_CLASS_PANU;
+            }
+            if (doesClassMatch(btClass, BluetoothClass.PROFILE_NAP)) {
+                capabilities |= CAP_CLASS_NAP;
+            }
+        }
+        return capabilities;
+    }
+
+    // Conjunction of two disjunctions of terms
+    private static List<Term> and(List<Term> left, List<Term> right) {
+        final List<Term> terms = new ArrayList<>(left.size() * right.size());
+        for (Term l : left) {
+            for (Term r : right) {
+                final Term term = l.and(r);
+                if (term != null) {
+                    terms.add(term);
+                }
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * One conjunction of capability tests: all of {@code mAll} set, none of {@code mNone} set
+     * and at least one bit of each {@code mAnyOf} mask set.
+     */
+    private static final class Term {
+        static final Term ANY = new Term(0, 0);
+
+        final long mAll;
+        final long mNone;
+        final long[] mAnyOf;
+
+        Term(long all, long none, long... anyOf) {
+            mAll = all;
+            mNone = none;
+            mAnyOf = anyOf;
+        }
+
+        // @return null if the conjunction cannot match any device
+        Term and(Term other) {
+            final long all = mAll | other.mAll;
+            final long none = mNone | other.mNone;
+            if ((all & none) != 0) {
+                return null;
+            }
+            final long[] anyOf = Arrays.copyOf(mAnyOf, mAnyOf.length + other.mAnyOf.length);
+            System.arraycopy(other.mAnyOf, 0, anyOf, mAnyOf.length, other.mAnyOf.length);
+            return new Term(all, none, anyOf);
+        }
+    }
+
+    /** Filter that can be compiled, as a disjunction of terms. */
+    private interface CapabilityFilter extends Filter {
+        List<Term> getTerms();
+    }
+
+    /**
+     * Filter compiled to bit tests over the capabilities of a device, see {@link #compile}.
+     */
+    public static final class CompiledFilter implements CapabilityFilter {
+        private final List<Term> mTerms;
+        // The terms flattened, one entry per term in mAll / mNone and its anyOf masks in
+        // mAnyOf[mAnyOfStart[i] .. mAnyOfStart[i + 1])
+        private final long[] mAll;
+        private final long[] mNone;
+        private final int[] mAnyOfStart;
+        private final long[] mAnyOf;
+
+        private CompiledFilter(List<Term> terms) {
+            mTerms = Collections.unmodifiableList(terms);
+            final int count = terms.size();
+            mAll = new long[count];
+            mNone = new long[count];
+            mAnyOfStart = new int[count + 1];
+            int anyOfCount = 0;
+            for (Term term : terms) {
+                anyOfCount += term.mAnyOf.length;
+            }
+            mAnyOf = new long[anyOfCount];
+            int anyOfIndex = 0;
+            for (int i = 0; i < count; i++) {
+                final Term term = terms.get(i);
+                mAll[i] = term.mAll;
+                mNone[i] = term.mNone;
+                mAnyOfStart[i] = anyOfIndex;
+                System.arraycopy(term.mAnyOf, 0, mAnyOf, anyOfIndex, term.mAnyOf.length);
+                anyOfIndex += term.mAnyOf.length;
+            }
+            mAnyOfStart[count] = anyOfIndex;
+        }
+
+        /**
+         * @return a filter matching the devices that this filter or {@code other} matches
+         */
+        public CompiledFilter or(CompiledFilter other) {
+            final List<Term> terms = new ArrayList<>(mTerms);
+            terms.addAll(other.mTerms);
+            return new CompiledFilter(terms);
+        }
+
+        /**
+         * @return a filter matching the devices that both this filter and {@code other} match
+         */
+        public CompiledFilter and(CompiledFilter other) {
+            return new CompiledFilter(BluetoothDeviceFilter.and(mTerms, other.mTerms));
+        }
+
+        @Override
+        public List<Term> getTerms() {
+            return mTerms;
+        }
+
+        @Override
+        public boolean matches(BluetoothDevice device) {
+            return matches(getCapabilities(device.getUuids(), device.getBluetoothClass(),
+                    device.getBondState()));
+        }
+
+        /**
+         * Same as {@link #matches(BluetoothDevice)}, from the capabilities cached by
+         * {@code device}.
+         */
+        public boolean matches(CachedBluetoothDevice device) {
+            return matches(device.getCapabilities());
+        }
+
+        boolean matches(long capabilities) {
+            for (int i = 0; i < mAll.length; i++) {
+                if ((capabilities & mAll[i]) != mAll[i] || (capabilities & mNone[i]) != 0) {
+                    continue;
+                }
+                boolean matches = true;
+                for (int j = mAnyOfStart[i]; j < mAnyOfStart[i + 1]; j++) {
+                    if ((capabilities & mAnyOf[j]) == 0) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if (matches) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the devices of {@code snapshot} that this filter matches, in snapshot order
+         */
+        public List<CachedBluetoothDevice> filter(
+                CachedBluetoothDeviceManager.Snapshot snapshot) {
+            final List<CachedBluetoothDevice> devices = new ArrayList<>();
+            for (CachedBluetoothDevice device : snapshot.getDevices()) {
+                if (matches(device.getCapabilities())) {
+                    devices.add(device);
+                }
+            }
+            return devices;
+        }
+    }
+
+    /**
+     * The devices of a {@link CachedBluetoothDeviceManager} matching a {@link CompiledFilter}.
+     * On each {@link #getDevices()}, only the devices that were added or whose capabilities
+     * changed since the previous call are evaluated again; the previous list is returned as
+     * is if the result did not change.
+     */
+    public static final class FilteredView {
+        private final CachedBluetoothDeviceManager mDeviceManager;
+        private final CompiledFilter mFilter;
+
+        // Guarded by this
+        private CachedBluetoothDeviceManager.Snapshot mSnapshot;
+        private Map<CachedBluetoothDevice, Evaluation> mEvaluations = new IdentityHashMap<>();
+        private List<CachedBluetoothDevice> mDevices = Collections.emptyList();
+        private long mEvaluationCount;
+
+        public FilteredView(CachedBluetoothDeviceManager deviceManager, CompiledFilter filter) {
+            mDeviceManager = deviceManager;
+            mFilter = filter;
+        }
+
+        /**
+         * @return the matching devices, in the order of
+         * {@link CachedBluetoothDeviceManager#getCachedDevicesSnapshot()}
+         */
+        public synchronized List<CachedBluetoothDevice> getDevices() {
+            final CachedBluetoothDeviceManager.Snapshot snapshot =
+                    mDeviceManager.getCachedDevicesSnapshot();
+            final boolean membershipChanged = snapshot != mSnapshot;
+            final Map<CachedBluetoothDevice, Evaluation> evaluations = membershipChanged
+                    ? new IdentityHashMap<>(snapshot.getDevices().size()) : mEvaluations;
+            boolean changed = membershipChanged;
+            for (CachedBluetoothDevice device : snapshot.getDevices()) {
+                final long capabilities = device.getCapabilities();
+                Evaluation evaluation = mEvaluations.get(device);
+                if (evaluation == null) {
+                    evaluation = new Evaluation();
+                    evaluation.mCapabilities = ~capabilities;
+                }
+                if (evaluation.mCapabilities != capabilities) {
+                    final boolean matches = mFilter.matches(capabilities);
+                    mEvaluationCount++;
+                    changed |= matches != evaluation.mMatches;
+                    evaluation.mCapabilities = capabilities;
+                    evaluation.mMatches = matches;
+                }
+                if (membershipChanged) {
+                    evaluations.put(device, evaluation);
+                }
+            }
+            mSnapshot = snapshot;
+            mEvaluations = evaluations;
+            if (changed) {
+                final List<CachedBluetoothDevice> devices = new ArrayList<>();
+                for (CachedBluetoothDevice device : snapshot.getDevices()) {
+                    if (evaluations.get(device).mMatches) {
+                        devices.add(device);
+                    }
+                }
+                mDevices = Collections.unmodifiableList(devices);
+            }
+            return mDevices;
+        }
+
+        /**
+         * @return the number of filter evaluations done so far
+         */
+        public synchronized long getEvaluationCount() {
+            return mEvaluationCount;
+        }
+
+        private static final class Evaluation {
+            long mCapabilities;
+            boolean mMatches;
+        }
+    }
+
     /** Filter that matches all devices. */
-    private static final class AllFilter implements Filter {
+    private static final class AllFilter implements CapabilityFilter {
         public boolean matches(BluetoothDevice device) {
             return true;
         }
+
+        public List<Term> getTerms() {
+            return Collections.singletonList(Term.ANY);
+        }
     }
 
     /** Filter that matches only bonded devices. */
-    private static final class BondedDeviceFilter implements Filter {
+    private static final class BondedDeviceFilter implements CapabilityFilter {
         public boolean matches(BluetoothDevice device) {
             return device.getBondState() == BluetoothDevice.BOND_BONDED;
         }
+
+        public List<Term> getTerms() {
+            return Collections.singletonList(new Term(CAP_BONDED, 0));
+        }
     }
 
     /** Filter that matches only unbonded devices. */
-    private static final class UnbondedDeviceFilter implements Filter {
+    private static final class UnbondedDeviceFilter implements CapabilityFilter {
         public boolean matches(BluetoothDevice device) {
             return device.getBondState() != BluetoothDevice.BOND_BONDED;
         }
+
+        public List<Term> getTerms() {
+            return Collections.singletonList(new Term(0, CAP_BONDED));
+        }
     }
 
     /** Parent class of filters based on UUID and/or Bluetooth class. */
-    private abstract static class ClassUuidFilter implements Filter {
+    private abstract static class ClassUuidFilter implements CapabilityFilter {
         abstract boolean matches(ParcelUuid[] uuids, BluetoothClass btClass);
 
         public boolean matches(BluetoothDevice device) {
@@ -126,6 +439,13 @@ public final class BluetoothDeviceFilter {
             }
             return false;
         }
+
+        public List<Term> getTerms() {
+            return Arrays.asList(
+                    new Term(CAP_HAS_UUIDS, 0, ProfileUuidTable.A2DP_SINK
+                            | ProfileUuidTable.HSP | ProfileUuidTable.HFP),
+                    new Term(0, CAP_HAS_UUIDS, CAP_CLASS_A2DP | CAP_CLASS_HEADSET));
+        }
     }
 
     /** Filter that matches devices that support Object Transfer. */
@@ -140,6 +460,11 @@ public final class BluetoothDeviceFilter {
             return btClass != null
                     && doesClassMatch(btClass, BluetoothClass.PROFILE_OPP);
         }
+
+        public List<Term> getTerms() {
+            return Collections.singletonList(
+                    new Term(0, 0, ProfileUuidTable.OBEX_OBJECT_PUSH | CAP_CLASS_OPP));
+        }
     }
 
     /** Filter that matches devices that support PAN User (PANU) profile. */
@@ -154,6 +479,11 @@ public final class BluetoothDeviceFilter {
             return btClass != null
                     && doesClassMatch(btClass, BluetoothClass.PROFILE_PANU);
         }
+
+        public List<Term> getTerms() {
+            return Collections.singletonList(
+                    new Term(0, 0, ProfileUuidTable.PANU | CAP_CLASS_PANU));
+        }
     }
 
     /** Filter that matches devices that support NAP profile. */
@@ -168,6 +498,11 @@ public final class BluetoothDeviceFilter {
             return btClass != null
                     && doesClassMatch(btClass, BluetoothClass.PROFILE_NAP);
         }
+
+        public List<Term> getTerms() {
+            return Collections.singletonList(
+                    new Term(0, 0, ProfileUuidTable.NAP | CAP_CLASS_NAP));
+        }
     }
 
     @SuppressLint("NewApi") // Hidden API made public
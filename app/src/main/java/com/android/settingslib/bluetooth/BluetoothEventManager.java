@@ -27,9 +27,12 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.telephony.TelephonyManager;
 import android.util.Log;
+import android.view.Choreographer;
 import android.bluetooth.BluetoothA2dp;
 
 
@@ -38,12 +41,16 @@ import androidx.annotation.VisibleForTesting;
 
 
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * BluetoothEventManager receives broadcasts and callbacks from the Bluetooth
@@ -64,6 +71,18 @@ public class BluetoothEventManager {
     private final android.os.Handler mReceiverHandler;
     private final UserHandle mUserHandle;
     private final Context mContext;
+    private final Map<String, HandlingTimeHistogram> mHandlingTimes = new ConcurrentHashMap<>();
+    private final DiscoveryAggregator mDiscoveryAggregator;
+
+    // Batched callback delivery, used when broadcasts are handled off the main thread
+    private final android.os.Handler mMainHandler = new android.os.Handler(Looper.getMainLooper());
+    private final List<Consumer<BluetoothCallback>> mPendingCallbackEvents = new ArrayList<>();
+    private final Choreographer.FrameCallback mCallbackBatchFrameCallback =
+            frameTimeNanos -> deliverCallbackBatch();
+    private final Runnable mScheduleCallbackBatchRunnable =
+            () -> Choreographer.getInstance().postFrameCallback(mCallbackBatchFrameCallback);
+    private boolean mCallbackBatchScheduled;
+    private volatile boolean mBatchCallbacks;
 
     interface Handler {
         void onReceive(Context context, Intent intent, BluetoothDevice device);
@@ -89,6 +108,8 @@ public class BluetoothEventManager {
         mContext = context;
         mUserHandle = userHandle;
         mReceiverHandler = handler;
+        // Receivers registered without a handler run on the main thread
+        mDiscoveryAggregator = new DiscoveryAggregator(handler != null ? handler : mMainHandler);
 
         // Bluetooth on/off broadcasts
         addHandler(BluetoothAdapter.ACTION_STATE_CHANGED, new AdapterStateChangedHandler());
@@ -148,6 +169,30 @@ public class BluetoothEventManager {
         mCallbacks.remove(callback);
     }
 
+    /**
+     * Enables or disables batched callback delivery. When enabled, {@link BluetoothCallback}
+     * events are queued and delivered on the main thread together, in one message per frame.
+     * This is meant for a manager whose broadcasts are handled on a dedicated thread.
+     */
+    void setBatchCallbacks(boolean batchCallbacks) {
+        mBatchCallbacks = batchCallbacks;
+    }
+
+    /**
+     * Returns the broadcast handling time histograms, keyed by the name of the handler and the
+     * action it handled.
+     */
+    public Map<String, HandlingTimeHistogram> getHandlingTimeHistograms() {
+        return new HashMap<>(mHandlingTimes);
+    }
+
+    /**
+     * Returns the aggregator of discovery results, which also reports discovery throughput.
+     */
+    public DiscoveryAggregator getDiscoveryAggregator() {
+        return mDiscoveryAggregator;
+    }
+
     @VisibleForTesting
     void registerProfileIntentReceiver() {
         registerIntentReceiver(mProfileBroadcastReceiver, mProfileIntentFilter);
@@ -180,7 +225,16 @@ public class BluetoothEventManager {
         mProfileIntentFilter.addAction(action);
     }
 
+    Handler getProfileHandler(String action) {
+        return mHandlerMap.get(action);
+    }
+
     boolean readPairedDevices() {
+        return readPairedDevices(/* deferFillData= */ false);
+    }
+
+    // @param deferFillData whether the new devices are created with their identity only
+    boolean readPairedDevices(boolean deferFillData) {
         Set<BluetoothDevice> bondedDevices = mLocalAdapter.getBondedDevices();
         if (bondedDevices == null) {
             return false;
@@ -190,7 +244,7 @@ public class BluetoothEventManager {
         for (BluetoothDevice device : bondedDevices) {
             CachedBluetoothDevice cachedDevice = mDeviceManager.findDevice(device);
             if (cachedDevice == null) {
-                mDeviceManager.addDevice(device);
+                mDeviceManager.addDevice(device, deferFillData);
                 deviceAdded = true;
             }
         }
@@ -199,54 +253,71 @@ public class BluetoothEventManager {
     }
 
     void dispatchDeviceAdded(CachedBluetoothDevice cachedDevice) {
-        for (BluetoothCallback callback : mCallbacks) {
-            callback.onDeviceAdded(cachedDevice);
-        }
+        dispatchCallbacks(callback -> callback.onDeviceAdded(cachedDevice));
     }
 
     void dispatchDeviceRemoved(CachedBluetoothDevice cachedDevice) {
-        for (BluetoothCallback callback : mCallbacks) {
-            callback.onDeviceDeleted(cachedDevice);
-        }
+        dispatchCallbacks(callback -> callback.onDeviceDeleted(cachedDevice));
     }
 
     void dispatchProfileConnectionStateChanged(CachedBluetoothDevice device, int state,
                                                int bluetoothProfile) {
-        for (BluetoothCallback callback : mCallbacks) {
-            callback.onProfileConnectionStateChanged(device, state, bluetoothProfile);
-        }
+        dispatchCallbacks(callback ->
+                callback.onProfileConnectionStateChanged(device, state, bluetoothProfile));
     }
 
     private void dispatchConnectionStateChanged(CachedBluetoothDevice cachedDevice, int state) {
-        for (BluetoothCallback callback : mCallbacks) {
-            callback.onConnectionStateChanged(cachedDevice, state);
-        }
+        dispatchCallbacks(callback -> callback.onConnectionStateChanged(cachedDevice, state));
     }
 
     private void dispatchAudioModeChanged() {
-        for (CachedBluetoothDevice cachedDevice : mDeviceManager.getCachedDevicesCopy()) {
+        for (CachedBluetoothDevice cachedDevice
+                : mDeviceManager.getCachedDevicesSnapshot().getDevices()) {
             cachedDevice.onAudioModeChanged();
         }
-        for (BluetoothCallback callback : mCallbacks) {
-            callback.onAudioModeChanged();
-        }
+        dispatchCallbacks(callback -> callback.onAudioModeChanged());
     }
 
     @VisibleForTesting
     void dispatchActiveDeviceChanged(CachedBluetoothDevice activeDevice,
                                      int bluetoothProfile) {
-        for (CachedBluetoothDevice cachedDevice : mDeviceManager.getCachedDevicesCopy()) {
-            boolean isActive = Objects.equals(cachedDevice, activeDevice);
-            cachedDevice.onActiveDeviceChanged(isActive, bluetoothProfile);
+        mDeviceManager.onActiveDeviceChanged(activeDevice, bluetoothProfile);
+        dispatchCallbacks(callback ->
+                callback.onActiveDeviceChanged(activeDevice, bluetoothProfile));
+    }
+
+    private void dispatchAclStateChanged(CachedBluetoothDevice activeDevice, int state) {
+        dispatchCallbacks(callback -> callback.onAclConnectionStateChanged(activeDevice, state));
+    }
+
+    private void dispatchCallbacks(Consumer<BluetoothCallback> event) {
+        if (!mBatchCallbacks) {
+            for (BluetoothCallback callback : mCallbacks) {
+                event.accept(callback);
+            }
+            return;
         }
-        for (BluetoothCallback callback : mCallbacks) {
-            callback.onActiveDeviceChanged(activeDevice, bluetoothProfile);
+        synchronized (mPendingCallbackEvents) {
+            mPendingCallbackEvents.add(event);
+            if (mCallbackBatchScheduled) {
+                return;
+            }
+            mCallbackBatchScheduled = true;
         }
+        mMainHandler.post(mScheduleCallbackBatchRunnable);
     }
 
-    private void dispatchAclStateChanged(CachedBluetoothDevice activeDevice, int state) {
-        for (BluetoothCallback callback : mCallbacks) {
-            callback.onAclConnectionStateChanged(activeDevice, state);
+    private void deliverCallbackBatch() {
+        final List<Consumer<BluetoothCallback>> events;
+        synchronized (mPendingCallbackEvents) {
+            events = new ArrayList<>(mPendingCallbackEvents);
+            mPendingCallbackEvents.clear();
+            mCallbackBatchScheduled = false;
+        }
+        for (Consumer<BluetoothCallback> event : events) {
+            for (BluetoothCallback callback : mCallbacks) {
+                event.accept(callback);
+            }
         }
     }
 
@@ -265,8 +336,79 @@ public class BluetoothEventManager {
 
             Handler handler = mHandlerMap.get(action);
             if (handler != null) {
+                final long startNanos = SystemClock.elapsedRealtimeNanos();
                 handler.onReceive(context, intent, device);
+                recordHandlingTime(handler, action,
+                        SystemClock.elapsedRealtimeNanos() - startNanos);
+            }
+        }
+    }
+
+    private void recordHandlingTime(Handler handler, String action, long elapsedNanos) {
+        final String key = handler.getClass().getSimpleName() + "/" + action;
+        HandlingTimeHistogram histogram = mHandlingTimes.get(key);
+        if (histogram == null) {
+            histogram = new HandlingTimeHistogram();
+            final HandlingTimeHistogram existing = mHandlingTimes.putIfAbsent(key, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        histogram.record(elapsedNanos);
+    }
+
+    /**
+     * Histogram of broadcast handling times with power-of-two microsecond buckets: bucket
+     * {@code i} counts handlings that took less than {@code 2^i} microseconds, the last bucket
+     * collects everything slower.
+     */
+    public static final class HandlingTimeHistogram {
+        public static final int BUCKET_COUNT = 20;
+
+        private final long[] mBuckets = new long[BUCKET_COUNT];
+        private long mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        synchronized void record(long elapsedNanos) {
+            final long micros = elapsedNanos / 1000;
+            final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            mBuckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+            mCount++;
+            mTotalNanos += elapsedNanos;
+            mMaxNanos = Math.max(mMaxNanos, elapsedNanos);
+        }
+
+        public synchronized long[] getBuckets() {
+            return mBuckets.clone();
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public synchronized long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("count=").append(mCount)
+                    .append(" avgUs=").append(mCount == 0 ? 0 : mTotalNanos / mCount / 1000)
+                    .append(" maxUs=").append(mMaxNanos / 1000)
+                    .append(" buckets=[");
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(mBuckets[i]);
             }
+            return sb.append(']').toString();
         }
     }
 
@@ -277,9 +419,7 @@ public class BluetoothEventManager {
             // update local profiles and get paired devices
             mLocalAdapter.setBluetoothStateInt(state);
             // send callback to update UI and possibly start scanning
-            for (BluetoothCallback callback : mCallbacks) {
-                callback.onBluetoothStateChanged(state);
-            }
+            dispatchCallbacks(callback -> callback.onBluetoothStateChanged(state));
             // Inform CachedDeviceManager that the adapter state has changed
             mDeviceManager.onBluetoothStateChanged(state);
         }
@@ -293,9 +433,12 @@ public class BluetoothEventManager {
         }
 
         public void onReceive(Context context, Intent intent, BluetoothDevice device) {
-            for (BluetoothCallback callback : mCallbacks) {
-                callback.onScanningStateChanged(mStarted);
+            if (mStarted) {
+                mDiscoveryAggregator.onDiscoveryStarted();
+            } else {
+                mDiscoveryAggregator.onDiscoveryFinished();
             }
+            dispatchCallbacks(callback -> callback.onScanningStateChanged(mStarted));
             mDeviceManager.onScanningStateChanged(mStarted);
         }
     }
@@ -310,19 +453,22 @@ public class BluetoothEventManager {
             // TODO Pick up UUID. They should be available for 2.1 devices.
             // Skip for now, there's a bluez problem and we are not getting uuids even for 2.1.
             CachedBluetoothDevice cachedDevice = mDeviceManager.findDevice(device);
-            if (cachedDevice == null) {
+            final boolean isNewDevice = cachedDevice == null;
+            if (isNewDevice) {
                 cachedDevice = mDeviceManager.addDevice(device);
                 Log.d(TAG, "DeviceFoundHandler created new CachedBluetoothDevice "
                         + cachedDevice.getDevice().getAnonymizedAddress());
-            } else if (cachedDevice.getBondState() == BluetoothDevice.BOND_BONDED
+            }
+            // Repeated reports of a device within the inquiry are merged by the aggregator
+            final boolean isFirstReport = mDiscoveryAggregator.onDeviceFound(cachedDevice, rssi,
+                    name, isCoordinatedSetMember);
+            if (!isNewDevice && isFirstReport
+                    && cachedDevice.getBondState() == BluetoothDevice.BOND_BONDED
                     && !cachedDevice.getDevice().isConnected()) {
                 // Dispatch device add callback to show bonded but
                 // not connected devices in discovery mode
                 dispatchDeviceAdded(cachedDevice);
             }
-            cachedDevice.setRssi(rssi);
-            cachedDevice.setJustDiscovered(true);
-            cachedDevice.setIsCoordinatedSetMember(isCoordinatedSetMember);
         }
     }
 
@@ -364,9 +510,8 @@ public class BluetoothEventManager {
                 cachedDevice = mDeviceManager.addDevice(device);
             }
 
-            for (BluetoothCallback callback : mCallbacks) {
-                callback.onDeviceBondStateChanged(cachedDevice, bondState);
-            }
+            final CachedBluetoothDevice bondDevice = cachedDevice;
+            dispatchCallbacks(callback -> callback.onDeviceBondStateChanged(bondDevice, bondState));
             cachedDevice.onBondingStateChanged(bondState);
 
             if (bondState == BluetoothDevice.BOND_NONE) {
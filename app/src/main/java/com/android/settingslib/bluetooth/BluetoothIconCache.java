@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide cache of decoded Bluetooth device icons (METADATA_MAIN_ICON), keyed by icon URI
+ * and target size. The cache is bounded in bytes so its footprint does not grow with the number
+ * of {@link CachedBluetoothDevice}s, and concurrent requests for the same icon share one decode.
+ */
+public final class BluetoothIconCache {
+    private static final String TAG = "BluetoothIconCache";
+
+    // Upper bound of the shared budget, a fraction of the heap on small devices
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private static BluetoothIconCache sInstance;
+
+    private final LruCache<String, Bitmap> mCache;
+    private final Map<String, CompletableFuture<Bitmap>> mPendingDecodes =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger mDecodeCount = new AtomicInteger();
+    private final AtomicInteger mSharedDecodeCount = new AtomicInteger();
+
+    /**
+     * @return the process-wide icon cache
+     */
+    public static synchronized BluetoothIconCache getInstance() {
+        if (sInstance == null) {
+            final long heapBudget = Runtime.getRuntime().maxMemory() / 32;
+            sInstance = new BluetoothIconCache((int) Math.min(heapBudget, MAX_CACHE_BYTES));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BluetoothIconCache(int maxBytes) {
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the cached icon for {@code uri} at {@code size} pixels without decoding.
+     *
+     * @return the icon bitmap, or {@code null} if it is not cached
+     */
+    public Bitmap peek(Uri uri, int size) {
+        return mCache.get(getKey(uri, size));
+    }
+
+    /**
+     * Returns the icon for {@code uri} decoded at {@code size} x {@code size} pixels, decoding it
+     * if needed. Must not be called on the main thread. If another thread is already decoding the
+     * same icon, waits for that decode instead of starting a new one.
+     *
+     * @return the icon bitmap, or {@code null} if it could not be decoded
+     */
+    public Bitmap getOrDecode(Context context, Uri uri, int size) {
+        final String key = getKey(uri, size);
+        final Bitmap cached = mCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final CompletableFuture<Bitmap> decode = new CompletableFuture<>();
+        final CompletableFuture<Bitmap> pending = mPendingDecodes.putIfAbsent(key, decode);
+        if (pending != null) {
+            mSharedDecodeCount.incrementAndGet();
+            return pending.join();
+        }
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = decode(context, uri, size);
+            if (bitmap != null) {
+                mCache.put(key, bitmap);
+            }
+        } finally {
+            mPendingDecodes.remove(key, decode);
+            decode.complete(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Drops all cached icons.
+     */
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    /**
+     * @return the number of lookups that returned a cached icon
+     */
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    /**
+     * @return the number of lookups that did not find a cached icon
+     */
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * @return the number of icons evicted to stay within the byte budget
+     */
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * @return the number of icons decoded from their URI
+     */
+    public int getDecodeCount() {
+        return mDecodeCount.get();
+    }
+
+    /**
+     * @return the number of requests served by waiting on another thread's in-flight decode
+     */
+    public int getSharedDecodeCount() {
+        return mSharedDecodeCount.get();
+    }
+
+    /**
+     * @return the bytes currently held by the cache
+     */
+    public int getSizeBytes() {
+        return mCache.size();
+    }
+
+    /**
+     * @return the byte budget of the cache
+     */
+    public int getMaxSizeBytes() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothIconCache[size=" + getSizeBytes() + "/" + getMaxSizeBytes()
+                + " hits=" + getHitCount() + " misses=" + getMissCount()
+                + " evictions=" + getEvictionCount() + " decodes=" + getDecodeCount()
+                + " sharedDecodes=" + getSharedDecodeCount() + "]";
+    }
+
+    private Bitmap decode(Context context, Uri uri, int size) {
+        try {
+            context.getContentResolver().takePersistableUriPermission(uri,
+                    Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Failed to take persistable permission for: " + uri, e);
+        }
+        mDecodeCount.incrementAndGet();
+        try {
+            // Let the decoder downsample while decoding instead of scaling a full size bitmap.
+            // Software bitmaps, like the MediaStore ones, support software drawing, pixel access
+            // and parceling, and count against the heap budget of the cache.
+            final ImageDecoder.Source source =
+                    ImageDecoder.createSource(context.getContentResolver(), uri);
+            return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                decoder.setTargetSize(size, size);
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to get drawable for: " + uri, e);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Failed to get permission for: " + uri, e);
+        }
+        return null;
+    }
+
+    private static String getKey(Uri uri, int size) {
+        return uri.toString() + '@' + size;
+    }
+}
@@ -6,7 +6,6 @@ import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
-import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -14,7 +13,6 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.provider.DeviceConfig;
-import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
@@ -26,7 +24,6 @@ import androidx.core.graphics.drawable.IconCompat;
 
 import com.gdet.testapp.R;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Locale;
 import java.util.regex.Matcher;
@@ -201,26 +198,10 @@ public class BluetoothUtils {
             final Uri iconUri = getUriMetaData(bluetoothDevice,
                     BluetoothDevice.METADATA_MAIN_ICON);
             if (iconUri != null) {
-                try {
-                    context.getContentResolver().takePersistableUriPermission(iconUri,
-                            Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                } catch (SecurityException e) {
-                    Log.e(TAG, "Failed to take persistable permission for: " + iconUri, e);
-                }
-                try {
-                    final Bitmap bitmap = MediaStore.Images.Media.getBitmap(
-                            context.getContentResolver(), iconUri);
-                    if (bitmap != null) {
-                        final Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, iconSize,
-                                iconSize, false);
-                        bitmap.recycle();
-                        return new Pair<>(new BitmapDrawable(resources,
-                                resizedBitmap), pair.second);
-                    }
-                } catch (IOException e) {
-                    Log.e(TAG, "Failed to get drawable for: " + iconUri, e);
-                } catch (SecurityException e) {
-                    Log.e(TAG, "Failed to get permission for: " + iconUri, e);
+                final Bitmap bitmap = BluetoothIconCache.getInstance().getOrDecode(context,
+                        iconUri, iconSize);
+                if (bitmap != null) {
+                    return new Pair<>(new BitmapDrawable(resources, bitmap), pair.second);
                 }
             }
         }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothClass;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * BondedDeviceSnapshot persists the displayed attributes of the bonded devices, so that the
+ * device list can be rendered at startup before they are read over binder.
+ *
+ * <p>The file starts with a magic number, a format version and a record count, followed by one
+ * record per device: address, alias, class of device and battery level. Strings are stored as
+ * a length followed by their UTF-8 bytes. The file is written atomically and memory mapped when
+ * read; an unknown version or a malformed file reads as empty.
+ */
+final class BondedDeviceSnapshot {
+    private static final String TAG = "BondedDeviceSnapshot";
+
+    private static final int MAGIC = 0x42545753; // "BTWS"
+    static final int VERSION = 1;
+
+    private BondedDeviceSnapshot() {
+    }
+
+    /**
+     * @return the records of {@code file} by address, or an empty map if it cannot be read
+     */
+    static Map<String, Record> read(File file) {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        try (FileInputStream in = atomicFile.openRead();
+                FileChannel channel = in.getChannel()) {
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                Log.w(TAG, "Ignoring " + file + ": bad magic");
+                return Collections.emptyMap();
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                Log.w(TAG, "Ignoring " + file + ": version " + version);
+                return Collections.emptyMap();
+            }
+            final int count = buffer.getInt();
+            final Map<String, Record> records = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                final String address = readString(buffer);
+                final String name = readString(buffer);
+                final int classOfDevice = buffer.getInt();
+                final int batteryLevel = buffer.getInt();
+                records.put(address, new Record(address, name, classOfDevice, batteryLevel));
+            }
+            return records;
+        } catch (FileNotFoundException e) {
+            return Collections.emptyMap();
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring malformed " + file, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Replaces the content of {@code file} with {@code records}.
+     */
+    static void write(File file, Collection<Record> records) {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(records.size());
+            for (Record record : records) {
+                writeString(data, record.mAddress);
+                writeString(data, record.mName);
+                data.writeInt(record.mClassOfDevice);
+                data.writeInt(record.mBatteryLevel);
+            }
+            data.flush();
+            atomicFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+            atomicFile.failWrite(out);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("String length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    /**
+     * Persisted attributes of one bonded device.
+     */
+    static final class Record {
+        final String mAddress;
+        // The alias of the device, null if it has none
+        final String mName;
+        // BluetoothClass#ERROR if the device has no class
+        final int mClassOfDevice;
+        final int mBatteryLevel;
+        final BluetoothClass mBtClass;
+
+        Record(String address, String name, int classOfDevice, int batteryLevel) {
+            mAddress = address;
+            mName = name;
+            mClassOfDevice = classOfDevice;
+            mBatteryLevel = batteryLevel;
+            mBtClass = classOfDevice != BluetoothClass.ERROR
+                    ? new BluetoothClass(classOfDevice) : null;
+        }
+
+        Record(String address, String name, BluetoothClass btClass, int batteryLevel) {
+            this(address, name,
+                    btClass != null ? btClass.getClassOfDevice() : BluetoothClass.ERROR,
+                    batteryLevel);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Record)) {
+                return false;
+            }
+            final Record other = (Record) o;
+            return mClassOfDevice == other.mClassOfDevice
+                    && mBatteryLevel == other.mBatteryLevel
+                    && TextUtils.equals(mAddress, other.mAddress)
+                    && TextUtils.equals(mName, other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAddress, mName, mClassOfDevice, mBatteryLevel);
+        }
+    }
+}
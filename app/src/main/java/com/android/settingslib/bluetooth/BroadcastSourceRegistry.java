@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothLeBroadcastMetadata;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * BroadcastSourceRegistry merges the repeated
+ * {@link android.bluetooth.BluetoothLeBroadcastAssistant.Callback#onSourceFound} reports of a
+ * source search. Sources are keyed by advertiser address and broadcast id and keep their latest
+ * metadata; a source that is not reported again within {@link #SOURCE_TIMEOUT_MS} is removed.
+ *
+ * <p>Changes are delivered to the {@link LocalBluetoothLeBroadcastAssistant.SourceCallback}s as
+ * incremental added / updated / removed events, at most once per {@link #EVENT_INTERVAL_MS}.
+ * It is only accessed from the main thread; {@link #getSources()} may be called from any thread.
+ */
+final class BroadcastSourceRegistry {
+    @VisibleForTesting
+    static final long EVENT_INTERVAL_MS = 250;
+    @VisibleForTesting
+    static final long SOURCE_TIMEOUT_MS = 10000;
+
+    private static final int EVENT_NONE = 0;
+    private static final int EVENT_ADDED = 1;
+    private static final int EVENT_UPDATED = 2;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDeliverRunnable = this::deliverPending;
+    private final Map<String, SourceRecord> mSources = new LinkedHashMap<>();
+    private final Collection<LocalBluetoothLeBroadcastAssistant.SourceCallback> mCallbacks =
+            new CopyOnWriteArrayList<>();
+
+    private volatile List<BluetoothLeBroadcastMetadata> mSourcesSnapshot =
+            Collections.emptyList();
+    private volatile long mReportCount;
+    private volatile long mSuppressedCount;
+    // Elapsed realtime of the scheduled delivery, or Long.MAX_VALUE if none is scheduled
+    private long mScheduledDeliveryMs = Long.MAX_VALUE;
+    private long mLastDeliveryMs;
+
+    void registerCallback(LocalBluetoothLeBroadcastAssistant.SourceCallback callback) {
+        mCallbacks.add(callback);
+    }
+
+    void unregisterCallback(LocalBluetoothLeBroadcastAssistant.SourceCallback callback) {
+        mCallbacks.remove(callback);
+    }
+
+    /**
+     * Handles one onSourceFound report of {@code metadata}.
+     */
+    void onSourceFound(BluetoothLeBroadcastMetadata metadata) {
+        final long now = SystemClock.elapsedRealtime();
+        mReportCount++;
+        final String key = getKey(metadata);
+        final SourceRecord record = mSources.get(key);
+        if (record == null) {
+            mSources.put(key, new SourceRecord(metadata, now));
+        } else {
+            record.mLastSeenMs = now;
+            if (Objects.equals(record.mMetadata, metadata)) {
+                mSuppressedCount++;
+                return;
+            }
+            record.mMetadata = metadata;
+            if (record.mPendingEvent == EVENT_NONE) {
+                record.mPendingEvent = EVENT_UPDATED;
+            }
+        }
+        scheduleDelivery(now);
+    }
+
+    /**
+     * Removes every source, e.g. when the assistant service disconnects.
+     */
+    void clear() {
+        mMainHandler.removeCallbacks(mDeliverRunnable);
+        mScheduledDeliveryMs = Long.MAX_VALUE;
+        final List<BluetoothLeBroadcastMetadata> removed = new ArrayList<>();
+        for (SourceRecord record : mSources.values()) {
+            // Sources never delivered as added are not delivered as removed either
+            if (record.mPendingEvent != EVENT_ADDED) {
+                removed.add(record.mMetadata);
+            }
+        }
+        mSources.clear();
+        mSourcesSnapshot = Collections.emptyList();
+        for (BluetoothLeBroadcastMetadata metadata : removed) {
+            for (LocalBluetoothLeBroadcastAssistant.SourceCallback callback : mCallbacks) {
+                callback.onSourceLost(metadata);
+            }
+        }
+    }
+
+    /**
+     * @return the sources delivered to the callbacks so far, in the order they were found
+     */
+    List<BluetoothLeBroadcastMetadata> getSources() {
+        return mSourcesSnapshot;
+    }
+
+    private void scheduleDelivery(long now) {
+        scheduleDeliveryAt(Math.max(now, mLastDeliveryMs + EVENT_INTERVAL_MS), now);
+    }
+
+    private void scheduleDeliveryAt(long deliveryMs, long now) {
+        // An earlier delivery also handles the timeouts, so keep only the earliest one
+        if (deliveryMs >= mScheduledDeliveryMs) {
+            return;
+        }
+        mMainHandler.removeCallbacks(mDeliverRunnable);
+        mScheduledDeliveryMs = deliveryMs;
+        mMainHandler.postDelayed(mDeliverRunnable, deliveryMs - now);
+    }
+
+    private void deliverPending() {
+        final long now = SystemClock.elapsedRealtime();
+        mScheduledDeliveryMs = Long.MAX_VALUE;
+        mLastDeliveryMs = now;
+
+        final List<BluetoothLeBroadcastMetadata> added = new ArrayList<>();
+        final List<BluetoothLeBroadcastMetadata> updated = new ArrayList<>();
+        final List<BluetoothLeBroadcastMetadata> removed = new ArrayList<>();
+        long nextTimeoutMs = Long.MAX_VALUE;
+        for (Iterator<SourceRecord> it = mSources.values().iterator(); it.hasNext(); ) {
+            final SourceRecord record = it.next();
+            final long timeoutMs = record.mLastSeenMs + SOURCE_TIMEOUT_MS;
+            if (timeoutMs <= now) {
+                it.remove();
+                if (record.mPendingEvent != EVENT_ADDED) {
+                    removed.add(record.mMetadata);
+                }
+                continue;
+            }
+            nextTimeoutMs = Math.min(nextTimeoutMs, timeoutMs);
+            if (record.mPendingEvent == EVENT_ADDED) {
+                added.add(record.mMetadata);
+            } else if (record.mPendingEvent == EVENT_UPDATED) {
+                updated.add(record.mMetadata);
+            }
+            record.mPendingEvent = EVENT_NONE;
+        }
+        if (!added.isEmpty() || !updated.isEmpty() || !removed.isEmpty()) {
+            final List<BluetoothLeBroadcastMetadata> sources = new ArrayList<>(mSources.size());
+            for (SourceRecord record : mSources.values()) {
+                sources.add(record.mMetadata);
+            }
+            mSourcesSnapshot = Collections.unmodifiableList(sources);
+        }
+        if (nextTimeoutMs != Long.MAX_VALUE) {
+            scheduleDeliveryAt(nextTimeoutMs, now);
+        }
+
+        for (LocalBluetoothLeBroadcastAssistant.SourceCallback callback : mCallbacks) {
+            for (BluetoothLeBroadcastMetadata metadata : removed) {
+                callback.onSourceLost(metadata);
+            }
+            for (BluetoothLeBroadcastMetadata metadata : added) {
+                callback.onSourceDiscovered(metadata);
+            }
+            for (BluetoothLeBroadcastMetadata metadata : updated) {
+                callback.onSourceUpdated(metadata);
+            }
+        }
+    }
+
+    private static String getKey(BluetoothLeBroadcastMetadata metadata) {
+        final BluetoothDevice device = metadata.getSourceDevice();
+        return (device != null ? device.getAddress() : null) + "/" + metadata.getBroadcastId();
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastSourceRegistry[sources=" + mSources.size() + " reports=" + mReportCount
+                + " suppressed=" + mSuppressedCount + "]";
+    }
+
+    private static final class SourceRecord {
+        BluetoothLeBroadcastMetadata mMetadata;
+        long mLastSeenMs;
+        int mPendingEvent = EVENT_ADDED;
+
+        SourceRecord(BluetoothLeBroadcastMetadata metadata, long lastSeenMs) {
+            mMetadata = metadata;
+            mLastSeenMs = lastSeenMs;
+        }
+    }
+}
@@ -31,13 +31,13 @@ import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.LocaleList;
 import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.EventLog;
 import android.util.Log;
-import android.util.LruCache;
 import android.util.Pair;
 
 import androidx.annotation.VisibleForTesting;
@@ -45,15 +45,19 @@ import androidx.annotation.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 
 import com.android.settingslib.Utils;
+import com.android.settingslib.utils.PrioritizedExecutor;
 import com.android.settingslib.utils.ThreadUtils;
 import com.gdet.testapp.R;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * CachedBluetoothDevice represents a remote Bluetooth device. It contains
@@ -72,6 +76,24 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     private static final long MAX_LEAUDIO_DELAY_FOR_AUTO_CONNECT = 30000;
     private static final long MAX_MEDIA_PROFILE_CONNECT_DELAY = 60000;
 
+    // Fields of the sort key affected by an event, see #updateSortKey
+    private static final int SORT_KEY_STATE = 1 << 0;
+    private static final int SORT_KEY_NAME = 1 << 1;
+    private static final int SORT_KEY_DISCOVERY = 1 << 2;
+
+    // Memoized summary variants, see SummaryCache
+    private static final int SUMMARY_LONG = 0;
+    private static final int SUMMARY_SHORT = 1;
+    private static final int CAR_SUMMARY_LONG = 2;
+    private static final int CAR_SUMMARY_SHORT = 3;
+    private static final int CAR_SUMMARY_LONG_NO_DISCONNECTED = 4;
+    private static final int CAR_SUMMARY_SHORT_NO_DISCONNECTED = 5;
+    private static final int SUMMARY_VARIANT_COUNT = 6;
+
+    private static final AtomicLong sSummaryHitCount = new AtomicLong();
+    private static final AtomicLong sSummaryComputeCount = new AtomicLong();
+    private static final AtomicLong sSummaryComputeNanos = new AtomicLong();
+
     private final Context mContext;
     private final BluetoothAdapter mLocalAdapter;
     private final LocalBluetoothProfileManager mProfileManager;
@@ -123,8 +145,24 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     private CachedBluetoothDevice mSubDevice;
     // Group member devices for the coordinated set
     private Set<CachedBluetoothDevice> mMemberDevices = new HashSet<CachedBluetoothDevice>();
-    @VisibleForTesting
-    LruCache<String, BitmapDrawable> mDrawableCache;
+    // Address index of the owning CachedBluetoothDeviceManager, notified on group changes
+    private DeviceIndex mDeviceIndex;
+    // Cached ordering attributes so that compareTo does not need any binder call
+    private volatile SortKey mSortKey;
+    // Connection summaries, valid until the next profile, battery, active device or
+    // metadata change
+    private final SummaryCache mSummaryCache = new SummaryCache();
+    // ProfileUuidTable bits of the remote UUIDs of mDevice, valid until the next ACTION_UUID
+    private final DeviceValueCache mUuidMaskCache = new DeviceValueCache();
+    // BluetoothDeviceFilter capability bits of mDevice, valid until the next UUID, bond state,
+    // class or warm start change
+    private final DeviceValueCache mCapabilitiesCache = new DeviceValueCache();
+    // Key of the queued refresh task, see #refresh
+    private final Object mRefreshTaskKey = new Object();
+    // Set until fillDeferredData runs for a device created by the staged init
+    private volatile boolean mFillDataDeferred;
+    // Persisted attributes served until the live ones are read, see BondedDeviceSnapshot
+    private volatile BondedDeviceSnapshot.Record mWarmStartRecord;
 
     private final Handler mHandler = new Handler(Looper.getMainLooper()) {
         @Override
@@ -153,29 +191,28 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
 
     CachedBluetoothDevice(Context context, LocalBluetoothProfileManager profileManager,
             BluetoothDevice device) {
+        this(context, profileManager, device, /* deferFillData= */ false);
+    }
+
+    /**
+     * @param deferFillData {@code true} to only keep the device identity for now, leaving the
+     *         profiles and the other attributes read over binder to {@link #fillDeferredData}
+     */
+    CachedBluetoothDevice(Context context, LocalBluetoothProfileManager profileManager,
+            BluetoothDevice device, boolean deferFillData) {
         mContext = context;
         mLocalAdapter = BluetoothAdapter.getDefaultAdapter();
         mProfileManager = profileManager;
         mDevice = device;
-        fillData();
+        mFillDataDeferred = deferFillData;
+        if (!deferFillData) {
+            fillData(/* dispatch= */ true);
+        }
         mHiSyncId = BluetoothHearingAid.HI_SYNC_ID_INVALID;
         mGroupId = BluetoothCsipSetCoordinator.GROUP_ID_INVALID;
-        initDrawableCache();
         mUnpairing = false;
     }
 
-    private void initDrawableCache() {
-        int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-        int cacheSize = maxMemory / 8;
-
-        mDrawableCache = new LruCache<String, BitmapDrawable>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, BitmapDrawable bitmap) {
-                return bitmap.getBitmap().getByteCount() / 1024;
-            }
-        };
-    }
-
     /**
      * Describes the current device and profile for logging.
      *
@@ -261,7 +298,9 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
             }
         }
 
+        mSummaryCache.invalidate();
         fetchActiveDevices();
+        updateSortKey(SORT_KEY_STATE);
     }
 
     @VisibleForTesting
@@ -343,6 +382,7 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
 
     public void setDeviceSide(int side) {
         mDeviceSide = side;
+        mSummaryCache.invalidate();
     }
 
     public int getDeviceMode() {
@@ -358,7 +398,12 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     }
 
     public void setHiSyncId(long id) {
+        final long oldHiSyncId = mHiSyncId;
         mHiSyncId = id;
+        final DeviceIndex deviceIndex = mDeviceIndex;
+        if (deviceIndex != null && oldHiSyncId != id) {
+            deviceIndex.onHiSyncIdChanged(this, oldHiSyncId);
+        }
     }
 
     public boolean isHearingAidDevice() {
@@ -398,7 +443,12 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     * @param id the group id from the CSIP.
     */
     public void setGroupId(int id) {
+        final int oldGroupId = mGroupId;
         mGroupId = id;
+        final DeviceIndex deviceIndex = mDeviceIndex;
+        if (deviceIndex != null && oldGroupId != id) {
+            deviceIndex.onGroupIdChanged(this, oldGroupId);
+        }
     }
 
     void onBondingDockConnect() {
@@ -492,7 +542,6 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
                 mUnpairing = true;
                 final boolean successful = dev.removeBond();
                 if (successful) {
-                    releaseLruCache();
                     if (BluetoothUtils.D) {
                         Log.d(TAG, "Command sent successfully:REMOVE_BOND " + describe(null));
                     }
@@ -506,18 +555,34 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
 
     public int getProfileConnectionState(LocalBluetoothProfile profile) {
         return profile != null
-                ? profile.getConnectionStatus(mDevice)
+                ? mProfileManager.getConnectionStatus(profile, mDevice)
                 : BluetoothProfile.STATE_DISCONNECTED;
     }
 
+    /**
+     * Reads the attributes skipped by a deferred construction, if not done yet. No attributes
+     * change is dispatched, that is left to {@link #reconcileWarmStartRecord} for the devices
+     * whose displayed attributes differ from the warm start ones.
+     */
+    void fillDeferredData() {
+        if (mFillDataDeferred) {
+            mFillDataDeferred = false;
+            fillData(/* dispatch= */ false);
+        }
+    }
+
     // TODO: do any of these need to run async on a background thread?
-    private void fillData() {
+    private void fillData(boolean dispatch) {
         updateProfiles();
         fetchActiveDevices();
         migratePhonebookPermissionChoice();
         migrateMessagePermissionChoice();
 
-        dispatchAttributesChanged();
+        if (dispatch) {
+            dispatchAttributesChanged();
+        } else {
+            mSummaryCache.invalidate();
+        }
     }
 
     public BluetoothDevice getDevice() {
@@ -551,7 +616,9 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      * {@link BluetoothDevice#getAddress()}
      */
     public String getName() {
-        final String aliasName = mDevice.getAlias();
+        final BondedDeviceSnapshot.Record warmStartRecord = mWarmStartRecord;
+        final String aliasName =
+                warmStartRecord != null ? warmStartRecord.mName : mDevice.getAlias();
         return TextUtils.isEmpty(aliasName) ? getAddress() : aliasName;
     }
 
@@ -563,6 +630,8 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
         // Prevent getName() to be set to null if setName(null) is called
         if (name != null && !TextUtils.equals(name, getName())) {
             mDevice.setAlias(name);
+            mWarmStartRecord = null;
+            updateSortKey(SORT_KEY_NAME);
             dispatchAttributesChanged();
         }
     }
@@ -605,9 +674,11 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     }
 
     void refreshName() {
+        mWarmStartRecord = null;
         if (BluetoothUtils.D) {
             Log.d(TAG, "Device name: " + getName());
         }
+        updateSortKey(SORT_KEY_NAME);
         dispatchAttributesChanged();
     }
 
@@ -616,7 +687,9 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      * @return true if device's alias name is not null nor empty, false otherwise
      */
     public boolean hasHumanReadableName() {
-        return !TextUtils.isEmpty(mDevice.getAlias());
+        final BondedDeviceSnapshot.Record warmStartRecord = mWarmStartRecord;
+        return !TextUtils.isEmpty(
+                warmStartRecord != null ? warmStartRecord.mName : mDevice.getAlias());
     }
 
     /**
@@ -626,30 +699,79 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      * {@link BluetoothDevice#BATTERY_LEVEL_UNKNOWN}
      */
     public int getBatteryLevel() {
-        return mDevice.getBatteryLevel();
+        final BondedDeviceSnapshot.Record warmStartRecord = mWarmStartRecord;
+        return warmStartRecord != null
+                ? warmStartRecord.mBatteryLevel : mDevice.getBatteryLevel();
+    }
+
+    /**
+     * Serves the attributes of {@code record} instead of the live ones until
+     * {@link #reconcileWarmStartRecord} is called or a live change is received.
+     */
+    void applyWarmStartRecord(BondedDeviceSnapshot.Record record) {
+        mWarmStartRecord = record;
+        mCapabilitiesCache.invalidate();
+    }
+
+    /**
+     * @return the live attributes of this device to persist, read over binder
+     */
+    BondedDeviceSnapshot.Record toWarmStartRecord() {
+        return new BondedDeviceSnapshot.Record(getAddress(), mDevice.getAlias(),
+                mDevice.getBluetoothClass(), mDevice.getBatteryLevel());
+    }
+
+    /**
+     * Switches from the warm start attributes to the live ones, dispatching an attributes
+     * change if they differ.
+     *
+     * @return {@code true} if the live attributes differ from the warm start ones
+     */
+    boolean reconcileWarmStartRecord() {
+        final BondedDeviceSnapshot.Record warmStartRecord = mWarmStartRecord;
+        if (warmStartRecord == null) {
+            return false;
+        }
+        mWarmStartRecord = null;
+        mCapabilitiesCache.invalidate();
+        if (warmStartRecord.equals(toWarmStartRecord())) {
+            return false;
+        }
+        updateSortKey(SORT_KEY_NAME);
+        dispatchAttributesChanged();
+        return true;
     }
 
     void refresh() {
-        ThreadUtils.postOnBackgroundThread(() -> {
-            if (BluetoothUtils.isAdvancedDetailsHeader(mDevice)) {
-                Uri uri = BluetoothUtils.getUriMetaData(getDevice(),
-                        BluetoothDevice.METADATA_MAIN_ICON);
-                if (uri != null && mDrawableCache.get(uri.toString()) == null) {
-                    mDrawableCache.put(uri.toString(),
-                            (BitmapDrawable) BluetoothUtils.getBtDrawableWithDescription(
-                                    mContext, this).first);
-                }
+        // Class and battery changes end up here, from now on the live attributes are served
+        mWarmStartRecord = null;
+        mCapabilitiesCache.invalidate();
+        // A refresh still queued is superseded by this one, which dispatches the same change
+        ThreadUtils.postOnBackgroundThread(mRefreshTaskKey, PrioritizedExecutor.LANE_DEFAULT,
+                this::refreshInBackground);
+    }
+
+    private void refreshInBackground() {
+        if (BluetoothUtils.isAdvancedDetailsHeader(mDevice)) {
+            Uri uri = BluetoothUtils.getUriMetaData(getDevice(),
+                    BluetoothDevice.METADATA_MAIN_ICON);
+            final int iconSize = mContext.getResources().getDimensionPixelSize(
+                    R.dimen.bt_nearby_icon_size);
+            if (uri != null && BluetoothIconCache.getInstance().peek(uri, iconSize) == null) {
+                // Warms the shared icon cache
+                BluetoothUtils.getBtDrawableWithDescription(mContext, this);
             }
+        }
 
-            ThreadUtils.postOnMainThread(() -> {
-                dispatchAttributesChanged();
-            });
+        ThreadUtils.postOnMainThread(() -> {
+            dispatchAttributesChanged();
         });
     }
 
     public void setJustDiscovered(boolean justDiscovered) {
         if (mJustDiscovered != justDiscovered) {
             mJustDiscovered = justDiscovered;
+            updateSortKey(SORT_KEY_DISCOVERY);
             dispatchAttributesChanged();
         }
     }
@@ -726,6 +848,7 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     void setRssi(short rssi) {
         if (mRssi != rssi) {
             mRssi = rssi;
+            updateSortKey(SORT_KEY_DISCOVERY);
             dispatchAttributesChanged();
         }
     }
@@ -768,14 +891,20 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     }
 
     private boolean updateProfiles() {
-        ParcelUuid[] uuids = mDevice.getUuids();
-        if (uuids == null) return false;
-
-        List<ParcelUuid> uuidsList = mLocalAdapter.getUuidsList();
-        ParcelUuid[] localUuids = new ParcelUuid[uuidsList.size()];
-        uuidsList.toArray(localUuids);
+        final BluetoothDevice device = mDevice;
+        final int generation = mUuidMaskCache.getGeneration();
+        final long cachedUuidMask = mUuidMaskCache.get(device);
+        final int uuidMask;
+        if (cachedUuidMask != DeviceValueCache.NOT_CACHED) {
+            uuidMask = (int) cachedUuidMask;
+        } else {
+            ParcelUuid[] uuids = device.getUuids();
+            if (uuids == null) return false;
+            uuidMask = ProfileUuidTable.toBitmask(uuids);
+            mUuidMaskCache.put(generation, device, uuidMask & 0xffffffffL);
+        }
 
-        if (localUuids == null) return false;
+        final int localUuidMask = ProfileUuidTable.toBitmask(mLocalAdapter.getUuidsList());
 
         /*
          * Now we know if the device supports PBAP, update permissions...
@@ -783,8 +912,8 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
         processPhonebookAccess();
 
         synchronized (mProfileLock) {
-            mProfileManager.updateProfiles(uuids, localUuids, mProfiles, mRemovedProfiles,
-                    mLocalNapRoleConnected, mDevice);
+            mProfileManager.updateProfiles(uuidMask, localUuidMask, mProfiles, mRemovedProfiles,
+                    mLocalNapRoleConnected, device);
         }
 
         if (BluetoothUtils.D) {
@@ -792,10 +921,7 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
             BluetoothClass bluetoothClass = mDevice.getBluetoothClass();
 
             if (bluetoothClass != null) Log.v(TAG, "Class: " + bluetoothClass.toString());
-            Log.v(TAG, "UUID:");
-            for (ParcelUuid uuid : uuids) {
-                Log.v(TAG, "  " + uuid);
-            }
+            Log.v(TAG, "UUID mask: " + Integer.toHexString(uuidMask));
         }
         return true;
     }
@@ -823,6 +949,8 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      * Refreshes the UI when framework alerts us of a UUID change.
      */
     void onUuidChanged() {
+        mUuidMaskCache.invalidate();
+        mCapabilitiesCache.invalidate();
         updateProfiles();
         ParcelUuid[] uuids = mDevice.getUuids();
 
@@ -849,6 +977,7 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
             connectDevice();
         }
 
+        updateSortKey(SORT_KEY_STATE);
         dispatchAttributesChanged();
     }
 
@@ -862,6 +991,7 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
             mDevice.setSimAccessPermission(BluetoothDevice.ACCESS_UNKNOWN);
         }
 
+        updateSortKey(SORT_KEY_STATE);
         refresh();
 
         if (bondState == BluetoothDevice.BOND_BONDED && mDevice.isBondingInitiatedLocally()) {
@@ -870,7 +1000,25 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     }
 
     public BluetoothClass getBtClass() {
-        return mDevice.getBluetoothClass();
+        final BondedDeviceSnapshot.Record warmStartRecord = mWarmStartRecord;
+        return warmStartRecord != null ? warmStartRecord.mBtClass : mDevice.getBluetoothClass();
+    }
+
+    /**
+     * @return the {@link BluetoothDeviceFilter} capability bits of this device, read from the
+     * cache when valid
+     */
+    long getCapabilities() {
+        final BluetoothDevice device = mDevice;
+        final int generation = mCapabilitiesCache.getGeneration();
+        final long cachedCapabilities = mCapabilitiesCache.get(device);
+        if (cachedCapabilities != DeviceValueCache.NOT_CACHED) {
+            return cachedCapabilities;
+        }
+        final long capabilities = BluetoothDeviceFilter.getCapabilities(device.getUuids(),
+                getBtClass(), device.getBondState());
+        mCapabilitiesCache.put(generation, device, capabilities);
+        return capabilities;
     }
 
     public List<LocalBluetoothProfile> getProfiles() {
@@ -903,6 +1051,15 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     }
 
     void dispatchAttributesChanged() {
+        // Every displayed attribute change goes through here: battery and metadata refreshes,
+        // active device, audio mode, name, bond and UUID changes
+        mSummaryCache.invalidate();
+        if (!AttributesChangedCoalescer.getInstance().enqueue(this)) {
+            deliverAttributesChanged();
+        }
+    }
+
+    void deliverAttributesChanged() {
         for (Callback callback : mCallbacks) {
             callback.onDeviceAttributesChanged();
         }
@@ -929,26 +1086,182 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     // This comparison uses non-final fields so the sort order may change
     // when device attributes change (such as bonding state). Settings
     // will completely refresh the device list when this happens.
+    // The attributes are read from the cached sort key, which is refreshed by the events
+    // that change them, so comparing does not cost any binder call.
     public int compareTo(CachedBluetoothDevice another) {
-        // Connected above not connected
-        int comparison = (another.isConnected() ? 1 : 0) - (isConnected() ? 1 : 0);
-        if (comparison != 0) return comparison;
+        return getSortKey().compareTo(another.getSortKey());
+    }
+
+    SortKey getSortKey() {
+        SortKey sortKey = mSortKey;
+        if (sortKey == null) {
+            sortKey = computeSortKey();
+            mSortKey = sortKey;
+        }
+        return sortKey;
+    }
+
+    private SortKey computeSortKey() {
+        return new SortKey(isConnected(), getBondState() == BluetoothDevice.BOND_BONDED,
+                mJustDiscovered, mRssi, getName());
+    }
+
+    /**
+     * Refreshes the fields of the sort key changed by an event and lets the device manager
+     * reposition this device in its sorted view. Must not be called with mProfileLock held.
+     *
+     * @param changedFields SORT_KEY_* flags of the changed fields
+     */
+    private void updateSortKey(int changedFields) {
+        final SortKey oldKey = mSortKey;
+        final SortKey newKey;
+        if (oldKey == null || (changedFields & SORT_KEY_STATE) != 0) {
+            newKey = computeSortKey();
+        } else {
+            newKey = new SortKey(oldKey.mConnected, oldKey.mBonded, mJustDiscovered, mRssi,
+                    (changedFields & SORT_KEY_NAME) != 0 ? getName() : oldKey.mName);
+        }
+        if (newKey.equals(oldKey)) {
+            return;
+        }
+        mSortKey = newKey;
+        final DeviceIndex deviceIndex = mDeviceIndex;
+        if (deviceIndex != null) {
+            deviceIndex.onSortKeyChanged(this);
+        }
+    }
+
+    /**
+     * Memoized summary strings of a device. Each change bumps the generation, so a summary
+     * computed concurrently with an invalidation is not stored.
+     */
+    private static final class SummaryCache {
+        static final Object NOT_COMPUTED = new Object();
+
+        private final Object[] mSummaries = new Object[SUMMARY_VARIANT_COUNT];
+        private int mGeneration;
+        private LocaleList mLocales;
+
+        SummaryCache() {
+            Arrays.fill(mSummaries, NOT_COMPUTED);
+        }
+
+        synchronized int getGeneration() {
+            return mGeneration;
+        }
+
+        synchronized Object get(int variant, LocaleList locales) {
+            return locales.equals(mLocales) ? mSummaries[variant] : NOT_COMPUTED;
+        }
 
-        // Paired above not paired
-        comparison = (another.getBondState() == BluetoothDevice.BOND_BONDED ? 1 : 0) -
-            (getBondState() == BluetoothDevice.BOND_BONDED ? 1 : 0);
-        if (comparison != 0) return comparison;
+        synchronized void put(int variant, int generation, LocaleList locales, String summary) {
+            if (generation != mGeneration) {
+                return;
+            }
+            if (!locales.equals(mLocales)) {
+                Arrays.fill(mSummaries, NOT_COMPUTED);
+                mLocales = locales;
+            }
+            mSummaries[variant] = summary;
+        }
+
+        synchronized void invalidate() {
+            mGeneration++;
+            Arrays.fill(mSummaries, NOT_COMPUTED);
+        }
+    }
+
+    /**
+     * Non-negative value derived from a {@link BluetoothDevice} over binder. Each invalidation
+     * bumps the generation, so a value computed concurrently with an invalidation is not stored.
+     */
+    private static final class DeviceValueCache {
+        static final long NOT_CACHED = -1;
+
+        private BluetoothDevice mDevice;
+        private long mValue;
+        private int mGeneration;
 
-        // Just discovered above discovered in the past
-        comparison = (another.mJustDiscovered ? 1 : 0) - (mJustDiscovered ? 1 : 0);
-        if (comparison != 0) return comparison;
+        synchronized int getGeneration() {
+            return mGeneration;
+        }
+
+        /**
+         * @return the value stored for {@code device}, or {@link #NOT_CACHED}
+         */
+        synchronized long get(BluetoothDevice device) {
+            return mDevice == device ? mValue : NOT_CACHED;
+        }
 
-        // Stronger signal above weaker signal
-        comparison = another.mRssi - mRssi;
-        if (comparison != 0) return comparison;
+        synchronized void put(int generation, BluetoothDevice device, long value) {
+            if (generation == mGeneration) {
+                mDevice = device;
+                mValue = value;
+            }
+        }
 
-        // Fallback on name
-        return getName().compareTo(another.getName());
+        synchronized void invalidate() {
+            mGeneration++;
+            mDevice = null;
+        }
+    }
+
+    /**
+     * Snapshot of the attributes that define the order of cached devices.
+     */
+    static final class SortKey implements Comparable<SortKey> {
+        final boolean mConnected;
+        final boolean mBonded;
+        final boolean mJustDiscovered;
+        final short mRssi;
+        final String mName;
+
+        SortKey(boolean connected, boolean bonded, boolean justDiscovered, short rssi,
+                String name) {
+            mConnected = connected;
+            mBonded = bonded;
+            mJustDiscovered = justDiscovered;
+            mRssi = rssi;
+            mName = name;
+        }
+
+        @Override
+        public int compareTo(SortKey another) {
+            // Connected above not connected
+            int comparison = (another.mConnected ? 1 : 0) - (mConnected ? 1 : 0);
+            if (comparison != 0) return comparison;
+
+            // Paired above not paired
+            comparison = (another.mBonded ? 1 : 0) - (mBonded ? 1 : 0);
+            if (comparison != 0) return comparison;
+
+            // Just discovered above discovered in the past
+            comparison = (another.mJustDiscovered ? 1 : 0) - (mJustDiscovered ? 1 : 0);
+            if (comparison != 0) return comparison;
+
+            // Stronger signal above weaker signal
+            comparison = another.mRssi - mRssi;
+            if (comparison != 0) return comparison;
+
+            // Fallback on name
+            return mName.compareTo(another.mName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SortKey)) {
+                return false;
+            }
+            final SortKey other = (SortKey) o;
+            return mConnected == other.mConnected && mBonded == other.mBonded
+                    && mJustDiscovered == other.mJustDiscovered && mRssi == other.mRssi
+                    && TextUtils.equals(mName, other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mConnected, mBonded, mJustDiscovered, mRssi, mName);
+        }
     }
 
     public interface Callback {
@@ -1052,6 +1365,21 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      * @param shortSummary {@code true} if need to return short version summary
      */
     public String getConnectionSummary(boolean shortSummary) {
+        final int variant = shortSummary ? SUMMARY_SHORT : SUMMARY_LONG;
+        final int generation = mSummaryCache.getGeneration();
+        final LocaleList locales = mContext.getResources().getConfiguration().getLocales();
+        final Object cached = mSummaryCache.get(variant, locales);
+        if (cached != SummaryCache.NOT_COMPUTED) {
+            sSummaryHitCount.incrementAndGet();
+            return (String) cached;
+        }
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final String summary = computeConnectionSummary(shortSummary);
+        onSummaryComputed(variant, generation, locales, summary, startNanos);
+        return summary;
+    }
+
+    private String computeConnectionSummary(boolean shortSummary) {
         boolean profileConnected = false;    // Updated as long as BluetoothProfile is connected
         boolean a2dpConnected = true;        // A2DP is connected
         boolean hfpConnected = true;         // HFP is connected
@@ -1213,6 +1541,64 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      * @param useDisconnectedString {@code true} if need to return disconnected summary string
      */
     public String getCarConnectionSummary(boolean shortSummary, boolean useDisconnectedString) {
+        final int variant;
+        if (useDisconnectedString) {
+            variant = shortSummary ? CAR_SUMMARY_SHORT : CAR_SUMMARY_LONG;
+        } else {
+            variant = shortSummary
+                    ? CAR_SUMMARY_SHORT_NO_DISCONNECTED : CAR_SUMMARY_LONG_NO_DISCONNECTED;
+        }
+        final int generation = mSummaryCache.getGeneration();
+        final LocaleList locales = mContext.getResources().getConfiguration().getLocales();
+        final Object cached = mSummaryCache.get(variant, locales);
+        if (cached != SummaryCache.NOT_COMPUTED) {
+            sSummaryHitCount.incrementAndGet();
+            return (String) cached;
+        }
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final String summary = computeCarConnectionSummary(shortSummary, useDisconnectedString);
+        onSummaryComputed(variant, generation, locales, summary, startNanos);
+        return summary;
+    }
+
+    private void onSummaryComputed(int variant, int generation, LocaleList locales,
+            String summary, long startNanos) {
+        sSummaryComputeNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - startNanos);
+        sSummaryComputeCount.incrementAndGet();
+        mSummaryCache.put(variant, generation, locales, summary);
+    }
+
+    /**
+     * Drops the memoized connection summaries, for changes that are not reported through
+     * {@link Callback#onDeviceAttributesChanged()}.
+     */
+    void invalidateSummaries() {
+        mSummaryCache.invalidate();
+    }
+
+    /**
+     * @return the number of connection summary reads answered from the memoized value
+     */
+    public static long getSummaryHitCount() {
+        return sSummaryHitCount.get();
+    }
+
+    /**
+     * @return the number of connection summaries computed
+     */
+    public static long getSummaryComputeCount() {
+        return sSummaryComputeCount.get();
+    }
+
+    /**
+     * @return the total time spent computing connection summaries, in nanoseconds
+     */
+    public static long getSummaryComputeNanos() {
+        return sSummaryComputeNanos.get();
+    }
+
+    private String computeCarConnectionSummary(boolean shortSummary,
+            boolean useDisconnectedString) {
         boolean profileConnected = false;       // at least one profile is connected
         boolean a2dpNotConnected = false;       // A2DP is preferred but not connected
         boolean hfpNotConnected = false;        // HFP is preferred but not connected
@@ -1383,26 +1769,31 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
     }
 
     public void setSubDevice(CachedBluetoothDevice subDevice) {
-        mSubDevice = subDevice;
+        updateGroup(() -> mSubDevice = subDevice);
     }
 
     public void switchSubDeviceContent() {
-        // Backup from main device
-        BluetoothDevice tmpDevice = mDevice;
-        final short tmpRssi = mRssi;
-        final boolean tmpJustDiscovered = mJustDiscovered;
-        final int tmpDeviceSide = mDeviceSide;
-        // Set main device from sub device
-        mDevice = mSubDevice.mDevice;
-        mRssi = mSubDevice.mRssi;
-        mJustDiscovered = mSubDevice.mJustDiscovered;
-        mDeviceSide = mSubDevice.mDeviceSide;
-        // Set sub device from backup
-        mSubDevice.mDevice = tmpDevice;
-        mSubDevice.mRssi = tmpRssi;
-        mSubDevice.mJustDiscovered = tmpJustDiscovered;
-        mSubDevice.mDeviceSide = tmpDeviceSide;
+        updateGroup(() -> {
+            // Backup from main device
+            BluetoothDevice tmpDevice = mDevice;
+            final short tmpRssi = mRssi;
+            final boolean tmpJustDiscovered = mJustDiscovered;
+            final int tmpDeviceSide = mDeviceSide;
+            // Set main device from sub device
+            mDevice = mSubDevice.mDevice;
+            mRssi = mSubDevice.mRssi;
+            mJustDiscovered = mSubDevice.mJustDiscovered;
+            mDeviceSide = mSubDevice.mDeviceSide;
+            // Set sub device from backup
+            mSubDevice.mDevice = tmpDevice;
+            mSubDevice.mRssi = tmpRssi;
+            mSubDevice.mJustDiscovered = tmpJustDiscovered;
+            mSubDevice.mDeviceSide = tmpDeviceSide;
+        });
+        mSubDevice.invalidateSummaries();
         fetchActiveDevices();
+        mSubDevice.updateSortKey(SORT_KEY_STATE | SORT_KEY_NAME);
+        updateSortKey(SORT_KEY_STATE | SORT_KEY_NAME);
     }
 
     /**
@@ -1416,14 +1807,14 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      * Store the member devices that are in the same coordinated set.
      */
     public void addMemberDevice(CachedBluetoothDevice memberDevice) {
-        mMemberDevices.add(memberDevice);
+        updateGroup(() -> mMemberDevices.add(memberDevice));
     }
 
     /**
      * Remove a device from the member device sets.
      */
     public void removeMemberDevice(CachedBluetoothDevice memberDevice) {
-        mMemberDevices.remove(memberDevice);
+        updateGroup(() -> mMemberDevices.remove(memberDevice));
     }
 
     /**
@@ -1436,21 +1827,68 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
      */
     public void switchMemberDeviceContent(CachedBluetoothDevice prevMainDevice,
             CachedBluetoothDevice newMainDevice) {
-        // Backup from main device
-        final BluetoothDevice tmpDevice = mDevice;
-        final short tmpRssi = mRssi;
-        final boolean tmpJustDiscovered = mJustDiscovered;
-        // Set main device from sub device
-        mDevice = newMainDevice.mDevice;
-        mRssi = newMainDevice.mRssi;
-        mJustDiscovered = newMainDevice.mJustDiscovered;
-        addMemberDevice(prevMainDevice);
-        mMemberDevices.remove(newMainDevice);
-        // Set sub device from backup
-        newMainDevice.mDevice = tmpDevice;
-        newMainDevice.mRssi = tmpRssi;
-        newMainDevice.mJustDiscovered = tmpJustDiscovered;
+        updateGroup(() -> {
+            // Backup from main device
+            final BluetoothDevice tmpDevice = mDevice;
+            final short tmpRssi = mRssi;
+            final boolean tmpJustDiscovered = mJustDiscovered;
+            // Set main device from sub device
+            mDevice = newMainDevice.mDevice;
+            mRssi = newMainDevice.mRssi;
+            mJustDiscovered = newMainDevice.mJustDiscovered;
+            mMemberDevices.add(prevMainDevice);
+            mMemberDevices.remove(newMainDevice);
+            // Set sub device from backup
+            newMainDevice.mDevice = tmpDevice;
+            newMainDevice.mRssi = tmpRssi;
+            newMainDevice.mJustDiscovered = tmpJustDiscovered;
+        });
+        newMainDevice.invalidateSummaries();
         fetchActiveDevices();
+        newMainDevice.updateSortKey(SORT_KEY_STATE | SORT_KEY_NAME);
+        updateSortKey(SORT_KEY_STATE | SORT_KEY_NAME);
+    }
+
+    void setDeviceIndex(DeviceIndex deviceIndex) {
+        mDeviceIndex = deviceIndex;
+    }
+
+    // Applies a member / sub device change, letting the device index re-map the group addresses
+    private void updateGroup(Runnable change) {
+        final DeviceIndex deviceIndex = mDeviceIndex;
+        if (deviceIndex == null) {
+            change.run();
+        } else {
+            deviceIndex.updateGroup(this, change);
+        }
+        mSummaryCache.invalidate();
+    }
+
+    /**
+     * Address index over main, member and sub devices, maintained by
+     * {@link CachedBluetoothDeviceManager}.
+     */
+    interface DeviceIndex {
+        /**
+         * Runs {@code change} on the group owned by {@code mainDevice} and re-indexes the
+         * addresses of that group afterwards.
+         */
+        void updateGroup(CachedBluetoothDevice mainDevice, Runnable change);
+
+        /**
+         * Called when the sort key of {@code device} changed.
+         */
+        void onSortKeyChanged(CachedBluetoothDevice device);
+
+        /**
+         * Called when the CSIP group id of {@code device} changed.
+         */
+        void onGroupIdChanged(CachedBluetoothDevice device, int oldGroupId);
+
+        /**
+         * Called when the hearing aid HiSyncId of {@code device} changed.
+         */
+        void onHiSyncIdChanged(CachedBluetoothDevice device, long oldHiSyncId);
     }
 
     /**
@@ -1462,11 +1900,12 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
 //                mContext, this);
 //
 //        if (BluetoothUtils.isAdvancedDetailsHeader(mDevice) && uri != null) {
-//            BitmapDrawable drawable = mDrawableCache.get(uri.toString());
-//            if (drawable != null) {
+//            Bitmap bitmap = BluetoothIconCache.getInstance().peek(uri,
+//                    mContext.getResources().getDimensionPixelSize(R.dimen.bt_nearby_icon_size));
+//            if (bitmap != null) {
 //                Resources resources = mContext.getResources();
 //                return new Pair<>(new AdaptiveOutlineDrawable(
-//                        resources, drawable.getBitmap()), pair.second);
+//                        resources, bitmap), pair.second);
 //            }
 //
 //            refresh();
@@ -1476,10 +1915,6 @@ public class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice>
 //                        mContext, pair.first, getAddress().hashCode()), pair.second);
 //    }
 
-    void releaseLruCache() {
-        mDrawableCache.evictAll();
-    }
-
     boolean getUnpairing() {
         return mUnpairing;
     }
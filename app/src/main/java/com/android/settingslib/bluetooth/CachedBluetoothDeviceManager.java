@@ -21,12 +21,21 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.WorkerThread;
 
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -35,6 +44,7 @@ import java.util.Set;
 public class CachedBluetoothDeviceManager {
     private static final String TAG = "CachedBluetoothDeviceManager";
     private static final boolean DEBUG = BluetoothUtils.D;
+    private static final String WARM_START_FILE_NAME = "bluetooth_bonded_devices.bin";
 
     private Context mContext;
     private final LocalBluetoothManager mBtManager;
@@ -46,16 +56,173 @@ public class CachedBluetoothDeviceManager {
     @VisibleForTesting
     CsipDeviceManager mCsipDeviceManager;
     BluetoothDevice mOngoingSetMemberPair;
+    // Address index over mCachedDevices plus their CSIP member and hearing aid sub devices
+    private final Map<String, IndexEntry> mDeviceIndex = new HashMap<>();
+    private final CachedBluetoothDevice.DeviceIndex mGroupIndexUpdater = new DeviceIndexUpdater();
+    // Group id and HiSyncId index over mCachedDevices, shared with the CSIP and HA managers
+    private final DeviceGroupIndex mDeviceGroupIndex = new DeviceGroupIndex();
+    // mCachedDevices in CachedBluetoothDevice#compareTo order, rebuilt lazily once stale
+    private final List<CachedBluetoothDevice> mSortedDevices = new ArrayList<>();
+    private boolean mSortedDevicesStale = true;
+    // Immutable copy of mCachedDevices for lock-free readers, republished by writers
+    private volatile Snapshot mSnapshot = new Snapshot(Collections.emptyList(), 0);
+    // Last active device per profile, only trusted for the profiles in mActiveDevicesKnown
+    private final SparseArray<CachedBluetoothDevice> mActiveDevices = new SparseArray<>();
+    // Profiles whose cached devices were reconciled since the active devices became stale
+    private final SparseBooleanArray mActiveDevicesKnown = new SparseBooleanArray();
+    // Warm start records by address, applied to the devices added by the staged init
+    private Map<String, BondedDeviceSnapshot.Record> mWarmStartRecords = Collections.emptyMap();
 
     public CachedBluetoothDeviceManager(Context context, LocalBluetoothManager localBtManager) {
         mContext = context;
         mBtManager = localBtManager;
-        mHearingAidDeviceManager = new HearingAidDeviceManager(localBtManager, mCachedDevices);
-        mCsipDeviceManager = new CsipDeviceManager(localBtManager, mCachedDevices);
+        mHearingAidDeviceManager = new HearingAidDeviceManager(localBtManager, mCachedDevices,
+                mDeviceGroupIndex);
+        mCsipDeviceManager = new CsipDeviceManager(localBtManager, mCachedDevices,
+                mDeviceGroupIndex);
+    }
+
+    public Collection<CachedBluetoothDevice> getCachedDevicesCopy() {
+        return new ArrayList<>(mSnapshot.getDevices());
+    }
+
+    /**
+     * Returns the current immutable snapshot of the cached devices. It is read without locking
+     * and never copied, so it is the preferred way to iterate the devices on hot paths.
+     */
+    public Snapshot getCachedDevicesSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Returns the cached devices sorted by {@link CachedBluetoothDevice#compareTo}. The order is
+     * kept up to date incrementally when the attributes of a single device change, and the
+     * comparison uses cached sort keys, so no binder call is made for sorting.
+     */
+    public synchronized List<CachedBluetoothDevice> getSortedCachedDevices() {
+        if (mSortedDevicesStale) {
+            mSortedDevices.clear();
+            mSortedDevices.addAll(mCachedDevices);
+            mSortedDevices.sort(null);
+            mSortedDevicesStale = false;
+        }
+        return new ArrayList<>(mSortedDevices);
+    }
+
+    /**
+     * Updates the active state of the cached devices for {@code bluetoothProfile}. Only the
+     * previously and newly active devices are notified, unless the tracked active device of the
+     * profile is unknown, e.g. on its first change or after an adapter restart, in which case
+     * every cached device is reconciled for that profile.
+     *
+     * <p>As with the full pass, only main devices are notified; member and sub devices keep
+     * their active state.
+     *
+     * @param activeDevice the new active device, or null if there is none
+     */
+    public void onActiveDeviceChanged(CachedBluetoothDevice activeDevice, int bluetoothProfile) {
+        final CachedBluetoothDevice previousDevice;
+        final boolean reconcile;
+        final boolean notifyPrevious;
+        final boolean notifyActive;
+        synchronized (this) {
+            reconcile = !mActiveDevicesKnown.get(bluetoothProfile);
+            previousDevice = mActiveDevices.get(bluetoothProfile);
+            mActiveDevices.put(bluetoothProfile, activeDevice);
+            mActiveDevicesKnown.put(bluetoothProfile, true);
+            notifyPrevious = previousDevice != null
+                    && !Objects.equals(previousDevice, activeDevice)
+                    && isMainDeviceLocked(previousDevice);
+            notifyActive = activeDevice != null && isMainDeviceLocked(activeDevice);
+        }
+        if (reconcile) {
+            log("onActiveDeviceChanged: reconcile all devices for profile " + bluetoothProfile);
+            for (CachedBluetoothDevice cachedDevice : mSnapshot.getDevices()) {
+                cachedDevice.onActiveDeviceChanged(Objects.equals(cachedDevice, activeDevice),
+                        bluetoothProfile);
+            }
+            return;
+        }
+        if (notifyPrevious) {
+            previousDevice.onActiveDeviceChanged(false, bluetoothProfile);
+        }
+        if (notifyActive) {
+            activeDevice.onActiveDeviceChanged(true, bluetoothProfile);
+        }
+    }
+
+    // Whether the device is in mCachedDevices rather than a member or sub device of one
+    private boolean isMainDeviceLocked(CachedBluetoothDevice device) {
+        final IndexEntry entry = lookupIndex(device.getDevice());
+        return entry != null && entry.mMainDevice == null;
+    }
+
+    /**
+     * Reads the warm start snapshot, so that the devices added with their identity only start
+     * with the persisted name, class and battery level.
+     *
+     * @return the number of devices in the snapshot
+     */
+    @WorkerThread
+    int loadWarmStartSnapshot() {
+        final Map<String, BondedDeviceSnapshot.Record> records =
+                BondedDeviceSnapshot.read(getWarmStartFile());
+        synchronized (this) {
+            mWarmStartRecords = records;
+        }
+        return records.size();
+    }
+
+    /**
+     * Drops the warm start attributes of every cached device in favor of the live ones.
+     *
+     * @return the number of devices whose live attributes differed from the snapshot
+     */
+    @WorkerThread
+    int reconcileWarmStartSnapshot() {
+        synchronized (this) {
+            mWarmStartRecords = Collections.emptyMap();
+        }
+        int changed = 0;
+        for (CachedBluetoothDevice cachedDevice : getAllGroupDevices()) {
+            if (cachedDevice.reconcileWarmStartRecord()) {
+                changed++;
+            }
+        }
+        return changed;
     }
 
-    public synchronized Collection<CachedBluetoothDevice> getCachedDevicesCopy() {
-        return new ArrayList<>(mCachedDevices);
+    /**
+     * Persists the attributes of the bonded devices for the next warm start. Reads them over
+     * binder and writes a file, so it must not be called on the main thread.
+     */
+    @WorkerThread
+    public void saveWarmStartSnapshot() {
+        final List<BondedDeviceSnapshot.Record> records = new ArrayList<>();
+        for (CachedBluetoothDevice cachedDevice : getAllGroupDevices()) {
+            if (cachedDevice.getBondState() == BluetoothDevice.BOND_BONDED) {
+                records.add(cachedDevice.toWarmStartRecord());
+            }
+        }
+        BondedDeviceSnapshot.write(getWarmStartFile(), records);
+    }
+
+    // @return the cached devices together with their member and sub devices
+    synchronized List<CachedBluetoothDevice> getAllGroupDevices() {
+        final List<CachedBluetoothDevice> devices = new ArrayList<>();
+        for (CachedBluetoothDevice cachedDevice : mSnapshot.getDevices()) {
+            devices.add(cachedDevice);
+            devices.addAll(cachedDevice.getMemberDevice());
+            final CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
+            if (subDevice != null) {
+                devices.add(subDevice);
+            }
+        }
+        return devices;
+    }
+
+    private File getWarmStartFile() {
+        return new File(mContext.getNoBackupFilesDir(), WARM_START_FILE_NAME);
     }
 
     public static boolean onDeviceDisappeared(CachedBluetoothDevice cachedDevice) {
@@ -81,27 +248,8 @@ public class CachedBluetoothDeviceManager {
      *   not been previously seen
      */
     public synchronized CachedBluetoothDevice findDevice(BluetoothDevice device) {
-        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
-            if (cachedDevice.getDevice().equals(device)) {
-                return cachedDevice;
-            }
-            // Check the member devices for the coordinated set if it exists
-            final Set<CachedBluetoothDevice> memberDevices = cachedDevice.getMemberDevice();
-            if (!memberDevices.isEmpty()) {
-                for (CachedBluetoothDevice memberDevice : memberDevices) {
-                    if (memberDevice.getDevice().equals(device)) {
-                        return memberDevice;
-                    }
-                }
-            }
-            // Check sub devices for hearing aid if it exists
-            CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
-            if (subDevice != null && subDevice.getDevice().equals(device)) {
-                return subDevice;
-            }
-        }
-
-        return null;
+        final IndexEntry entry = lookupIndex(device);
+        return entry != null ? entry.mDevice : null;
     }
 
     /**
@@ -111,17 +259,38 @@ public class CachedBluetoothDeviceManager {
      * @return the newly created CachedBluetoothDevice object
      */
     public CachedBluetoothDevice addDevice(BluetoothDevice device) {
+        return addDevice(device, /* deferFillData= */ false);
+    }
+
+    /**
+     * Same as {@link #addDevice(BluetoothDevice)}, optionally creating the device with only its
+     * identity, see {@link CachedBluetoothDevice#fillDeferredData}.
+     */
+    CachedBluetoothDevice addDevice(BluetoothDevice device, boolean deferFillData) {
         CachedBluetoothDevice newDevice;
         final LocalBluetoothProfileManager profileManager = mBtManager.getProfileManager();
         synchronized (this) {
             newDevice = findDevice(device);
             if (newDevice == null) {
-                newDevice = new CachedBluetoothDevice(mContext, profileManager, device);
+                newDevice = new CachedBluetoothDevice(mContext, profileManager, device,
+                        deferFillData);
+                newDevice.setDeviceIndex(mGroupIndexUpdater);
+                if (deferFillData) {
+                    final BondedDeviceSnapshot.Record record =
+                            mWarmStartRecords.get(device.getAddress());
+                    if (record != null) {
+                        newDevice.applyWarmStartRecord(record);
+                    }
+                }
                 mCsipDeviceManager.initCsipDeviceIfNeeded(newDevice);
                 mHearingAidDeviceManager.initHearingAidDeviceIfNeeded(newDevice);
                 if (!mCsipDeviceManager.setMemberDeviceIfNeeded(newDevice)
                         && !mHearingAidDeviceManager.setSubDeviceIfNeeded(newDevice)) {
                     mCachedDevices.add(newDevice);
+                    mDeviceGroupIndex.add(newDevice);
+                    indexGroup(newDevice);
+                    insertSorted(newDevice);
+                    publishSnapshotLocked();
                     mBtManager.getEventManager().dispatchDeviceAdded(newDevice);
                 }
             }
@@ -162,26 +331,8 @@ public class CachedBluetoothDeviceManager {
      * @return true for found sub / member device or false.
      */
     public synchronized boolean isSubDevice(BluetoothDevice device) {
-        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
-            if (!cachedDevice.getDevice().equals(device)) {
-                // Check the member devices of the coordinated set if it exists
-                Set<CachedBluetoothDevice> memberDevices = cachedDevice.getMemberDevice();
-                if (!memberDevices.isEmpty()) {
-                    for (CachedBluetoothDevice memberDevice : memberDevices) {
-                        if (memberDevice.getDevice().equals(device)) {
-                            return true;
-                        }
-                    }
-                    continue;
-                }
-                // Check sub devices of hearing aid if it exists
-                CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
-                if (subDevice != null && subDevice.getDevice().equals(device)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        final IndexEntry entry = lookupIndex(device);
+        return entry != null && entry.mMainDevice != null;
     }
 
     /**
@@ -191,6 +342,7 @@ public class CachedBluetoothDeviceManager {
      */
     public synchronized void updateHearingAidsDevices() {
         mHearingAidDeviceManager.updateHearingAidsDevices();
+        publishSnapshotLocked();
     }
 
     /**
@@ -199,6 +351,7 @@ public class CachedBluetoothDeviceManager {
      */
     public synchronized void updateCsipDevices() {
         mCsipDeviceManager.updateCsipDevices();
+        publishSnapshotLocked();
     }
 
     /**
@@ -223,8 +376,16 @@ public class CachedBluetoothDeviceManager {
 
     public synchronized void clearNonBondedDevices() {
         clearNonBondedSubDevices();
-        mCachedDevices.removeIf(cachedDevice
-            -> cachedDevice.getBondState() == BluetoothDevice.BOND_NONE);
+        mSortedDevicesStale = true;
+        mCachedDevices.removeIf(cachedDevice -> {
+            if (cachedDevice.getBondState() == BluetoothDevice.BOND_NONE) {
+                unindexGroup(cachedDevice);
+                mDeviceGroupIndex.remove(cachedDevice);
+                return true;
+            }
+            return false;
+        });
+        publishSnapshotLocked();
     }
 
     private void clearNonBondedSubDevices() {
@@ -272,6 +433,10 @@ public class CachedBluetoothDeviceManager {
     }
 
     public synchronized void onBluetoothStateChanged(int bluetoothState) {
+        // The active devices of a restarted adapter are unknown, the next change of each profile
+        // reconciles all devices
+        mActiveDevicesKnown.clear();
+        mActiveDevices.clear();
         // When Bluetooth is turning off, we need to clear the non-bonded devices
         // Otherwise, they end up showing up on the next BT enable
         if (bluetoothState == BluetoothAdapter.STATE_TURNING_OFF) {
@@ -294,23 +459,29 @@ public class CachedBluetoothDeviceManager {
                 }
                 if (cachedDevice.getBondState() != BluetoothDevice.BOND_BONDED) {
                     cachedDevice.setJustDiscovered(false);
+                    unindexGroup(cachedDevice);
                     mCachedDevices.remove(i);
+                    mDeviceGroupIndex.remove(cachedDevice);
+                    mSortedDevicesStale = true;
                 }
             }
+            publishSnapshotLocked();
         }
     }
 
     public synchronized boolean onProfileConnectionStateChangedIfProcessed(CachedBluetoothDevice
             cachedDevice, int state, int profileId) {
+        boolean processed = false;
         if (profileId == BluetoothProfile.HEARING_AID) {
-            return mHearingAidDeviceManager.onProfileConnectionStateChangedIfProcessed(cachedDevice,
+            processed = mHearingAidDeviceManager.onProfileConnectionStateChangedIfProcessed(
+                    cachedDevice, state);
+        } else if (profileId == BluetoothProfile.CSIP_SET_COORDINATOR) {
+            processed = mCsipDeviceManager.onProfileConnectionStateChangedIfProcessed(cachedDevice,
                 state);
         }
-        if (profileId == BluetoothProfile.CSIP_SET_COORDINATOR) {
-            return mCsipDeviceManager.onProfileConnectionStateChangedIfProcessed(cachedDevice,
-                state);
-        }
-        return false;
+        // Main / sub and member switches move devices in and out of mCachedDevices
+        publishSnapshotLocked();
+        return processed;
     }
 
     public synchronized void onDeviceUnpaired(CachedBluetoothDevice device) {
@@ -388,8 +559,13 @@ public class CachedBluetoothDeviceManager {
                 final LocalBluetoothProfileManager profileManager = mBtManager.getProfileManager();
                 CachedBluetoothDevice newDevice =
                         new CachedBluetoothDevice(mContext, profileManager, device);
+                newDevice.setDeviceIndex(mGroupIndexUpdater);
                 mCachedDevices.add(newDevice);
-                findDevice(device).connect();
+                mDeviceGroupIndex.add(newDevice);
+                indexGroup(newDevice);
+                insertSorted(newDevice);
+                publishSnapshotLocked();
+                newDevice.connect();
             }
         }
 
@@ -409,9 +585,199 @@ public class CachedBluetoothDeviceManager {
         return !(mOngoingSetMemberPair == null) && mOngoingSetMemberPair.equals(device);
     }
 
+    // Publishes a new snapshot if mCachedDevices changed since the last one
+    private void publishSnapshotLocked() {
+        final Snapshot snapshot = mSnapshot;
+        final List<CachedBluetoothDevice> devices = snapshot.getDevices();
+        if (devices.size() == mCachedDevices.size()) {
+            boolean changed = false;
+            for (int i = 0; i < devices.size(); i++) {
+                if (devices.get(i) != mCachedDevices.get(i)) {
+                    changed = true;
+                    break;
+                }
+            }
+            if (!changed) {
+                return;
+            }
+        }
+        mSnapshot = new Snapshot(new ArrayList<>(mCachedDevices), snapshot.getVersion() + 1);
+    }
+
+    private IndexEntry lookupIndex(BluetoothDevice device) {
+        if (device == null) {
+            return null;
+        }
+        final IndexEntry entry = mDeviceIndex.get(device.getAddress());
+        if (entry == null || entry.mDevice.getDevice().equals(device)) {
+            return entry;
+        }
+        // The device content was swapped without going through the index. Recover from the
+        // cached devices so that no second CachedBluetoothDevice gets created for the address.
+        Log.wtf(TAG, "Device index out of sync for " + device.getAnonymizedAddress()
+                + ", indexed " + entry.mDevice);
+        final IndexEntry scanned = scanCachedDevices(device);
+        if (scanned != null) {
+            mDeviceIndex.put(device.getAddress(), scanned);
+        } else {
+            mDeviceIndex.remove(device.getAddress());
+        }
+        return scanned;
+    }
+
+    // Linear search over the cached devices and their member and sub devices
+    private IndexEntry scanCachedDevices(BluetoothDevice device) {
+        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
+            if (cachedDevice.getDevice().equals(device)) {
+                return new IndexEntry(cachedDevice, null);
+            }
+            for (CachedBluetoothDevice memberDevice : cachedDevice.getMemberDevice()) {
+                if (memberDevice.getDevice().equals(device)) {
+                    return new IndexEntry(memberDevice, cachedDevice);
+                }
+            }
+            final CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
+            if (subDevice != null && subDevice.getDevice().equals(device)) {
+                return new IndexEntry(subDevice, cachedDevice);
+            }
+        }
+        return null;
+    }
+
+    private void insertSorted(CachedBluetoothDevice device) {
+        if (mSortedDevicesStale) {
+            return;
+        }
+        final int index = Collections.binarySearch(mSortedDevices, device);
+        mSortedDevices.add(index < 0 ? -index - 1 : index, device);
+    }
+
+    private boolean removeSorted(CachedBluetoothDevice device) {
+        for (int i = mSortedDevices.size() - 1; i >= 0; i--) {
+            if (mSortedDevices.get(i) == device) {
+                mSortedDevices.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class DeviceIndexUpdater implements CachedBluetoothDevice.DeviceIndex {
+        @Override
+        public void updateGroup(CachedBluetoothDevice mainDevice, Runnable change) {
+            synchronized (CachedBluetoothDeviceManager.this) {
+                final boolean indexed = unindexGroup(mainDevice);
+                change.run();
+                if (indexed) {
+                    indexGroup(mainDevice);
+                }
+                // Group changes come with devices leaving or joining mCachedDevices
+                mSortedDevicesStale = true;
+                // and may swap the device content the active flags belong to
+                mActiveDevicesKnown.clear();
+            }
+        }
+
+        @Override
+        public void onSortKeyChanged(CachedBluetoothDevice device) {
+            synchronized (CachedBluetoothDeviceManager.this) {
+                // Only main devices are part of the sorted view
+                if (!mSortedDevicesStale && removeSorted(device)) {
+                    insertSorted(device);
+                }
+            }
+        }
+
+        @Override
+        public void onGroupIdChanged(CachedBluetoothDevice device, int oldGroupId) {
+            synchronized (CachedBluetoothDeviceManager.this) {
+                mDeviceGroupIndex.onGroupIdChanged(device, oldGroupId);
+            }
+        }
+
+        @Override
+        public void onHiSyncIdChanged(CachedBluetoothDevice device, long oldHiSyncId) {
+            synchronized (CachedBluetoothDeviceManager.this) {
+                mDeviceGroupIndex.onHiSyncIdChanged(device, oldHiSyncId);
+            }
+        }
+    }
+
+    // Index the main device together with its member and sub devices
+    private void indexGroup(CachedBluetoothDevice mainDevice) {
+        mDeviceIndex.put(mainDevice.getAddress(), new IndexEntry(mainDevice, null));
+        for (CachedBluetoothDevice memberDevice : mainDevice.getMemberDevice()) {
+            if (memberDevice != mainDevice) {
+                mDeviceIndex.put(memberDevice.getAddress(),
+                        new IndexEntry(memberDevice, mainDevice));
+            }
+        }
+        final CachedBluetoothDevice subDevice = mainDevice.getSubDevice();
+        if (subDevice != null) {
+            mDeviceIndex.put(subDevice.getAddress(), new IndexEntry(subDevice, mainDevice));
+        }
+    }
+
+    // @return {@code true} if the device was indexed as a main device and its group got removed
+    private boolean unindexGroup(CachedBluetoothDevice mainDevice) {
+        final IndexEntry entry = mDeviceIndex.get(mainDevice.getAddress());
+        if (entry == null || entry.mDevice != mainDevice || entry.mMainDevice != null) {
+            return false;
+        }
+        mDeviceIndex.remove(mainDevice.getAddress());
+        for (CachedBluetoothDevice memberDevice : mainDevice.getMemberDevice()) {
+            unindexDevice(memberDevice);
+        }
+        final CachedBluetoothDevice subDevice = mainDevice.getSubDevice();
+        if (subDevice != null) {
+            unindexDevice(subDevice);
+        }
+        return true;
+    }
+
+    private void unindexDevice(CachedBluetoothDevice device) {
+        final IndexEntry entry = mDeviceIndex.get(device.getAddress());
+        if (entry != null && entry.mDevice == device) {
+            mDeviceIndex.remove(device.getAddress());
+        }
+    }
+
+    private static final class IndexEntry {
+        final CachedBluetoothDevice mDevice;
+        // The main device owning this member / sub device, or null for a main device
+        final CachedBluetoothDevice mMainDevice;
+
+        IndexEntry(CachedBluetoothDevice device, CachedBluetoothDevice mainDevice) {
+            mDevice = device;
+            mMainDevice = mainDevice;
+        }
+    }
+
     private void log(String msg) {
         if (DEBUG) {
             Log.d(TAG, msg);
         }
     }
+
+    /**
+     * Immutable list of the cached devices at one point in time. The version increases each
+     * time the device set changes.
+     */
+    public static final class Snapshot {
+        private final List<CachedBluetoothDevice> mDevices;
+        private final long mVersion;
+
+        Snapshot(List<CachedBluetoothDevice> devices, long version) {
+            mDevices = Collections.unmodifiableList(devices);
+            mVersion = version;
+        }
+
+        public List<CachedBluetoothDevice> getDevices() {
+            return mDevices;
+        }
+
+        public long getVersion() {
+            return mVersion;
+        }
+    }
 }
@@ -39,11 +39,13 @@ public class CsipDeviceManager {
 
     private final LocalBluetoothManager mBtManager;
     private final List<CachedBluetoothDevice> mCachedDevices;
+    private final DeviceGroupIndex mDeviceGroupIndex;
 
     CsipDeviceManager(LocalBluetoothManager localBtManager,
-            List<CachedBluetoothDevice> cachedDevices) {
+            List<CachedBluetoothDevice> cachedDevices, DeviceGroupIndex deviceGroupIndex) {
         mBtManager = localBtManager;
         mCachedDevices = cachedDevices;
+        mDeviceGroupIndex = deviceGroupIndex;
     };
 
     void initCsipDeviceIfNeeded(CachedBluetoothDevice newDevice) {
@@ -98,13 +100,8 @@ public class CsipDeviceManager {
     }
 
     private CachedBluetoothDevice getCachedDevice(int groupId) {
-        for (int i = mCachedDevices.size() - 1; i >= 0; i--) {
-            CachedBluetoothDevice cachedDevice = mCachedDevices.get(i);
-            if (cachedDevice.getGroupId() == groupId) {
-                return cachedDevice;
-            }
-        }
-        return null;
+        final List<CachedBluetoothDevice> devices = mDeviceGroupIndex.getGroupIdDevices(groupId);
+        return devices.isEmpty() ? null : devices.get(devices.size() - 1);
     }
 
     // To collect all set member devices and call #onGroupIdChanged to group device by GroupId
@@ -129,30 +126,31 @@ public class CsipDeviceManager {
     // Group devices by groupId
     @VisibleForTesting
     void onGroupIdChanged(int groupId) {
-        int firstMatchedIndex = -1;
-        CachedBluetoothDevice mainDevice = null;
-
-        for (int i = mCachedDevices.size() - 1; i >= 0; i--) {
-            final CachedBluetoothDevice cachedDevice = mCachedDevices.get(i);
-            if (cachedDevice.getGroupId() != groupId) {
-                continue;
-            }
+        // Listed in mCachedDevices order, the last one is kept as the main device
+        final List<CachedBluetoothDevice> devices = mDeviceGroupIndex.getGroupIdDevices(groupId);
+        final int count = devices.size();
+        if (count < 2) {
+            return;
+        }
+        final CachedBluetoothDevice mainDevice = devices.get(count - 1);
+        final CachedBluetoothDevice cachedDevice = devices.get(count - 2);
 
-            if (firstMatchedIndex == -1) {
-                // Found the first one
-                firstMatchedIndex = i;
-                mainDevice = cachedDevice;
-                continue;
-            }
+        log("onGroupIdChanged: removed from UI device =" + cachedDevice
+                + ", with groupId=" + groupId + " mainDevice=" + mainDevice);
 
-            log("onGroupIdChanged: removed from UI device =" + cachedDevice
-                    + ", with groupId=" + groupId + " firstMatchedIndex=" + firstMatchedIndex);
+        mainDevice.addMemberDevice(cachedDevice);
+        removeCachedDevice(cachedDevice);
+        mBtManager.getEventManager().dispatchDeviceRemoved(cachedDevice);
+    }
 
-            mainDevice.addMemberDevice(cachedDevice);
-            mCachedDevices.remove(i);
-            mBtManager.getEventManager().dispatchDeviceRemoved(cachedDevice);
-            break;
+    private void removeCachedDevice(CachedBluetoothDevice device) {
+        for (int i = mCachedDevices.size() - 1; i >= 0; i--) {
+            if (mCachedDevices.get(i) == device) {
+                mCachedDevices.remove(i);
+                break;
+            }
         }
+        mDeviceGroupIndex.remove(device);
     }
 
     // @return {@code true}, the event is processed inside the method. It is for updating
@@ -218,21 +216,16 @@ public class CsipDeviceManager {
     }
 
     CachedBluetoothDevice findMainDevice(CachedBluetoothDevice device) {
-        if (device == null || mCachedDevices == null) {
+        if (device == null || !isValidGroupId(device.getGroupId())) {
             return null;
         }
 
-        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
-            if (isValidGroupId(cachedDevice.getGroupId())) {
-                Set<CachedBluetoothDevice> memberSet = cachedDevice.getMemberDevice();
-                if (memberSet.isEmpty()) {
-                    continue;
-                }
-
-                for (CachedBluetoothDevice memberDevice: memberSet) {
-                    if (memberDevice != null && memberDevice.equals(device)) {
-                        return cachedDevice;
-                    }
+        // Members are grouped by group id, so only the listed devices of that group can own it
+        for (CachedBluetoothDevice cachedDevice
+                : mDeviceGroupIndex.getGroupIdDevices(device.getGroupId())) {
+            for (CachedBluetoothDevice memberDevice: cachedDevice.getMemberDevice()) {
+                if (memberDevice != null && memberDevice.equals(device)) {
+                    return cachedDevice;
                 }
             }
         }
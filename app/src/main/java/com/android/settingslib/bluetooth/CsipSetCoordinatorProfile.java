@@ -235,6 +235,11 @@ public class CsipSetCoordinatorProfile implements LocalBluetoothProfile {
         if (VDBG) {
             Log.d(TAG, "finalize()");
         }
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothCsipSetCoordinator;
+import android.bluetooth.BluetoothHearingAid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DeviceGroupIndex maps the CSIP group ids and hearing aid HiSyncIds to the devices of
+ * {@link CachedBluetoothDeviceManager#mCachedDevices} carrying them, in list order, so that
+ * {@link CsipDeviceManager} and {@link HearingAidDeviceManager} can group devices without
+ * scanning the whole list.
+ *
+ * <p>It is owned by {@link CachedBluetoothDeviceManager} and must only be used while holding
+ * its lock.
+ */
+final class DeviceGroupIndex {
+    // Position of the devices currently in mCachedDevices, by identity as device content can be
+    // swapped. mCachedDevices is only appended to, so increasing numbers follow list order.
+    private final Map<CachedBluetoothDevice, Long> mListedDevices = new IdentityHashMap<>();
+    private long mNextListPosition;
+    private final Map<Integer, List<CachedBluetoothDevice>> mGroupIdDevices = new HashMap<>();
+    private final Map<Long, List<CachedBluetoothDevice>> mHiSyncIdDevices = new HashMap<>();
+
+    /**
+     * Called when {@code device} is appended to mCachedDevices.
+     */
+    void add(CachedBluetoothDevice device) {
+        if (mListedDevices.putIfAbsent(device, mNextListPosition) != null) {
+            return;
+        }
+        mNextListPosition++;
+        addTo(mGroupIdDevices, groupIdOf(device), device);
+        addTo(mHiSyncIdDevices, hiSyncIdOf(device), device);
+    }
+
+    /**
+     * Called when {@code device} is removed from mCachedDevices.
+     */
+    void remove(CachedBluetoothDevice device) {
+        if (mListedDevices.remove(device) == null) {
+            return;
+        }
+        removeFrom(mGroupIdDevices, groupIdOf(device), device);
+        removeFrom(mHiSyncIdDevices, hiSyncIdOf(device), device);
+    }
+
+    void onGroupIdChanged(CachedBluetoothDevice device, int oldGroupId) {
+        if (mListedDevices.containsKey(device)) {
+            removeFrom(mGroupIdDevices, validGroupId(oldGroupId), device);
+            addTo(mGroupIdDevices, groupIdOf(device), device);
+        }
+    }
+
+    void onHiSyncIdChanged(CachedBluetoothDevice device, long oldHiSyncId) {
+        if (mListedDevices.containsKey(device)) {
+            removeFrom(mHiSyncIdDevices, validHiSyncId(oldHiSyncId), device);
+            addTo(mHiSyncIdDevices, hiSyncIdOf(device), device);
+        }
+    }
+
+    /**
+     * @return the listed devices with {@code groupId}, in list order
+     */
+    List<CachedBluetoothDevice> getGroupIdDevices(int groupId) {
+        final List<CachedBluetoothDevice> devices = mGroupIdDevices.get(groupId);
+        return devices != null ? devices : Collections.emptyList();
+    }
+
+    /**
+     * @return the listed devices with {@code hiSyncId}, in list order
+     */
+    List<CachedBluetoothDevice> getHiSyncIdDevices(long hiSyncId) {
+        final List<CachedBluetoothDevice> devices = mHiSyncIdDevices.get(hiSyncId);
+        return devices != null ? devices : Collections.emptyList();
+    }
+
+    private static Integer groupIdOf(CachedBluetoothDevice device) {
+        return validGroupId(device.getGroupId());
+    }
+
+    private static Integer validGroupId(int groupId) {
+        return groupId != BluetoothCsipSetCoordinator.GROUP_ID_INVALID ? groupId : null;
+    }
+
+    private static Long hiSyncIdOf(CachedBluetoothDevice device) {
+        return validHiSyncId(device.getHiSyncId());
+    }
+
+    private static Long validHiSyncId(long hiSyncId) {
+        return hiSyncId != BluetoothHearingAid.HI_SYNC_ID_INVALID ? hiSyncId : null;
+    }
+
+    // Inserts at the list position of the device, which is the end unless an id changed
+    private <K> void addTo(Map<K, List<CachedBluetoothDevice>> map, K key,
+            CachedBluetoothDevice device) {
+        if (key == null) {
+            return;
+        }
+        final List<CachedBluetoothDevice> devices =
+                map.computeIfAbsent(key, k -> new ArrayList<>());
+        final long position = mListedDevices.get(device);
+        int i = devices.size();
+        while (i > 0 && mListedDevices.get(devices.get(i - 1)) > position) {
+            i--;
+        }
+        devices.add(i, device);
+    }
+
+    private static <K> void removeFrom(Map<K, List<CachedBluetoothDevice>> map, K key,
+            CachedBluetoothDevice device) {
+        if (key == null) {
+            return;
+        }
+        final List<CachedBluetoothDevice> devices = map.get(key);
+        if (devices == null) {
+            return;
+        }
+        for (int i = devices.size() - 1; i >= 0; i--) {
+            if (devices.get(i) == device) {
+                devices.remove(i);
+                break;
+            }
+        }
+        if (devices.isEmpty()) {
+            map.remove(key);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DiscoveryAggregator merges the repeated {@link android.bluetooth.BluetoothDevice#ACTION_FOUND}
+ * reports of an inquiry. For each device it keeps the latest and a smoothed RSSI, and only
+ * forwards meaningful changes to the {@link CachedBluetoothDevice}: a newly found device, a name
+ * change, or an RSSI bucket change (at most once per window). An RSSI change held back by the
+ * window is applied once the window has passed.
+ *
+ * <p>It is only updated from the broadcast receiver thread of {@link BluetoothEventManager};
+ * the counters and {@link #getLatestRssi} may be read from any thread.
+ */
+public final class DiscoveryAggregator {
+    @VisibleForTesting
+    static final long RSSI_UPDATE_WINDOW_MS = 1000;
+    @VisibleForTesting
+    static final int RSSI_BUCKET_DB = 8;
+    // Weight of a new sample in the exponentially smoothed RSSI
+    private static final float RSSI_SMOOTHING_FACTOR = 0.3f;
+
+    // Written on the receiver thread only, concurrent for the readers of getLatestRssi
+    private final Map<String, DeviceRecord> mRecords = new ConcurrentHashMap<>();
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = this::flushPendingRssi;
+    // Elapsed realtime of the scheduled flush, or Long.MAX_VALUE if none is scheduled
+    private long mScheduledFlushMs = Long.MAX_VALUE;
+
+    private volatile long mSessionStartMs = SystemClock.elapsedRealtime();
+    private volatile long mSessionReportCount;
+    private volatile long mReportCount;
+    private volatile long mForwardedCount;
+    private volatile long mSuppressedCount;
+    private volatile long mNewDeviceCount;
+
+    /**
+     * @param handler handler of the broadcast receiver thread, on which held back RSSI changes
+     *                are applied
+     */
+    DiscoveryAggregator(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Starts a new discovery session, forgetting the devices seen in the previous one.
+     */
+    void onDiscoveryStarted() {
+        cancelFlush();
+        mRecords.clear();
+        mSessionStartMs = SystemClock.elapsedRealtime();
+        mSessionReportCount = 0;
+    }
+
+    /**
+     * Applies the RSSI changes that were held back by the window when discovery finishes.
+     */
+    void onDiscoveryFinished() {
+        cancelFlush();
+        final long now = SystemClock.elapsedRealtime();
+        for (DeviceRecord record : mRecords.values()) {
+            if (record.mRssiPending) {
+                applyRssi(record, now);
+            }
+        }
+    }
+
+    /**
+     * Handles one ACTION_FOUND report of {@code cachedDevice}.
+     *
+     * @return {@code true} if this is the first report of the device in the discovery session
+     */
+    boolean onDeviceFound(CachedBluetoothDevice cachedDevice, short rssi, String name,
+            boolean isCoordinatedSetMember) {
+        final long now = SystemClock.elapsedRealtime();
+        mReportCount++;
+        mSessionReportCount++;
+        // Plain field without any dispatch, no need to aggregate
+        cachedDevice.setIsCoordinatedSetMember(isCoordinatedSetMember);
+
+        DeviceRecord record = mRecords.get(cachedDevice.getAddress());
+        if (record == null || record.mCachedDevice != cachedDevice) {
+            record = new DeviceRecord(cachedDevice, rssi, name);
+            mRecords.put(cachedDevice.getAddress(), record);
+            mNewDeviceCount++;
+            mForwardedCount++;
+            record.mLastForwardMs = now;
+            cachedDevice.setRssi(rssi);
+            cachedDevice.setJustDiscovered(true);
+            return true;
+        }
+
+        boolean forwarded = false;
+        record.mLatestRssi = rssi;
+        record.mSmoothedRssi += RSSI_SMOOTHING_FACTOR * (rssi - record.mSmoothedRssi);
+        if (!cachedDevice.mJustDiscovered) {
+            cachedDevice.setJustDiscovered(true);
+            forwarded = true;
+        }
+        if (!TextUtils.isEmpty(name) && !TextUtils.equals(name, record.mName)) {
+            record.mName = name;
+            cachedDevice.refreshName();
+            forwarded = true;
+        }
+        if (getRssiBucket(Math.round(record.mSmoothedRssi))
+                != getRssiBucket(record.mForwardedRssi)) {
+            if (now - record.mLastForwardMs >= RSSI_UPDATE_WINDOW_MS) {
+                applyRssi(record, now);
+                forwarded = true;
+            } else {
+                record.mRssiPending = true;
+                scheduleFlush(record.mLastForwardMs + RSSI_UPDATE_WINDOW_MS, now);
+            }
+        }
+
+        if (forwarded) {
+            mForwardedCount++;
+        } else {
+            mSuppressedCount++;
+        }
+        return false;
+    }
+
+    private void scheduleFlush(long flushMs, long now) {
+        // An earlier flush reschedules itself for the later records, keep only the earliest one
+        if (flushMs >= mScheduledFlushMs) {
+            return;
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        mScheduledFlushMs = flushMs;
+        mHandler.postDelayed(mFlushRunnable, flushMs - now);
+    }
+
+    private void cancelFlush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mScheduledFlushMs = Long.MAX_VALUE;
+    }
+
+    // Applies the held back RSSI changes whose window has passed
+    private void flushPendingRssi() {
+        final long now = SystemClock.elapsedRealtime();
+        mScheduledFlushMs = Long.MAX_VALUE;
+        long nextFlushMs = Long.MAX_VALUE;
+        for (DeviceRecord record : mRecords.values()) {
+            if (!record.mRssiPending) {
+                continue;
+            }
+            final long flushMs = record.mLastForwardMs + RSSI_UPDATE_WINDOW_MS;
+            if (flushMs <= now) {
+                applyRssi(record, now);
+                mForwardedCount++;
+            } else {
+                nextFlushMs = Math.min(nextFlushMs, flushMs);
+            }
+        }
+        if (nextFlushMs != Long.MAX_VALUE) {
+            scheduleFlush(nextFlushMs, now);
+        }
+    }
+
+    private void applyRssi(DeviceRecord record, long now) {
+        record.mForwardedRssi = (short) Math.round(record.mSmoothedRssi);
+        record.mLastForwardMs = now;
+        record.mRssiPending = false;
+        record.mCachedDevice.setRssi(record.mForwardedRssi);
+    }
+
+    private static int getRssiBucket(int rssi) {
+        return Math.floorDiv(rssi, RSSI_BUCKET_DB);
+    }
+
+    /**
+     * @return the latest RSSI reported for the device with {@code address} in this session, or
+     * {@link Short#MIN_VALUE} if it has not been found
+     */
+    public short getLatestRssi(String address) {
+        final DeviceRecord record = mRecords.get(address);
+        return record != null ? record.mLatestRssi : Short.MIN_VALUE;
+    }
+
+    /**
+     * @return the total number of ACTION_FOUND reports handled
+     */
+    public long getReportCount() {
+        return mReportCount;
+    }
+
+    /**
+     * @return the number of reports that changed the cached device
+     */
+    public long getForwardedCount() {
+        return mForwardedCount;
+    }
+
+    /**
+     * @return the number of reports merged without changing the cached device
+     */
+    public long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    /**
+     * @return the number of devices first seen in a discovery session
+     */
+    public long getNewDeviceCount() {
+        return mNewDeviceCount;
+    }
+
+    /**
+     * @return the ACTION_FOUND reports per second handled in the current discovery session
+     */
+    public float getSessionReportsPerSecond() {
+        final long elapsedMs = SystemClock.elapsedRealtime() - mSessionStartMs;
+        return elapsedMs > 0 ? mSessionReportCount * 1000f / elapsedMs : 0f;
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoveryAggregator[reports=" + mReportCount + " forwarded=" + mForwardedCount
+                + " suppressed=" + mSuppressedCount + " newDevices=" + mNewDeviceCount
+                + " reportsPerSecond=" + getSessionReportsPerSecond() + "]";
+    }
+
+    private static final class DeviceRecord {
+        final CachedBluetoothDevice mCachedDevice;
+        volatile short mLatestRssi;
+        float mSmoothedRssi;
+        short mForwardedRssi;
+        String mName;
+        long mLastForwardMs;
+        boolean mRssiPending;
+
+        DeviceRecord(CachedBluetoothDevice cachedDevice, short rssi, String name) {
+            mCachedDevice = cachedDevice;
+            mLatestRssi = rssi;
+            mSmoothedRssi = rssi;
+            mForwardedRssi = rssi;
+            mName = name;
+        }
+    }
+}
@@ -61,8 +61,9 @@ public class HeadsetProfile implements LocalBluetoothProfile {
 
         public void onServiceConnected(int profile, BluetoothProfile proxy) {
             mService = (BluetoothHeadset) proxy;
-            // We just bound to the service, so refresh the UI for any connected HFP devices.
             List<BluetoothDevice> deviceList = mService.getConnectedDevices();
+            mProfileManager.onProfileServiceConnected(HeadsetProfile.this, deviceList);
+            // We just bound to the service, so refresh the UI for any connected HFP devices.
             while (!deviceList.isEmpty()) {
                 BluetoothDevice nextDevice = deviceList.remove(0);
                 CachedBluetoothDevice device = mDeviceManager.findDevice(nextDevice);
@@ -80,6 +81,7 @@ public class HeadsetProfile implements LocalBluetoothProfile {
         }
 
         public void onServiceDisconnected(int profile) {
+            mProfileManager.onProfileServiceDisconnected(HeadsetProfile.this);
             mProfileManager.callServiceDisconnectedListeners();
             mIsProfileReady=false;
         }
@@ -219,6 +221,11 @@ public class HeadsetProfile implements LocalBluetoothProfile {
 
     protected void finalize() {
         Log.d(TAG, "finalize()");
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(BluetoothProfile.HEADSET,
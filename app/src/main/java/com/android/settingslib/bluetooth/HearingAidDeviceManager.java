@@ -35,10 +35,12 @@ public class HearingAidDeviceManager {
 
     private final LocalBluetoothManager mBtManager;
     private final List<CachedBluetoothDevice> mCachedDevices;
+    private final DeviceGroupIndex mDeviceGroupIndex;
     HearingAidDeviceManager(LocalBluetoothManager localBtManager,
-            List<CachedBluetoothDevice> CachedDevices) {
+            List<CachedBluetoothDevice> CachedDevices, DeviceGroupIndex deviceGroupIndex) {
         mBtManager = localBtManager;
         mCachedDevices = CachedDevices;
+        mDeviceGroupIndex = deviceGroupIndex;
     }
 
     void initHearingAidDeviceIfNeeded(CachedBluetoothDevice newDevice) {
@@ -78,13 +80,8 @@ public class HearingAidDeviceManager {
     }
 
     private CachedBluetoothDevice getCachedDevice(long hiSyncId) {
-        for (int i = mCachedDevices.size() - 1; i >= 0; i--) {
-            CachedBluetoothDevice cachedDevice = mCachedDevices.get(i);
-            if (cachedDevice.getHiSyncId() == hiSyncId) {
-                return cachedDevice;
-            }
-        }
-        return null;
+        final List<CachedBluetoothDevice> devices = mDeviceGroupIndex.getHiSyncIdDevices(hiSyncId);
+        return devices.isEmpty() ? null : devices.get(devices.size() - 1);
     }
 
     // To collect all HearingAid devices and call #onHiSyncIdChanged to group device by HiSyncId
@@ -109,45 +106,45 @@ public class HearingAidDeviceManager {
     // Group devices by hiSyncId
     @VisibleForTesting
     void onHiSyncIdChanged(long hiSyncId) {
-        int firstMatchedIndex = -1;
+        // Listed in mCachedDevices order, so these are the last two matches of a backward scan
+        final List<CachedBluetoothDevice> devices = mDeviceGroupIndex.getHiSyncIdDevices(hiSyncId);
+        final int count = devices.size();
+        if (count < 2) {
+            return;
+        }
+        final CachedBluetoothDevice firstMatchedDevice = devices.get(count - 1);
+        final CachedBluetoothDevice cachedDevice = devices.get(count - 2);
+        CachedBluetoothDevice subDevice;
+        CachedBluetoothDevice mainDevice;
+        // Since the hiSyncIds have been updated for a connected pair of hearing aids,
+        // we remove the entry of one the hearing aids from the UI. Unless the
+        // hiSyncId get updated, the system does not know it is a hearing aid, so we add
+        // both the hearing aids as separate entries in the UI first, then remove one
+        // of them after the hiSyncId is populated. We will choose the device that
+        // is not connected to be removed.
+        if (cachedDevice.isConnected()) {
+            mainDevice = cachedDevice;
+            subDevice = firstMatchedDevice;
+        } else {
+            mainDevice = firstMatchedDevice;
+            subDevice = cachedDevice;
+        }
+
+        mainDevice.setSubDevice(subDevice);
+        removeCachedDevice(subDevice);
+        log("onHiSyncIdChanged: removed from UI device =" + subDevice
+                + ", with hiSyncId=" + hiSyncId);
+        mBtManager.getEventManager().dispatchDeviceRemoved(subDevice);
+    }
 
+    private void removeCachedDevice(CachedBluetoothDevice device) {
         for (int i = mCachedDevices.size() - 1; i >= 0; i--) {
-            CachedBluetoothDevice cachedDevice = mCachedDevices.get(i);
-            if (cachedDevice.getHiSyncId() != hiSyncId) {
-                continue;
-            }
-            if (firstMatchedIndex == -1) {
-                // Found the first one
-                firstMatchedIndex = i;
-                continue;
-            }
-            // Found the second one
-            int indexToRemoveFromUi;
-            CachedBluetoothDevice subDevice;
-            CachedBluetoothDevice mainDevice;
-            // Since the hiSyncIds have been updated for a connected pair of hearing aids,
-            // we remove the entry of one the hearing aids from the UI. Unless the
-            // hiSyncId get updated, the system does not know it is a hearing aid, so we add
-            // both the hearing aids as separate entries in the UI first, then remove one
-            // of them after the hiSyncId is populated. We will choose the device that
-            // is not connected to be removed.
-            if (cachedDevice.isConnected()) {
-                mainDevice = cachedDevice;
-                indexToRemoveFromUi = firstMatchedIndex;
-                subDevice = mCachedDevices.get(firstMatchedIndex);
-            } else {
-                mainDevice = mCachedDevices.get(firstMatchedIndex);
-                indexToRemoveFromUi = i;
-                subDevice = cachedDevice;
+            if (mCachedDevices.get(i) == device) {
+                mCachedDevices.remove(i);
+                break;
             }
-
-            mainDevice.setSubDevice(subDevice);
-            mCachedDevices.remove(indexToRemoveFromUi);
-            log("onHiSyncIdChanged: removed from UI device =" + subDevice
-                    + ", with hiSyncId=" + hiSyncId);
-            mBtManager.getEventManager().dispatchDeviceRemoved(subDevice);
-            break;
         }
+        mDeviceGroupIndex.remove(device);
     }
 
     // @return {@code true}, the event is processed inside the method. It is for updating
@@ -207,12 +204,15 @@ public class HearingAidDeviceManager {
     }
 
     CachedBluetoothDevice findMainDevice(CachedBluetoothDevice device) {
-        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
-            if (isValidHiSyncId(cachedDevice.getHiSyncId())) {
-                CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
-                if (subDevice != null && subDevice.equals(device)) {
-                    return cachedDevice;
-                }
+        if (device == null || !isValidHiSyncId(device.getHiSyncId())) {
+            return null;
+        }
+        // Sub devices are paired by HiSyncId, so only the listed devices of that id can own it
+        for (CachedBluetoothDevice cachedDevice
+                : mDeviceGroupIndex.getHiSyncIdDevices(device.getHiSyncId())) {
+            CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
+            if (subDevice != null && subDevice.equals(device)) {
+                return cachedDevice;
             }
         }
         return null;
@@ -93,8 +93,9 @@ public class HearingAidProfile implements LocalBluetoothProfile {
 
         public void onServiceConnected(int profile, BluetoothProfile proxy) {
             mService = (BluetoothHearingAid) proxy;
-            // We just bound to the service, so refresh the UI for any connected HearingAid devices.
             List<BluetoothDevice> deviceList = mService.getConnectedDevices();
+            mProfileManager.onProfileServiceConnected(HearingAidProfile.this, deviceList);
+            // We just bound to the service, so refresh the UI for any connected HearingAid devices.
             while (!deviceList.isEmpty()) {
                 BluetoothDevice nextDevice = deviceList.remove(0);
                 CachedBluetoothDevice device = mDeviceManager.findDevice(nextDevice);
@@ -117,6 +118,7 @@ public class HearingAidProfile implements LocalBluetoothProfile {
         }
 
         public void onServiceDisconnected(int profile) {
+            mProfileManager.onProfileServiceDisconnected(HearingAidProfile.this);
             mIsProfileReady=false;
         }
     }
@@ -357,6 +359,11 @@ public class HearingAidProfile implements LocalBluetoothProfile {
 
     protected void finalize() {
         Log.d(TAG, "finalize()");
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(BluetoothProfile.HEARING_AID,
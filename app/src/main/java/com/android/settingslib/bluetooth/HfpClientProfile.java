@@ -201,6 +201,11 @@ final class HfpClientProfile implements LocalBluetoothProfile {
 
     protected void finalize() {
         Log.d(TAG, "finalize()");
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(
@@ -64,8 +64,9 @@ public class LeAudioProfile implements LocalBluetoothProfile {
                 Log.d(TAG,"Bluetooth service connected");
             }
             mService = (BluetoothLeAudio) proxy;
-            // We just bound to the service, so refresh the UI for any connected LeAudio devices.
             List<BluetoothDevice> deviceList = mService.getConnectedDevices();
+            mProfileManager.onProfileServiceConnected(LeAudioProfile.this, deviceList);
+            // We just bound to the service, so refresh the UI for any connected LeAudio devices.
             while (!deviceList.isEmpty()) {
                 BluetoothDevice nextDevice = deviceList.remove(0);
                 CachedBluetoothDevice device = mDeviceManager.findDevice(nextDevice);
@@ -86,6 +87,7 @@ public class LeAudioProfile implements LocalBluetoothProfile {
         }
 
         public void onServiceDisconnected(int profile) {
+            mProfileManager.onProfileServiceDisconnected(LeAudioProfile.this);
             if (DEBUG) {
                  Log.d(TAG,"Bluetooth service disconnected");
             }
@@ -251,6 +253,11 @@ public class LeAudioProfile implements LocalBluetoothProfile {
         if (DEBUG) {
             Log.d(TAG, "finalize()");
         }
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(BluetoothProfile.LE_AUDIO,
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.DELIMITER_QR_CODE;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTAC_LANGUAGE;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTAC_PROGRAM_INFO;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTAC_RAW_METADATA;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTBC_CHANNEL_INDEX;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTBC_CODEC_CONFIG;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTCC_AUDIO_LOCATION;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTCC_RAW_METADATA;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTSG_AUDIO_CONTENT;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTSG_BROADCAST_CHANNEL;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTSG_CODEC_CONFIG;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BTSG_CODEC_ID;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_ADDRESS_TYPE;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_ADVERTISING_SID;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_BROADCAST_CODE;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_BROADCAST_ID;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_DEVICE;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_IS_ENCRYPTED;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_PRESENTATION_DELAY;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_SUBGROUPS;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.PREFIX_BT_SYNC_INTERVAL;
+import static com.android.settingslib.bluetooth.BluetoothBroadcastUtils.SCHEME_BT_BROADCAST_METADATA;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothLeAudioCodecConfigMetadata;
+import android.bluetooth.BluetoothLeAudioContentMetadata;
+import android.bluetooth.BluetoothLeBroadcastChannel;
+import android.bluetooth.BluetoothLeBroadcastMetadata;
+import android.bluetooth.BluetoothLeBroadcastSubgroup;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * LeBroadcastMetadataCodec converts {@link BluetoothLeBroadcastMetadata} to and from the QR code
+ * string built from the {@code PREFIX_*} grammar of {@link BluetoothBroadcastUtils}, e.g.
+ * {@code BT:T:<1>;D:<00:11:22:AA:BB:CC>;...;G:<CID:<6>;CC:<AL:<1>;CCRM:<...>;>;...>;}.
+ *
+ * <p>Fields are positional. A nested value is itself a list of fields, enclosed by
+ * {@code <} and {@code >}. In text values the grammar characters {@code <>;:} and the escape
+ * character are preceded by {@code \}, as is the text {@code null}, which otherwise stands for a
+ * missing value. Encoding appends to a single buffer and decoding is a single pass of a cursor
+ * over the string. The raw metadata fields are derived from the other fields, so they are
+ * written but skipped when reading. The selected state of the channels is not part of the
+ * grammar and reads as {@code false}.
+ */
+final class LeBroadcastMetadataCodec {
+    private static final String TAG = "LeBroadcastMetadataCodec";
+    private static final boolean DEBUG = BluetoothUtils.D;
+
+    private static final char VALUE_START = '<';
+    private static final char VALUE_END = '>';
+    private static final char ESCAPE = '\\';
+    private static final String ESCAPED_CHARS = "\\<>;:";
+    // A raw metadata field is the last one of its section, so its value ends with the section
+    private static final String RAW_VALUE_END = ">;>";
+    private static final String NULL = "null";
+
+    private LeBroadcastMetadataCodec() {
+    }
+
+    static String encode(BluetoothLeBroadcastMetadata metadata) {
+        return encode(metadata.getSourceAddressType(), metadata.getSourceDevice(),
+                metadata.getSourceAdvertisingSid(), metadata.getBroadcastId(),
+                metadata.getPaSyncInterval(), metadata.isEncrypted(), metadata.getBroadcastCode(),
+                metadata.getPresentationDelayMicros(), metadata.getSubgroups());
+    }
+
+    static String encode(int sourceAddressType, BluetoothDevice sourceDevice,
+            int sourceAdvertisingSid, int broadcastId, int paSyncInterval, boolean isEncrypted,
+            byte[] broadcastCode, int presentationDelayMicros,
+            List<BluetoothLeBroadcastSubgroup> subgroups) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(SCHEME_BT_BROADCAST_METADATA);
+        openValue(sb, PREFIX_BT_ADDRESS_TYPE).append(sourceAddressType);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_DEVICE)
+                .append(sourceDevice != null ? sourceDevice.getAddress() : NULL);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_ADVERTISING_SID).append(sourceAdvertisingSid);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_BROADCAST_ID).append(broadcastId);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_SYNC_INTERVAL).append(paSyncInterval);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_IS_ENCRYPTED).append(isEncrypted);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_BROADCAST_CODE);
+        appendBytes(sb, broadcastCode);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_PRESENTATION_DELAY).append(presentationDelayMicros);
+        closeValue(sb);
+        openValue(sb, PREFIX_BT_SUBGROUPS);
+        if (subgroups != null) {
+            for (BluetoothLeBroadcastSubgroup subgroup : subgroups) {
+                appendSubgroup(sb, subgroup);
+            }
+        }
+        closeValue(sb);
+        return sb.toString();
+    }
+
+    /**
+     * @return the metadata of {@code qrCodeString}, or null if it is malformed
+     */
+    static BluetoothLeBroadcastMetadata decode(String qrCodeString) {
+        if (qrCodeString == null) {
+            return null;
+        }
+        try {
+            return new Parser(qrCodeString).parseMetadata();
+        } catch (IllegalArgumentException | IllegalStateException
+                | IndexOutOfBoundsException e) {
+            if (DEBUG) {
+                Log.d(TAG, "Can not convert " + qrCodeString + " to BluetoothLeBroadcastMetadata",
+                        e);
+            }
+            return null;
+        }
+    }
+
+    private static void appendSubgroup(StringBuilder sb, BluetoothLeBroadcastSubgroup subgroup) {
+        openValue(sb, PREFIX_BTSG_CODEC_ID).append(subgroup.getCodecId());
+        closeValue(sb);
+        openValue(sb, PREFIX_BTSG_CODEC_CONFIG);
+        appendCodecConfig(sb, subgroup.getCodecSpecificConfig());
+        closeValue(sb);
+        final BluetoothLeAudioContentMetadata content = subgroup.getContentMetadata();
+        openValue(sb, PREFIX_BTSG_AUDIO_CONTENT);
+        openValue(sb, PREFIX_BTAC_PROGRAM_INFO);
+        appendText(sb, content.getProgramInfo());
+        closeValue(sb);
+        openValue(sb, PREFIX_BTAC_LANGUAGE);
+        appendText(sb, content.getLanguage());
+        closeValue(sb);
+        openValue(sb, PREFIX_BTAC_RAW_METADATA);
+        appendText(sb, new String(content.getRawMetadata(), StandardCharsets.UTF_8));
+        closeValue(sb);
+        closeValue(sb);
+        openValue(sb, PREFIX_BTSG_BROADCAST_CHANNEL);
+        for (BluetoothLeBroadcastChannel channel : subgroup.getChannels()) {
+            openValue(sb, PREFIX_BTBC_CHANNEL_INDEX).append(channel.getChannelIndex());
+            closeValue(sb);
+            openValue(sb, PREFIX_BTBC_CODEC_CONFIG);
+            appendCodecConfig(sb, channel.getCodecMetadata());
+            closeValue(sb);
+        }
+        closeValue(sb);
+    }
+
+    private static void appendCodecConfig(StringBuilder sb,
+            BluetoothLeAudioCodecConfigMetadata config) {
+        openValue(sb, PREFIX_BTCC_AUDIO_LOCATION).append(config.getAudioLocation());
+        closeValue(sb);
+        openValue(sb, PREFIX_BTCC_RAW_METADATA);
+        appendText(sb, new String(config.getRawMetadata(), StandardCharsets.UTF_8));
+        closeValue(sb);
+    }
+
+    // Text NULL is escaped, so that it does not read as null
+    private static void appendText(StringBuilder sb, String text) {
+        if (text == null) {
+            sb.append(NULL);
+            return;
+        }
+        if (text.equals(NULL)) {
+            sb.append(ESCAPE);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (ESCAPED_CHARS.indexOf(c) >= 0) {
+                sb.append(ESCAPE);
+            }
+            sb.append(c);
+        }
+    }
+
+    // Same text as Arrays#toString(byte[])
+    private static void appendBytes(StringBuilder sb, byte[] bytes) {
+        if (bytes == null) {
+            sb.append(NULL);
+            return;
+        }
+        sb.append('[');
+        for (int i = 0; i < bytes.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(bytes[i]);
+        }
+        sb.append(']');
+    }
+
+    private static StringBuilder openValue(StringBuilder sb, String prefix) {
+        return sb.append(prefix).append(VALUE_START);
+    }
+
+    private static void closeValue(StringBuilder sb) {
+        sb.append(VALUE_END).append(DELIMITER_QR_CODE);
+    }
+
+    /**
+     * Recursive descent parser moving a cursor once over the string.
+     */
+    private static final class Parser {
+        private final String mInput;
+        private int mPos;
+
+        Parser(String input) {
+            mInput = input;
+        }
+
+        BluetoothLeBroadcastMetadata parseMetadata() {
+            expect(SCHEME_BT_BROADCAST_METADATA);
+            final int sourceAddressType = Integer.parseInt(readValue(PREFIX_BT_ADDRESS_TYPE));
+            final BluetoothDevice sourceDevice = BluetoothAdapter.getDefaultAdapter()
+                    .getRemoteDevice(readValue(PREFIX_BT_DEVICE));
+            final BluetoothLeBroadcastMetadata.Builder builder =
+                    new BluetoothLeBroadcastMetadata.Builder()
+                            .setSourceDevice(sourceDevice, sourceAddressType)
+                            .setSourceAdvertisingSid(
+                                    Integer.parseInt(readValue(PREFIX_BT_ADVERTISING_SID)))
+                            .setBroadcastId(Integer.parseInt(readValue(PREFIX_BT_BROADCAST_ID)))
+                            .setPaSyncInterval(
+                                    Integer.parseInt(readValue(PREFIX_BT_SYNC_INTERVAL)))
+                            .setEncrypted(
+                                    Boolean.parseBoolean(readValue(PREFIX_BT_IS_ENCRYPTED)))
+                            .setBroadcastCode(parseBytes(readValue(PREFIX_BT_BROADCAST_CODE)))
+                            .setPresentationDelayMicros(
+                                    Integer.parseInt(readValue(PREFIX_BT_PRESENTATION_DELAY)));
+            openSection(PREFIX_BT_SUBGROUPS);
+            while (!atSectionEnd()) {
+                builder.addSubgroup(parseSubgroup());
+            }
+            closeSection();
+            // Trailing fields such as the Android version are optional and not needed
+            return builder.build();
+        }
+
+        private BluetoothLeBroadcastSubgroup parseSubgroup() {
+            final long codecId = Long.parseLong(readValue(PREFIX_BTSG_CODEC_ID));
+            openSection(PREFIX_BTSG_CODEC_CONFIG);
+            final BluetoothLeAudioCodecConfigMetadata config = parseCodecConfig();
+            closeSection();
+
+            openSection(PREFIX_BTSG_AUDIO_CONTENT);
+            final BluetoothLeAudioContentMetadata content =
+                    new BluetoothLeAudioContentMetadata.Builder()
+                            .setProgramInfo(readText(PREFIX_BTAC_PROGRAM_INFO))
+                            .setLanguage(readText(PREFIX_BTAC_LANGUAGE))
+                            .build();
+            skipRawValue(PREFIX_BTAC_RAW_METADATA);
+            closeSection();
+
+            final BluetoothLeBroadcastSubgroup.Builder builder =
+                    new BluetoothLeBroadcastSubgroup.Builder()
+                            .setCodecId(codecId)
+                            .setCodecSpecificConfig(config)
+                            .setContentMetadata(content);
+            openSection(PREFIX_BTSG_BROADCAST_CHANNEL);
+            while (!atSectionEnd()) {
+                final int channelIndex = Integer.parseInt(readValue(PREFIX_BTBC_CHANNEL_INDEX));
+                openSection(PREFIX_BTBC_CODEC_CONFIG);
+                final BluetoothLeAudioCodecConfigMetadata channelConfig = parseCodecConfig();
+                closeSection();
+                builder.addChannel(new BluetoothLeBroadcastChannel.Builder()
+                        .setChannelIndex(channelIndex)
+                        .setCodecMetadata(channelConfig)
+                        .build());
+            }
+            closeSection();
+            return builder.build();
+        }
+
+        private BluetoothLeAudioCodecConfigMetadata parseCodecConfig() {
+            final long audioLocation = Long.parseLong(readValue(PREFIX_BTCC_AUDIO_LOCATION));
+            skipRawValue(PREFIX_BTCC_RAW_METADATA);
+            return new BluetoothLeAudioCodecConfigMetadata.Builder()
+                    .setAudioLocation(audioLocation)
+                    .build();
+        }
+
+        // Reads a scalar value up to the first unescaped VALUE_END, removing the escapes
+        private String readValue(String prefix) {
+            openSection(prefix);
+            StringBuilder unescaped = null;
+            int start = mPos;
+            while (mPos < mInput.length() && mInput.charAt(mPos) != VALUE_END) {
+                if (mInput.charAt(mPos) == ESCAPE) {
+                    if (unescaped == null) {
+                        unescaped = new StringBuilder();
+                    }
+                    // The escaped character starts the next run
+                    unescaped.append(mInput, start, mPos);
+                    start = ++mPos;
+                }
+                mPos++;
+            }
+            if (mPos >= mInput.length()) {
+                throw new IllegalArgumentException("Unterminated value of " + prefix);
+            }
+            final String value = unescaped == null ? mInput.substring(start, mPos)
+                    : unescaped.append(mInput, start, mPos).toString();
+            closeSection();
+            return value;
+        }
+
+        // Reads a text value, in which an unescaped NULL stands for null
+        private String readText(String prefix) {
+            final boolean isNull =
+                    mInput.startsWith(prefix + VALUE_START + NULL + VALUE_END, mPos);
+            final String value = readValue(prefix);
+            return isNull ? null : value;
+        }
+
+        // Skips a raw value up to the first unescaped RAW_VALUE_END, so that unescaped raw
+        // values written before escaping was added are skipped as well
+        private void skipRawValue(String prefix) {
+            openSection(prefix);
+            int end = mPos;
+            while (end < mInput.length() && !mInput.startsWith(RAW_VALUE_END, end)) {
+                end += mInput.charAt(end) == ESCAPE ? 2 : 1;
+            }
+            if (end >= mInput.length()) {
+                throw new IllegalArgumentException("Unterminated value of " + prefix);
+            }
+            mPos = end;
+            closeSection();
+        }
+
+        private void openSection(String prefix) {
+            expect(prefix);
+            expect(VALUE_START);
+        }
+
+        private boolean atSectionEnd() {
+            return mPos < mInput.length() && mInput.charAt(mPos) == VALUE_END;
+        }
+
+        private void closeSection() {
+            expect(VALUE_END);
+            expect(DELIMITER_QR_CODE);
+        }
+
+        private void expect(String token) {
+            if (!mInput.startsWith(token, mPos)) {
+                throw new IllegalArgumentException("Expected " + token + " at " + mPos);
+            }
+            mPos += token.length();
+        }
+
+        private void expect(char c) {
+            if (mPos >= mInput.length() || mInput.charAt(mPos) != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + mPos);
+            }
+            mPos++;
+        }
+
+        // Parses the Arrays#toString(byte[]) text, or takes the bytes of a plain code
+        private static byte[] parseBytes(String value) {
+            if (NULL.equals(value)) {
+                return null;
+            }
+            if (value.isEmpty() || value.charAt(0) != '['
+                    || value.charAt(value.length() - 1) != ']') {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+            if (value.length() == 2) {
+                return new byte[0];
+            }
+            int count = 1;
+            for (int i = 1; i < value.length() - 1; i++) {
+                if (value.charAt(i) == ',') {
+                    count++;
+                }
+            }
+            final byte[] bytes = new byte[count];
+            int start = 1;
+            for (int i = 0; i < count; i++) {
+                int end = value.indexOf(',', start);
+                if (end < 0) {
+                    end = value.length() - 1;
+                }
+                bytes[i] = Byte.parseByte(value.substring(start, end).trim());
+                start = end + 1;
+            }
+            return bytes;
+        }
+    }
+}
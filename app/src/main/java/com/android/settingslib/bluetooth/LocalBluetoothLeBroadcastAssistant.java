@@ -58,6 +58,73 @@ public class LocalBluetoothLeBroadcastAssistant implements LocalBluetoothProfile
     private BluetoothLeBroadcastMetadata mBluetoothLeBroadcastMetadata;
     private BluetoothLeBroadcastMetadata.Builder mBuilder;
     private boolean mIsProfileReady;
+    // Whether mSourceFoundCallback is registered with mService, which keeps it across restarts
+    private boolean mSourceFoundCallbackRegistered;
+    private final Context mContext;
+    private final BroadcastSourceRegistry mSourceRegistry = new BroadcastSourceRegistry();
+
+    /**
+     * Callback of the de-duplicated Broadcast Sources found by
+     * {@link #startSearchingForSources(List)}. Called on the main thread.
+     */
+    public interface SourceCallback {
+        /** A Broadcast Source is found for the first time. */
+        void onSourceDiscovered(@NonNull BluetoothLeBroadcastMetadata metadata);
+
+        /** A known Broadcast Source is reported with new metadata. */
+        void onSourceUpdated(@NonNull BluetoothLeBroadcastMetadata metadata);
+
+        /** A known Broadcast Source is no longer reported. */
+        void onSourceLost(@NonNull BluetoothLeBroadcastMetadata metadata);
+    }
+
+    private final BluetoothLeBroadcastAssistant.Callback mSourceFoundCallback =
+            new BluetoothLeBroadcastAssistant.Callback() {
+                @Override
+                public void onSearchStarted(int reason) {}
+
+                @Override
+                public void onSearchStartFailed(int reason) {}
+
+                @Override
+                public void onSearchStopped(int reason) {}
+
+                @Override
+                public void onSearchStopFailed(int reason) {}
+
+                @Override
+                public void onSourceFound(@NonNull BluetoothLeBroadcastMetadata source) {
+                    mSourceRegistry.onSourceFound(source);
+                }
+
+                @Override
+                public void onSourceAdded(@NonNull BluetoothDevice sink, int sourceId,
+                        int reason) {}
+
+                @Override
+                public void onSourceAddFailed(@NonNull BluetoothDevice sink,
+                        @NonNull BluetoothLeBroadcastMetadata source, int reason) {}
+
+                @Override
+                public void onSourceModified(@NonNull BluetoothDevice sink, int sourceId,
+                        int reason) {}
+
+                @Override
+                public void onSourceModifyFailed(@NonNull BluetoothDevice sink, int sourceId,
+                        int reason) {}
+
+                @Override
+                public void onSourceRemoved(@NonNull BluetoothDevice sink, int sourceId,
+                        int reason) {}
+
+                @Override
+                public void onSourceRemoveFailed(@NonNull BluetoothDevice sink, int sourceId,
+                        int reason) {}
+
+                @Override
+                public void onReceiveStateChanged(@NonNull BluetoothDevice sink, int sourceId,
+                        @NonNull BluetoothLeBroadcastReceiveState state) {}
+            };
 
     private final BluetoothProfile.ServiceListener mServiceListener = new BluetoothProfile.ServiceListener() {
         @Override
@@ -66,6 +133,11 @@ public class LocalBluetoothLeBroadcastAssistant implements LocalBluetoothProfile
                 Log.d(TAG, "Bluetooth service connected");
             }
             mService = (BluetoothLeBroadcastAssistant) proxy;
+            // The registry is confined to the main thread
+            if (!mSourceFoundCallbackRegistered) {
+                mService.registerCallback(mContext.getMainExecutor(), mSourceFoundCallback);
+                mSourceFoundCallbackRegistered = true;
+            }
             // We just bound to the service, so refresh the UI for any connected LeAudio devices.
             List<BluetoothDevice> deviceList = mService.getConnectedDevices();
             while (!deviceList.isEmpty()) {
@@ -97,6 +169,8 @@ public class LocalBluetoothLeBroadcastAssistant implements LocalBluetoothProfile
             if (DEBUG) {
                 Log.d(TAG, "Bluetooth service disconnected");
             }
+            unregisterSourceFoundCallback();
+            mSourceRegistry.clear();
             mProfileManager.callServiceDisconnectedListeners();
             mIsProfileReady = false;
         }
@@ -105,6 +179,7 @@ public class LocalBluetoothLeBroadcastAssistant implements LocalBluetoothProfile
     public LocalBluetoothLeBroadcastAssistant(Context context,
             CachedBluetoothDeviceManager deviceManager,
             LocalBluetoothProfileManager profileManager) {
+        mContext = context;
         mProfileManager = profileManager;
         mDeviceManager = deviceManager;
         BluetoothAdapter.getDefaultAdapter().
@@ -199,6 +274,41 @@ public class LocalBluetoothLeBroadcastAssistant implements LocalBluetoothProfile
         mService.startSearchingForSources(filters);
     }
 
+    /**
+     * Stops an ongoing search for nearby Broadcast Sources. The sources found so far are
+     * reported lost once they time out.
+     */
+    public void stopSearchingForSources() {
+        if (DEBUG) {
+            Log.d(TAG, "stopSearchingForSources()");
+        }
+        if (mService == null) {
+            Log.d(TAG, "The BluetoothLeBroadcastAssistant is null");
+            return;
+        }
+        mService.stopSearchingForSources();
+    }
+
+    /**
+     * Registers a callback of the Broadcast Sources found by searches. Repeated reports of the
+     * same source are merged, and events are delivered at a bounded rate.
+     */
+    public void registerSourceCallback(@NonNull SourceCallback callback) {
+        mSourceRegistry.registerCallback(callback);
+    }
+
+    public void unregisterSourceCallback(@NonNull SourceCallback callback) {
+        mSourceRegistry.unregisterCallback(callback);
+    }
+
+    /**
+     * @return the Broadcast Sources currently known from searches, one per advertiser and
+     *         broadcast id. The list is shared and must not be modified.
+     */
+    public @NonNull List<BluetoothLeBroadcastMetadata> getFoundSources() {
+        return mSourceRegistry.getSources();
+    }
+
     /**
      * Return true if a search has been started by this application.
      *
@@ -346,6 +456,24 @@ public class LocalBluetoothLeBroadcastAssistant implements LocalBluetoothProfile
         if (DEBUG) {
             Log.d(TAG, "finalize()");
         }
+        closeProfileProxy();
+    }
+
+    private void unregisterSourceFoundCallback() {
+        if (mService == null || !mSourceFoundCallbackRegistered) {
+            return;
+        }
+        mSourceFoundCallbackRegistered = false;
+        try {
+            mService.unregisterCallback(mSourceFoundCallback);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.w(TAG, "Error unregistering the source found callback", e);
+        }
+    }
+
+    @Override
+    public void closeProfileProxy() {
+        unregisterSourceFoundCallback();
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(
@@ -18,11 +18,17 @@ package com.android.settingslib.bluetooth;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.android.settingslib.utils.PrioritizedExecutor;
+import com.android.settingslib.utils.ThreadUtils;
+
 import java.lang.ref.WeakReference;
 
 /**
@@ -34,9 +40,18 @@ import java.lang.ref.WeakReference;
 public class LocalBluetoothManager {
     private static final String TAG = "LocalBluetoothManager";
 
+    /** Staged init: the bonded devices are added with their identity only. */
+    public static final int INIT_STAGE_BONDED_DEVICES = 0;
+    /** Staged init: the local profiles are created and their proxies requested. */
+    public static final int INIT_STAGE_LOCAL_PROFILES = 1;
+    /** Staged init: the profiles and remaining attributes of the bonded devices are read. */
+    public static final int INIT_STAGE_DEVICE_ATTRIBUTES = 2;
+
     /** Singleton instance. */
     private static LocalBluetoothManager sInstance;
 
+    private static volatile boolean sWarmStartEnabled = true;
+
     private final Context mContext;
 
     /** If a BT-related activity is in the foreground, this will be it. */
@@ -72,6 +87,36 @@ public class LocalBluetoothManager {
         return sInstance;
     }
 
+    /**
+     * Same as {@link #getInstance}, but the new instance is returned before its profiles and
+     * bonded devices are loaded. They are loaded on a background thread in the
+     * {@code INIT_STAGE_*} order once {@code onInitCallback} returns, so callbacks registered
+     * from it see the bonded devices being added. The duration of each stage is reported
+     * through {@link BluetoothManagerCallback#onInitStageCompleted} on the main thread.
+     */
+    @Nullable
+    public static synchronized LocalBluetoothManager getInstanceAsync(Context context,
+            BluetoothManagerCallback onInitCallback) {
+        if (sInstance == null) {
+            LocalBluetoothAdapter adapter = LocalBluetoothAdapter.getInstance();
+            if (adapter == null) {
+                return null;
+            }
+            // This will be around as long as this process is
+            sInstance = new LocalBluetoothManager(adapter, context, /* handler= */ null,
+                    /* userHandle= */ null, /* stagedInit= */ true);
+            if (onInitCallback != null) {
+                onInitCallback.onBluetoothManagerInitialized(context.getApplicationContext(),
+                        sInstance);
+            }
+            final LocalBluetoothManager manager = sInstance;
+            ThreadUtils.postOnBackgroundThread(PrioritizedExecutor.LANE_UI_CRITICAL,
+                    () -> manager.runStagedInit(onInitCallback));
+        }
+
+        return sInstance;
+    }
+
     /**
      * Returns a new instance of {@link LocalBluetoothManager} or null if Bluetooth is not
      * supported for this hardware. This instance should be globally cached by the caller.
@@ -105,8 +150,38 @@ public class LocalBluetoothManager {
                 userHandle);
     }
 
+    /**
+     * Returns a new instance of {@link LocalBluetoothManager} whose Bluetooth broadcasts, and the
+     * device cache updates they cause, are handled on a dedicated {@link HandlerThread} instead of
+     * the main looper. {@link BluetoothCallback} events are batched and delivered on the main
+     * thread once per frame, and device attribute changes are coalesced per frame (see
+     * {@link AttributesChangedCoalescer}) so they also reach the UI on the main thread.
+     * Returns null if Bluetooth is not supported for this hardware. This instance should be
+     * globally cached by the caller.
+     */
+    @Nullable
+    public static LocalBluetoothManager createWithEventThread(Context context) {
+        LocalBluetoothAdapter adapter = LocalBluetoothAdapter.getInstance();
+        if (adapter == null) {
+            return null;
+        }
+        final HandlerThread eventThread = new HandlerThread(TAG + "Events",
+                Process.THREAD_PRIORITY_FOREGROUND);
+        eventThread.start();
+        AttributesChangedCoalescer.setCoalescingWindow(AttributesChangedCoalescer.WINDOW_FRAME);
+        final LocalBluetoothManager manager = new LocalBluetoothManager(adapter, context,
+                new Handler(eventThread.getLooper()), /* userHandle= */ null);
+        manager.mEventManager.setBatchCallbacks(true);
+        return manager;
+    }
+
     private LocalBluetoothManager(LocalBluetoothAdapter adapter, Context context, Handler handler,
             UserHandle userHandle) {
+        this(adapter, context, handler, userHandle, /* stagedInit= */ false);
+    }
+
+    private LocalBluetoothManager(LocalBluetoothAdapter adapter, Context context, Handler handler,
+            UserHandle userHandle, boolean stagedInit) {
         mContext = context.getApplicationContext();
         mLocalAdapter = adapter;
         mCachedDeviceManager = new CachedBluetoothDeviceManager(mContext, this);
@@ -115,8 +190,57 @@ public class LocalBluetoothManager {
         mProfileManager = new LocalBluetoothProfileManager(mContext,
                 mLocalAdapter, mCachedDeviceManager, mEventManager);
 
+        if (!stagedInit) {
+            mProfileManager.updateLocalProfiles();
+            mEventManager.readPairedDevices();
+        }
+    }
+
+    private void runStagedInit(@Nullable BluetoothManagerCallback callback) {
+        long start = SystemClock.elapsedRealtime();
+        // Identity first, with the persisted attributes, so that the UI can list the bonded
+        // devices right away
+        final int warmStartCount = sWarmStartEnabled
+                ? mCachedDeviceManager.loadWarmStartSnapshot() : 0;
+        mEventManager.readPairedDevices(/* deferFillData= */ true);
+        Log.d(TAG, "Warm start snapshot: " + warmStartCount + " devices");
+        start = onInitStageCompleted(callback, INIT_STAGE_BONDED_DEVICES, start);
+
         mProfileManager.updateLocalProfiles();
-        mEventManager.readPairedDevices();
+        start = onInitStageCompleted(callback, INIT_STAGE_LOCAL_PROFILES, start);
+
+        // Profile services connecting meanwhile may already have grouped some devices. The fill
+        // dispatches nothing, only the devices differing from the snapshot notify below.
+        for (CachedBluetoothDevice cachedDevice : mCachedDeviceManager.getAllGroupDevices()) {
+            cachedDevice.fillDeferredData();
+        }
+        final int changedCount = mCachedDeviceManager.reconcileWarmStartSnapshot();
+        Log.d(TAG, "Warm start snapshot: " + changedCount + " devices changed");
+        start = onInitStageCompleted(callback, INIT_STAGE_DEVICE_ATTRIBUTES, start);
+
+        if (sWarmStartEnabled) {
+            mCachedDeviceManager.saveWarmStartSnapshot();
+        }
+    }
+
+    /**
+     * Sets whether {@link #getInstanceAsync} starts from the persisted attributes of the
+     * bonded devices. Enabled by default; disabling it is meant for startup time comparisons.
+     */
+    public static void setWarmStartEnabled(boolean enabled) {
+        sWarmStartEnabled = enabled;
+    }
+
+    // @return the end time of the stage, which is the start time of the next one
+    private long onInitStageCompleted(@Nullable BluetoothManagerCallback callback, int stage,
+            long start) {
+        final long end = SystemClock.elapsedRealtime();
+        final long durationMs = end - start;
+        Log.d(TAG, "Init stage " + stage + " took " + durationMs + "ms");
+        if (callback != null) {
+            ThreadUtils.postOnMainThread(() -> callback.onInitStageCompleted(stage, durationMs));
+        }
+        return end;
     }
 
     public LocalBluetoothAdapter getBluetoothAdapter() {
@@ -164,5 +288,13 @@ public class LocalBluetoothManager {
     public interface BluetoothManagerCallback {
         void onBluetoothManagerInitialized(Context appContext,
                 LocalBluetoothManager bluetoothManager);
+
+        /**
+         * Called on the main thread when a stage of {@link #getInstanceAsync} completes.
+         *
+         * @param stage one of the {@code INIT_STAGE_*} constants
+         * @param durationMs the time the stage took, in milliseconds
+         */
+        default void onInitStageCompleted(int stage, long durationMs) {}
     }
 }
@@ -79,4 +79,11 @@ public interface LocalBluetoothProfile {
     int getSummaryResourceForDevice(BluetoothDevice device);
 
     int getDrawableResource(BluetoothClass btClass);
+
+    /**
+     * Closes the profile proxy, if this profile binds one. The profile must not be used
+     * afterwards.
+     */
+    default void closeProfileProxy() {
+    }
 }
@@ -38,19 +38,26 @@ import android.bluetooth.BluetoothSap;
 import android.bluetooth.BluetoothUuid;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import androidx.annotation.VisibleForTesting;
 
-import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.CollectionUtils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 
@@ -89,6 +96,77 @@ public class LocalBluetoothProfileManager {
     private final Context mContext;
     private final CachedBluetoothDeviceManager mDeviceManager;
     private final BluetoothEventManager mEventManager;
+    private final ProfileConnectionStateCache mConnectionStateCache =
+            new ProfileConnectionStateCache();
+    private final Object mLocalProfilesLock = new Object();
+
+    /** The profile was bound when the local profiles were created. */
+    public static final int BIND_REASON_STARTUP = 0;
+    /** The profile was bound when a device advertising its UUID appeared. */
+    public static final int BIND_REASON_DEVICE_UUID = 1;
+    /** The profile was bound on its first connection state change. */
+    public static final int BIND_REASON_STATE_CHANGED = 2;
+    /** The profile was bound by {@link #acquireProfile(int)}. */
+    public static final int BIND_REASON_ACQUIRED = 3;
+
+    @VisibleForTesting
+    static final long PROFILE_IDLE_TIMEOUT_MS = 30000;
+
+    // Same order as the profiles were created in before they could be bound on demand
+    private static final int[] PROFILE_BIND_ORDER = {
+            BluetoothProfile.A2DP,
+            BluetoothProfile.A2DP_SINK,
+            BluetoothProfile.HEADSET,
+            BluetoothProfile.HEADSET_CLIENT,
+            BluetoothProfile.MAP_CLIENT,
+            BluetoothProfile.MAP,
+            BluetoothProfile.OPP,
+            BluetoothProfile.HEARING_AID,
+            BluetoothProfile.HID_HOST,
+            BluetoothProfile.HID_DEVICE,
+            BluetoothProfile.PAN,
+            BluetoothProfile.PBAP,
+            BluetoothProfile.PBAP_CLIENT,
+            BluetoothProfile.SAP,
+            BluetoothProfile.VOLUME_CONTROL,
+            BluetoothProfile.LE_AUDIO,
+            BluetoothProfile.LE_AUDIO_BROADCAST,
+            BluetoothProfile.LE_AUDIO_BROADCAST_ASSISTANT,
+            BluetoothProfile.CSIP_SET_COORDINATOR,
+    };
+
+    // Pairs of remote ProfileUuidTable bits and the profile they resolve to, see updateProfiles
+    private static final int[] UUID_BIND_TABLE = {
+            ProfileUuidTable.A2DP_SINK, BluetoothProfile.A2DP,
+            ProfileUuidTable.A2DP_SOURCE, BluetoothProfile.A2DP_SINK,
+            ProfileUuidTable.HID, BluetoothProfile.HID_HOST,
+            ProfileUuidTable.NAP, BluetoothProfile.PAN,
+            ProfileUuidTable.MAS, BluetoothProfile.MAP_CLIENT,
+            ProfileUuidTable.PBAP_PSE, BluetoothProfile.PBAP_CLIENT,
+            ProfileUuidTable.HEARING_AID, BluetoothProfile.HEARING_AID,
+            ProfileUuidTable.LE_AUDIO, BluetoothProfile.LE_AUDIO,
+            ProfileUuidTable.SAP, BluetoothProfile.SAP,
+            ProfileUuidTable.COORDINATED_SET, BluetoothProfile.CSIP_SET_COORDINATOR,
+    };
+    // Bind records kept for getProfileBindReport, the oldest are dropped first
+    private static final int MAX_BIND_RECORDS = 64;
+
+    private static volatile boolean sLazyProfileBinding;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mReleaseIdleProfilesRunnable = this::releaseIdleProfiles;
+    // Bit per BluetoothProfile id of the supported profiles not bound yet
+    private volatile long mDeferredProfiles;
+    // Guarded by mLocalProfilesLock
+    private final SparseIntArray mProfileRefCounts = new SparseIntArray();
+    // Bit per BluetoothProfile id of the profiles bound on demand, the candidates for release.
+    // Guarded by mLocalProfilesLock
+    private long mLazyBoundProfiles;
+    // Profiles handed to a device since releaseIdleProfiles scanned the device profiles,
+    // guarded by this
+    private final Set<LocalBluetoothProfile> mResolvedProfiles =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ArrayDeque<ProfileBindRecord> mBindRecords = new ArrayDeque<>();
 
     private A2dpProfile mA2dpProfile;
     private A2dpSinkProfile mA2dpSinkProfile;
@@ -134,145 +212,514 @@ public class LocalBluetoothProfileManager {
      * create profile instance according to bluetooth supported profile list
      */
     void updateLocalProfiles() {
+        // May run on the staged init thread of LocalBluetoothManager and the event thread
+        synchronized (mLocalProfilesLock) {
+            updateLocalProfilesLocked();
+        }
+    }
+
+    private void updateLocalProfilesLocked() {
         List<Integer> supportedList = BluetoothAdapter.getDefaultAdapter().getSupportedProfiles();
         if (CollectionUtils.isEmpty(supportedList)) {
             if (DEBUG) Log.d(TAG, "supportedList is null");
             return;
         }
-        if (mA2dpProfile == null && supportedList.contains(BluetoothProfile.A2DP)) {
-            if (DEBUG) Log.d(TAG, "Adding local A2DP profile");
-            mA2dpProfile = new A2dpProfile(mContext, mDeviceManager, this);
-            addProfile(mA2dpProfile, A2dpProfile.NAME,
-                    BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mA2dpSinkProfile == null && supportedList.contains(BluetoothProfile.A2DP_SINK)) {
-            if (DEBUG) Log.d(TAG, "Adding local A2DP SINK profile");
-            mA2dpSinkProfile = new A2dpSinkProfile(mContext, mDeviceManager, this);
-            addProfile(mA2dpSinkProfile, A2dpSinkProfile.NAME,
-                    BluetoothA2dpSink.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mHeadsetProfile == null && supportedList.contains(BluetoothProfile.HEADSET)) {
-            if (DEBUG) Log.d(TAG, "Adding local HEADSET profile");
-            mHeadsetProfile = new HeadsetProfile(mContext, mDeviceManager, this);
-            addHeadsetProfile(mHeadsetProfile, HeadsetProfile.NAME,
-                    BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED,
-                    BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED,
-                    BluetoothHeadset.STATE_AUDIO_DISCONNECTED);
-        }
-        if (mHfpClientProfile == null && supportedList.contains(BluetoothProfile.HEADSET_CLIENT)) {
-            if (DEBUG) Log.d(TAG, "Adding local HfpClient profile");
-            mHfpClientProfile = new HfpClientProfile(mContext, mDeviceManager, this);
-            addProfile(mHfpClientProfile, HfpClientProfile.NAME,
-                    BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mMapClientProfile == null && supportedList.contains(BluetoothProfile.MAP_CLIENT)) {
-            if (DEBUG) Log.d(TAG, "Adding local MAP CLIENT profile");
-            mMapClientProfile = new MapClientProfile(mContext, mDeviceManager,this);
-            addProfile(mMapClientProfile, MapClientProfile.NAME,
-                    BluetoothMapClient.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mMapProfile == null && supportedList.contains(BluetoothProfile.MAP)) {
-            if (DEBUG) Log.d(TAG, "Adding local MAP profile");
-            mMapProfile = new MapProfile(mContext, mDeviceManager, this);
-            addProfile(mMapProfile, MapProfile.NAME, BluetoothMap.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mOppProfile == null && supportedList.contains(BluetoothProfile.OPP)) {
-            if (DEBUG) Log.d(TAG, "Adding local OPP profile");
-            mOppProfile = new OppProfile();
-            // Note: no event handler for OPP, only name map.
-            mProfileNameMap.put(OppProfile.NAME, mOppProfile);
-        }
-        if (mHearingAidProfile == null && supportedList.contains(BluetoothProfile.HEARING_AID)) {
-            if (DEBUG) Log.d(TAG, "Adding local Hearing Aid profile");
-            mHearingAidProfile = new HearingAidProfile(mContext, mDeviceManager,
-                    this);
-            addProfile(mHearingAidProfile, HearingAidProfile.NAME,
-                    BluetoothHearingAid.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mHidProfile == null && supportedList.contains(BluetoothProfile.HID_HOST)) {
-            if (DEBUG) Log.d(TAG, "Adding local HID_HOST profile");
-            mHidProfile = new HidProfile(mContext, mDeviceManager, this);
-            addProfile(mHidProfile, HidProfile.NAME,
-                    BluetoothHidHost.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mHidDeviceProfile == null && supportedList.contains(BluetoothProfile.HID_DEVICE)) {
-            if (DEBUG) Log.d(TAG, "Adding local HID_DEVICE profile");
-            mHidDeviceProfile = new HidDeviceProfile(mContext, mDeviceManager, this);
-            addProfile(mHidDeviceProfile, HidDeviceProfile.NAME,
-                    BluetoothHidDevice.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mPanProfile == null && supportedList.contains(BluetoothProfile.PAN)) {
-            if (DEBUG) Log.d(TAG, "Adding local PAN profile");
-            mPanProfile = new PanProfile(mContext);
-            addPanProfile(mPanProfile, PanProfile.NAME,
-                    BluetoothPan.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mPbapProfile == null && supportedList.contains(BluetoothProfile.PBAP)) {
-            if (DEBUG) Log.d(TAG, "Adding local PBAP profile");
-            mPbapProfile = new PbapServerProfile(mContext);
-            addProfile(mPbapProfile, PbapServerProfile.NAME,
-                    BluetoothPbap.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mPbapClientProfile == null && supportedList.contains(BluetoothProfile.PBAP_CLIENT)) {
-            if (DEBUG) Log.d(TAG, "Adding local PBAP Client profile");
-            mPbapClientProfile = new PbapClientProfile(mContext, mDeviceManager,this);
-            addProfile(mPbapClientProfile, PbapClientProfile.NAME,
-                    BluetoothPbapClient.ACTION_CONNECTION_STATE_CHANGED);
-        }
-        if (mSapProfile == null && supportedList.contains(BluetoothProfile.SAP)) {
-            if (DEBUG) {
-                Log.d(TAG, "Adding local SAP profile");
+        final boolean lazy = sLazyProfileBinding;
+        for (int profileId : PROFILE_BIND_ORDER) {
+            if (!supportedList.contains(profileId) || getLocalProfileLocked(profileId) != null
+                    || isDeferred(profileId)) {
+                continue;
+            }
+            final String action = getStateChangedAction(profileId);
+            if (lazy && action != null) {
+                deferProfileLocked(profileId, action);
+            } else if (lazy && profileId == BluetoothProfile.LE_AUDIO_BROADCAST) {
+                // No event handler, only bound on acquireProfile()
+                mDeferredProfiles |= 1L << profileId;
+            } else {
+                bindProfileLocked(profileId, BIND_REASON_STARTUP);
             }
-            mSapProfile = new SapProfile(mContext, mDeviceManager, this);
-            addProfile(mSapProfile, SapProfile.NAME, BluetoothSap.ACTION_CONNECTION_STATE_CHANGED);
         }
-        if (mVolumeControlProfile == null
-                && supportedList.contains(BluetoothProfile.VOLUME_CONTROL)) {
-            if (DEBUG) {
-                Log.d(TAG, "Adding local Volume Control profile");
+        mEventManager.registerProfileIntentReceiver();
+    }
+
+    /**
+     * Creates the profile {@code profileId}, which binds its proxy, and registers its event
+     * handlers.
+     */
+    private void bindProfileLocked(int profileId, int reason) {
+        mDeferredProfiles &= ~(1L << profileId);
+        final long start = SystemClock.elapsedRealtime();
+        switch (profileId) {
+            case BluetoothProfile.A2DP:
+                if (DEBUG) Log.d(TAG, "Adding local A2DP profile");
+                mA2dpProfile = new A2dpProfile(mContext, mDeviceManager, this);
+                addProfile(mA2dpProfile, A2dpProfile.NAME,
+                        BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.A2DP_SINK:
+                if (DEBUG) Log.d(TAG, "Adding local A2DP SINK profile");
+                mA2dpSinkProfile = new A2dpSinkProfile(mContext, mDeviceManager, this);
+                addProfile(mA2dpSinkProfile, A2dpSinkProfile.NAME,
+                        BluetoothA2dpSink.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.HEADSET:
+                if (DEBUG) Log.d(TAG, "Adding local HEADSET profile");
+                mHeadsetProfile = new HeadsetProfile(mContext, mDeviceManager, this);
+                addHeadsetProfile(mHeadsetProfile, HeadsetProfile.NAME,
+                        BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED,
+                        BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED,
+                        BluetoothHeadset.STATE_AUDIO_DISCONNECTED);
+                break;
+            case BluetoothProfile.HEADSET_CLIENT:
+                if (DEBUG) Log.d(TAG, "Adding local HfpClient profile");
+                mHfpClientProfile = new HfpClientProfile(mContext, mDeviceManager, this);
+                addProfile(mHfpClientProfile, HfpClientProfile.NAME,
+                        BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.MAP_CLIENT:
+                if (DEBUG) Log.d(TAG, "Adding local MAP CLIENT profile");
+                mMapClientProfile = new MapClientProfile(mContext, mDeviceManager,this);
+                addProfile(mMapClientProfile, MapClientProfile.NAME,
+                        BluetoothMapClient.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.MAP:
+                if (DEBUG) Log.d(TAG, "Adding local MAP profile");
+                mMapProfile = new MapProfile(mContext, mDeviceManager, this);
+                addProfile(mMapProfile, MapProfile.NAME,
+                        BluetoothMap.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.OPP:
+                if (DEBUG) Log.d(TAG, "Adding local OPP profile");
+                mOppProfile = new OppProfile();
+                // Note: no event handler for OPP, only name map.
+                mProfileNameMap.put(OppProfile.NAME, mOppProfile);
+                break;
+            case BluetoothProfile.HEARING_AID:
+                if (DEBUG) Log.d(TAG, "Adding local Hearing Aid profile");
+                mHearingAidProfile = new HearingAidProfile(mContext, mDeviceManager,
+                        this);
+                addProfile(mHearingAidProfile, HearingAidProfile.NAME,
+                        BluetoothHearingAid.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.HID_HOST:
+                if (DEBUG) Log.d(TAG, "Adding local HID_HOST profile");
+                mHidProfile = new HidProfile(mContext, mDeviceManager, this);
+                addProfile(mHidProfile, HidProfile.NAME,
+                        BluetoothHidHost.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.HID_DEVICE:
+                if (DEBUG) Log.d(TAG, "Adding local HID_DEVICE profile");
+                mHidDeviceProfile = new HidDeviceProfile(mContext, mDeviceManager, this);
+                addProfile(mHidDeviceProfile, HidDeviceProfile.NAME,
+                        BluetoothHidDevice.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.PAN:
+                if (DEBUG) Log.d(TAG, "Adding local PAN profile");
+                mPanProfile = new PanProfile(mContext);
+                addPanProfile(mPanProfile, PanProfile.NAME,
+                        BluetoothPan.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.PBAP:
+                if (DEBUG) Log.d(TAG, "Adding local PBAP profile");
+                mPbapProfile = new PbapServerProfile(mContext);
+                addProfile(mPbapProfile, PbapServerProfile.NAME,
+                        BluetoothPbap.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.PBAP_CLIENT:
+                if (DEBUG) Log.d(TAG, "Adding local PBAP Client profile");
+                mPbapClientProfile = new PbapClientProfile(mContext, mDeviceManager,this);
+                addProfile(mPbapClientProfile, PbapClientProfile.NAME,
+                        BluetoothPbapClient.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.SAP:
+                if (DEBUG) {
+                    Log.d(TAG, "Adding local SAP profile");
+                }
+                mSapProfile = new SapProfile(mContext, mDeviceManager, this);
+                addProfile(mSapProfile, SapProfile.NAME,
+                        BluetoothSap.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.VOLUME_CONTROL:
+                if (DEBUG) {
+                    Log.d(TAG, "Adding local Volume Control profile");
+                }
+                mVolumeControlProfile = new VolumeControlProfile();
+                // Note: no event handler for VCP, only for being connectable.
+                mProfileNameMap.put(VolumeControlProfile.NAME, mVolumeControlProfile);
+                break;
+            case BluetoothProfile.LE_AUDIO:
+                if (DEBUG) {
+                    Log.d(TAG, "Adding local LE_AUDIO profile");
+                }
+                mLeAudioProfile = new LeAudioProfile(mContext, mDeviceManager, this);
+                addProfile(mLeAudioProfile, LeAudioProfile.NAME,
+                        BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.LE_AUDIO_BROADCAST:
+                if (DEBUG) {
+                    Log.d(TAG, "Adding local LE_AUDIO_BROADCAST profile");
+                }
+                mLeAudioBroadcast = new LocalBluetoothLeBroadcast(mContext);
+                // no event handler for the LE boradcast.
+                mProfileNameMap.put(LocalBluetoothLeBroadcast.NAME, mLeAudioBroadcast);
+                break;
+            case BluetoothProfile.LE_AUDIO_BROADCAST_ASSISTANT:
+                if (DEBUG) {
+                    Log.d(TAG, "Adding local LE_AUDIO_BROADCAST_ASSISTANT profile");
+                }
+                mLeAudioBroadcastAssistant = new LocalBluetoothLeBroadcastAssistant(mContext,
+                        mDeviceManager, this);
+                addProfile(mLeAudioBroadcastAssistant, LocalBluetoothLeBroadcast.NAME,
+                        BluetoothLeBroadcastAssistant.ACTION_CONNECTION_STATE_CHANGED);
+                break;
+            case BluetoothProfile.CSIP_SET_COORDINATOR:
+                if (DEBUG) {
+                    Log.d(TAG, "Adding local CSIP set coordinator profile");
+                }
+                mCsipSetCoordinatorProfile =
+                        new CsipSetCoordinatorProfile(mContext, mDeviceManager, this);
+                addProfile(mCsipSetCoordinatorProfile, mCsipSetCoordinatorProfile.NAME,
+                        BluetoothCsipSetCoordinator.ACTION_CSIS_CONNECTION_STATE_CHANGED);
+                break;
+            default:
+                return;
+        }
+        final long durationMs = SystemClock.elapsedRealtime() - start;
+        if (mBindRecords.size() >= MAX_BIND_RECORDS) {
+            mBindRecords.pollFirst();
+        }
+        mBindRecords.addLast(new ProfileBindRecord(profileId, reason, start, durationMs));
+        if (reason != BIND_REASON_STARTUP) {
+            Log.d(TAG, "Bound profile " + profileId + " (reason " + reason + ") in "
+                    + durationMs + "ms");
+            mLazyBoundProfiles |= 1L << profileId;
+            scheduleIdleProfilesRelease();
+        }
+    }
+
+    private LocalBluetoothProfile getLocalProfileLocked(int profileId) {
+        switch (profileId) {
+            case BluetoothProfile.A2DP: return mA2dpProfile;
+            case BluetoothProfile.A2DP_SINK: return mA2dpSinkProfile;
+            case BluetoothProfile.HEADSET: return mHeadsetProfile;
+            case BluetoothProfile.HEADSET_CLIENT: return mHfpClientProfile;
+            case BluetoothProfile.MAP_CLIENT: return mMapClientProfile;
+            case BluetoothProfile.MAP: return mMapProfile;
+            case BluetoothProfile.OPP: return mOppProfile;
+            case BluetoothProfile.HEARING_AID: return mHearingAidProfile;
+            case BluetoothProfile.HID_HOST: return mHidProfile;
+            case BluetoothProfile.HID_DEVICE: return mHidDeviceProfile;
+            case BluetoothProfile.PAN: return mPanProfile;
+            case BluetoothProfile.PBAP: return mPbapProfile;
+            case BluetoothProfile.PBAP_CLIENT: return mPbapClientProfile;
+            case BluetoothProfile.SAP: return mSapProfile;
+            case BluetoothProfile.VOLUME_CONTROL: return mVolumeControlProfile;
+            case BluetoothProfile.LE_AUDIO: return mLeAudioProfile;
+            case BluetoothProfile.LE_AUDIO_BROADCAST: return mLeAudioBroadcast;
+            case BluetoothProfile.LE_AUDIO_BROADCAST_ASSISTANT: return mLeAudioBroadcastAssistant;
+            case BluetoothProfile.CSIP_SET_COORDINATOR: return mCsipSetCoordinatorProfile;
+            default: return null;
+        }
+    }
+
+    // @return the connection state changed action of a profile bound with a proxy, or null
+    private static String getStateChangedAction(int profileId) {
+        switch (profileId) {
+            case BluetoothProfile.A2DP: return BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.A2DP_SINK:
+                return BluetoothA2dpSink.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.HEADSET: return BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.HEADSET_CLIENT:
+                return BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.MAP_CLIENT:
+                return BluetoothMapClient.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.MAP: return BluetoothMap.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.HEARING_AID:
+                return BluetoothHearingAid.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.HID_HOST: return BluetoothHidHost.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.HID_DEVICE:
+                return BluetoothHidDevice.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.PAN: return BluetoothPan.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.PBAP: return BluetoothPbap.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.PBAP_CLIENT:
+                return BluetoothPbapClient.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.SAP: return BluetoothSap.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.LE_AUDIO:
+                return BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.LE_AUDIO_BROADCAST_ASSISTANT:
+                return BluetoothLeBroadcastAssistant.ACTION_CONNECTION_STATE_CHANGED;
+            case BluetoothProfile.CSIP_SET_COORDINATOR:
+                return BluetoothCsipSetCoordinator.ACTION_CSIS_CONNECTION_STATE_CHANGED;
+            default: return null;
+        }
+    }
+
+    /**
+     * Sets whether profile proxies are bound on demand. When enabled, a supported profile is
+     * only bound once a device advertising its UUID appears, its connection state changes, or
+     * it is requested with {@link #acquireProfile(int)}; until then its getter returns null.
+     * Profiles that are no longer acquired nor used by any device are released after
+     * {@link #PROFILE_IDLE_TIMEOUT_MS}. Disabled by default, must be set before
+     * {@link LocalBluetoothManager} is created.
+     */
+    public static void setLazyProfileBinding(boolean enabled) {
+        sLazyProfileBinding = enabled;
+    }
+
+    private boolean isDeferred(int profileId) {
+        return (mDeferredProfiles & (1L << profileId)) != 0;
+    }
+
+    // Binds the profile on its first connection state change
+    private void deferProfileLocked(int profileId, String action) {
+        mDeferredProfiles |= 1L << profileId;
+        mEventManager.addProfileHandler(action, new LazyBindHandler(profileId, action));
+        if (profileId == BluetoothProfile.HEADSET) {
+            // Registered up front so that binding does not change the intent filter
+            mEventManager.addProfileHandler(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED,
+                    new LazyBindHandler(profileId, BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED));
+        }
+    }
+
+    /**
+     * Binds {@code profileId} if it is supported and not bound yet.
+     */
+    private void bindIfDeferred(int profileId, int reason) {
+        if (!isDeferred(profileId)) {
+            return;
+        }
+        synchronized (mLocalProfilesLock) {
+            if (isDeferred(profileId)) {
+                bindProfileLocked(profileId, reason);
             }
-            mVolumeControlProfile = new VolumeControlProfile();
-            // Note: no event handler for VCP, only for being connectable.
-            mProfileNameMap.put(VolumeControlProfile.NAME, mVolumeControlProfile);
         }
-        if (mLeAudioProfile == null && supportedList.contains(BluetoothProfile.LE_AUDIO)) {
-            if (DEBUG) {
-                Log.d(TAG, "Adding local LE_AUDIO profile");
+    }
+
+    // Binds the deferred profiles that a device with these UUIDs resolves to
+    private void bindProfilesForUuids(int uuidMask, int localUuidMask) {
+        if (hasAny(uuidMask, ProfileUuidTable.HSP | ProfileUuidTable.HFP)) {
+            bindIfDeferred(BluetoothProfile.HEADSET, BIND_REASON_DEVICE_UUID);
+        }
+        if (hasAny(uuidMask, ProfileUuidTable.HFP_AG)
+                && hasAny(localUuidMask, ProfileUuidTable.HFP)) {
+            bindIfDeferred(BluetoothProfile.HEADSET_CLIENT, BIND_REASON_DEVICE_UUID);
+        }
+        for (int i = 0; i < UUID_BIND_TABLE.length; i += 2) {
+            if (hasAny(uuidMask, UUID_BIND_TABLE[i])) {
+                bindIfDeferred(UUID_BIND_TABLE[i + 1], BIND_REASON_DEVICE_UUID);
             }
-            mLeAudioProfile = new LeAudioProfile(mContext, mDeviceManager, this);
-            addProfile(mLeAudioProfile, LeAudioProfile.NAME,
-                    BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED);
         }
-        if (mLeAudioBroadcast == null
-                && supportedList.contains(BluetoothProfile.LE_AUDIO_BROADCAST)) {
-            if (DEBUG) {
-                Log.d(TAG, "Adding local LE_AUDIO_BROADCAST profile");
+    }
+
+    /**
+     * Binds {@code profileId} if needed and keeps it bound until the matching
+     * {@link #releaseProfile(int)}.
+     *
+     * @return the profile, or null if it is not supported
+     */
+    public LocalBluetoothProfile acquireProfile(int profileId) {
+        bindIfDeferred(profileId, BIND_REASON_ACQUIRED);
+        synchronized (mLocalProfilesLock) {
+            final LocalBluetoothProfile profile = getLocalProfileLocked(profileId);
+            if (profile != null) {
+                mProfileRefCounts.put(profileId, mProfileRefCounts.get(profileId) + 1);
             }
-            mLeAudioBroadcast = new LocalBluetoothLeBroadcast(mContext);
-            // no event handler for the LE boradcast.
-            mProfileNameMap.put(LocalBluetoothLeBroadcast.NAME, mLeAudioBroadcast);
+            return profile;
         }
-        if (mLeAudioBroadcastAssistant == null
-                && supportedList.contains(BluetoothProfile.LE_AUDIO_BROADCAST_ASSISTANT)) {
-            if (DEBUG) {
-                Log.d(TAG, "Adding local LE_AUDIO_BROADCAST_ASSISTANT profile");
+    }
+
+    /**
+     * Releases a profile acquired with {@link #acquireProfile(int)}. In lazy binding mode, the
+     * proxy is closed once the profile has been idle for {@link #PROFILE_IDLE_TIMEOUT_MS}.
+     */
+    public void releaseProfile(int profileId) {
+        synchronized (mLocalProfilesLock) {
+            final int refCount = mProfileRefCounts.get(profileId);
+            if (refCount <= 0) {
+                Log.w(TAG, "releaseProfile() without acquireProfile(): " + profileId);
+                return;
+            }
+            mProfileRefCounts.put(profileId, refCount - 1);
+            if (refCount > 1 || !sLazyProfileBinding) {
+                return;
             }
-            mLeAudioBroadcastAssistant = new LocalBluetoothLeBroadcastAssistant(mContext,
-                    mDeviceManager, this);
-            addProfile(mLeAudioBroadcastAssistant, LocalBluetoothLeBroadcast.NAME,
-                    BluetoothLeBroadcastAssistant.ACTION_CONNECTION_STATE_CHANGED);
         }
-        if (mCsipSetCoordinatorProfile == null
-                && supportedList.contains(BluetoothProfile.CSIP_SET_COORDINATOR)) {
-            if (DEBUG) {
-                Log.d(TAG, "Adding local CSIP set coordinator profile");
+        scheduleIdleProfilesRelease();
+    }
+
+    private void scheduleIdleProfilesRelease() {
+        mMainHandler.removeCallbacks(mReleaseIdleProfilesRunnable);
+        mMainHandler.postDelayed(mReleaseIdleProfilesRunnable, PROFILE_IDLE_TIMEOUT_MS);
+    }
+
+    // Runs on the main thread, and again while a profile bound on demand is still in use
+    private void releaseIdleProfiles() {
+        synchronized (this) {
+            mResolvedProfiles.clear();
+        }
+        // Read outside of the lock, the device manager lock must not be taken under it
+        final Set<LocalBluetoothProfile> usedProfiles =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CachedBluetoothDevice device : mDeviceManager.getAllGroupDevices()) {
+            usedProfiles.addAll(device.getProfiles());
+        }
+        final List<LocalBluetoothProfile> released = new ArrayList<>();
+        final boolean stillBound;
+        synchronized (mLocalProfilesLock) {
+            // Devices resolve their profiles in updateProfiles while holding this monitor, so no
+            // device can pick up a profile between the check below and the unbinding
+            synchronized (this) {
+                for (int profileId = 0; profileId < Long.SIZE; profileId++) {
+                    if ((mLazyBoundProfiles & (1L << profileId)) == 0) {
+                        continue;
+                    }
+                    final LocalBluetoothProfile profile = getLocalProfileLocked(profileId);
+                    if (profile == null) {
+                        mLazyBoundProfiles &= ~(1L << profileId);
+                        continue;
+                    }
+                    if (mProfileRefCounts.get(profileId) > 0
+                            || usedProfiles.contains(profile)
+                            || mResolvedProfiles.contains(profile)) {
+                        continue;
+                    }
+                    if (unbindProfileLocked(profileId, profile)) {
+                        released.add(profile);
+                    }
+                }
+            }
+            stillBound = mLazyBoundProfiles != 0;
+        }
+        for (LocalBluetoothProfile profile : released) {
+            Log.d(TAG, "Released idle profile " + profile);
+            profile.closeProfileProxy();
+        }
+        if (stillBound) {
+            scheduleIdleProfilesRelease();
+        }
+    }
+
+    // @return whether the profile was released, which it never is without a proxy
+    private boolean unbindProfileLocked(int profileId, LocalBluetoothProfile profile) {
+        switch (profileId) {
+            case BluetoothProfile.A2DP: mA2dpProfile = null; break;
+            case BluetoothProfile.A2DP_SINK: mA2dpSinkProfile = null; break;
+            case BluetoothProfile.HEADSET: mHeadsetProfile = null; break;
+            case BluetoothProfile.HEADSET_CLIENT: mHfpClientProfile = null; break;
+            case BluetoothProfile.MAP_CLIENT: mMapClientProfile = null; break;
+            case BluetoothProfile.MAP: mMapProfile = null; break;
+            case BluetoothProfile.HEARING_AID: mHearingAidProfile = null; break;
+            case BluetoothProfile.HID_HOST: mHidProfile = null; break;
+            case BluetoothProfile.HID_DEVICE: mHidDeviceProfile = null; break;
+            case BluetoothProfile.PAN: mPanProfile = null; break;
+            case BluetoothProfile.PBAP: mPbapProfile = null; break;
+            case BluetoothProfile.PBAP_CLIENT: mPbapClientProfile = null; break;
+            case BluetoothProfile.SAP: mSapProfile = null; break;
+            case BluetoothProfile.LE_AUDIO: mLeAudioProfile = null; break;
+            case BluetoothProfile.LE_AUDIO_BROADCAST: mLeAudioBroadcast = null; break;
+            case BluetoothProfile.LE_AUDIO_BROADCAST_ASSISTANT:
+                mLeAudioBroadcastAssistant = null;
+                break;
+            case BluetoothProfile.CSIP_SET_COORDINATOR: mCsipSetCoordinatorProfile = null; break;
+            default:
+                // Profiles without a proxy are never released
+                mLazyBoundProfiles &= ~(1L << profileId);
+                return false;
+        }
+        mLazyBoundProfiles &= ~(1L << profileId);
+        mProfileNameMap.values().remove(profile);
+        // The released profile object is never seeded again, a rebind creates a new one
+        mConnectionStateCache.untrack(profile);
+        for (ProfileBindRecord record : mBindRecords) {
+            if (record.mProfileId == profileId && record.mReleasedMs == 0) {
+                record.mReleasedMs = SystemClock.elapsedRealtime();
+            }
+        }
+        final String action = getStateChangedAction(profileId);
+        if (action != null) {
+            deferProfileLocked(profileId, action);
+        } else {
+            mDeferredProfiles |= 1L << profileId;
+        }
+        return true;
+    }
+
+    /**
+     * @return a record of the last {@value #MAX_BIND_RECORDS} profile bindings, in the order the
+     *         profiles were bound
+     */
+    public List<ProfileBindRecord> getProfileBindReport() {
+        synchronized (mLocalProfilesLock) {
+            return new ArrayList<>(mBindRecords);
+        }
+    }
+
+    /**
+     * Binding of one profile proxy, see {@link #getProfileBindReport()}.
+     */
+    public static final class ProfileBindRecord {
+        final int mProfileId;
+        final int mReason;
+        final long mBoundMs;
+        final long mBindDurationMs;
+        // Elapsed realtime the profile was released at, 0 while it is bound
+        volatile long mReleasedMs;
+
+        ProfileBindRecord(int profileId, int reason, long boundMs, long bindDurationMs) {
+            mProfileId = profileId;
+            mReason = reason;
+            mBoundMs = boundMs;
+            mBindDurationMs = bindDurationMs;
+        }
+
+        /** @return the {@link BluetoothProfile} id of the profile */
+        public int getProfileId() {
+            return mProfileId;
+        }
+
+        /** @return one of the {@code BIND_REASON_*} constants */
+        public int getReason() {
+            return mReason;
+        }
+
+        /** @return the time spent creating the profile and requesting its proxy */
+        public long getBindDurationMs() {
+            return mBindDurationMs;
+        }
+
+        public boolean isBound() {
+            return mReleasedMs == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "ProfileBindRecord[profile=" + mProfileId + " reason=" + mReason
+                    + " bindDurationMs=" + mBindDurationMs + " boundMs=" + mBoundMs
+                    + " releasedMs=" + mReleasedMs + "]";
+        }
+    }
+
+    /**
+     * Placeholder handler of a deferred profile, which binds it on its first connection state
+     * change and hands the event to the handler the profile registers.
+     */
+    private class LazyBindHandler implements BluetoothEventManager.Handler {
+        private final int mProfileId;
+        private final String mAction;
+
+        LazyBindHandler(int profileId, String action) {
+            mProfileId = profileId;
+            mAction = action;
+        }
+
+        public void onReceive(Context context, Intent intent, BluetoothDevice device) {
+            bindIfDeferred(mProfileId, BIND_REASON_STATE_CHANGED);
+            final BluetoothEventManager.Handler handler = mEventManager.getProfileHandler(mAction);
+            if (handler != null && handler != this) {
+                handler.onReceive(context, intent, device);
             }
-            mCsipSetCoordinatorProfile =
-                    new CsipSetCoordinatorProfile(mContext, mDeviceManager, this);
-            addProfile(mCsipSetCoordinatorProfile, mCsipSetCoordinatorProfile.NAME,
-                    BluetoothCsipSetCoordinator.ACTION_CSIS_CONNECTION_STATE_CHANGED);
         }
-        mEventManager.registerProfileIntentReceiver();
     }
 
     private void addHeadsetProfile(LocalBluetoothProfile profile, String profileName,
@@ -306,6 +753,8 @@ public class LocalBluetoothProfileManager {
 
     // Called from LocalBluetoothAdapter when state changes to ON
     void setBluetoothStateOn() {
+        // States cached before the adapter restarted are stale, profiles reseed on connect
+        mConnectionStateCache.invalidateAll();
         updateLocalProfiles();
         mEventManager.readPairedDevices();
     }
@@ -336,6 +785,8 @@ public class LocalBluetoothProfileManager {
                     oldState == BluetoothProfile.STATE_CONNECTING) {
                 Log.i(TAG, "Failed to connect " + mProfile + " device");
             }
+            mConnectionStateCache.onConnectionStateChanged(mProfile, cachedDevice.getDevice(),
+                    newState);
 
             if (getHearingAidProfile() != null &&
                 mProfile instanceof HearingAidProfile &&
@@ -441,6 +892,38 @@ public class LocalBluetoothProfileManager {
         mServiceListeners.remove(l);
     }
 
+    /**
+     * Starts caching the connection states of {@code profile} when its service connects.
+     *
+     * @param connectedDevices the connected devices reported by the service
+     */
+    void onProfileServiceConnected(LocalBluetoothProfile profile,
+            List<BluetoothDevice> connectedDevices) {
+        mConnectionStateCache.seed(profile, connectedDevices);
+    }
+
+    /**
+     * Drops the cached connection states of {@code profile} when its service disconnects.
+     */
+    void onProfileServiceDisconnected(LocalBluetoothProfile profile) {
+        mConnectionStateCache.invalidate(profile);
+    }
+
+    /**
+     * @return the connection state of {@code device} for {@code profile}, read from the state
+     * cache when the profile's state changes are tracked
+     */
+    int getConnectionStatus(LocalBluetoothProfile profile, BluetoothDevice device) {
+        return mConnectionStateCache.getConnectionStatus(profile, device);
+    }
+
+    /**
+     * @return the per profile connection state cache
+     */
+    public ProfileConnectionStateCache getConnectionStateCache() {
+        return mConnectionStateCache;
+    }
+
     // not synchronized: use only from UI thread! (TODO: verify)
     void callServiceConnectedListeners() {
         final Collection<ServiceListener> listeners = new ArrayList<>(mServiceListeners);
@@ -555,135 +1038,140 @@ public class LocalBluetoothProfileManager {
      * Fill in a list of LocalBluetoothProfile objects that are supported by
      * the local device and the remote device.
      *
-     * @param uuids of the remote device
-     * @param localUuids UUIDs of the local device
+     * @param uuidMask {@link ProfileUuidTable} bits of the remote device UUIDs
+     * @param localUuidMask {@link ProfileUuidTable} bits of the local device UUIDs
      * @param profiles The list of profiles to fill
      * @param removedProfiles list of profiles that were removed
      */
-    synchronized void updateProfiles(ParcelUuid[] uuids, ParcelUuid[] localUuids,
+    void updateProfiles(int uuidMask, int localUuidMask,
             Collection<LocalBluetoothProfile> profiles,
             Collection<LocalBluetoothProfile> removedProfiles,
             boolean isPanNapConnected, BluetoothDevice device) {
-        // Copy previous profile list into removedProfiles
-        removedProfiles.clear();
-        removedProfiles.addAll(profiles);
-        if (DEBUG) {
-            Log.d(TAG,"Current Profiles" + profiles.toString());
+        if (mDeferredProfiles != 0) {
+            bindProfilesForUuids(uuidMask, localUuidMask);
         }
-        profiles.clear();
+        // Profiles without remote UUIDs are resolved from their connection state, which may need
+        // a binder call, so it is read before taking the lock
+        final boolean hidDeviceConnected = mHidDeviceProfile != null
+                && getConnectionStatus(mHidDeviceProfile, device)
+                        != BluetoothProfile.STATE_DISCONNECTED;
+        final boolean mapConnected = mMapProfile != null
+                && getConnectionStatus(mMapProfile, device) == BluetoothProfile.STATE_CONNECTED;
+        final boolean pbapConnected = mPbapProfile != null
+                && getConnectionStatus(mPbapProfile, device) == BluetoothProfile.STATE_CONNECTED;
+
+        synchronized (this) {
+            // Copy previous profile list into removedProfiles
+            removedProfiles.clear();
+            removedProfiles.addAll(profiles);
+            if (DEBUG) {
+                Log.d(TAG,"Current Profiles" + profiles.toString());
+            }
+            profiles.clear();
+
+            if (mHeadsetProfile != null) {
+                if ((hasAny(localUuidMask, ProfileUuidTable.HSP_AG)
+                        && hasAny(uuidMask, ProfileUuidTable.HSP))
+                        || (hasAny(localUuidMask, ProfileUuidTable.HFP_AG)
+                        && hasAny(uuidMask, ProfileUuidTable.HFP))) {
+                    addResolvedProfile(mHeadsetProfile, profiles, removedProfiles);
+                }
+            }
 
-        if (uuids == null) {
-            return;
-        }
+            if (mHfpClientProfile != null && hasAny(uuidMask, ProfileUuidTable.HFP_AG)
+                    && hasAny(localUuidMask, ProfileUuidTable.HFP)) {
+                addResolvedProfile(mHfpClientProfile, profiles, removedProfiles);
+            }
 
-        if (mHeadsetProfile != null) {
-            if ((ArrayUtils.contains(localUuids, BluetoothUuid.HSP_AG)
-                    && ArrayUtils.contains(uuids, BluetoothUuid.HSP))
-                    || (ArrayUtils.contains(localUuids, BluetoothUuid.HFP_AG)
-                    && ArrayUtils.contains(uuids, BluetoothUuid.HFP))) {
-                profiles.add(mHeadsetProfile);
-                removedProfiles.remove(mHeadsetProfile);
+            if (mA2dpProfile != null && hasAny(uuidMask, ProfileUuidTable.A2DP_SINK)) {
+                addResolvedProfile(mA2dpProfile, profiles, removedProfiles);
             }
-        }
 
-        if ((mHfpClientProfile != null) &&
-                ArrayUtils.contains(uuids, BluetoothUuid.HFP_AG)
-                && ArrayUtils.contains(localUuids, BluetoothUuid.HFP)) {
-            profiles.add(mHfpClientProfile);
-            removedProfiles.remove(mHfpClientProfile);
-        }
+            if (mA2dpSinkProfile != null && hasAny(uuidMask, ProfileUuidTable.A2DP_SOURCE)) {
+                addResolvedProfile(mA2dpSinkProfile, profiles, removedProfiles);
+            }
 
-        if (BluetoothUuid.containsAnyUuid(uuids, A2dpProfile.SINK_UUIDS) && mA2dpProfile != null) {
-            profiles.add(mA2dpProfile);
-            removedProfiles.remove(mA2dpProfile);
-        }
+            if (mOppProfile != null && hasAny(uuidMask, ProfileUuidTable.OBEX_OBJECT_PUSH)) {
+                addResolvedProfile(mOppProfile, profiles, removedProfiles);
+            }
 
-        if (BluetoothUuid.containsAnyUuid(uuids, A2dpSinkProfile.SRC_UUIDS)
-                && mA2dpSinkProfile != null) {
-                profiles.add(mA2dpSinkProfile);
-                removedProfiles.remove(mA2dpSinkProfile);
-        }
+            if (mHidProfile != null && hasAny(uuidMask, ProfileUuidTable.HID)) {
+                addResolvedProfile(mHidProfile, profiles, removedProfiles);
+            }
 
-        if (ArrayUtils.contains(uuids, BluetoothUuid.OBEX_OBJECT_PUSH) && mOppProfile != null) {
-            profiles.add(mOppProfile);
-            removedProfiles.remove(mOppProfile);
-        }
+            if (hidDeviceConnected) {
+                addResolvedProfile(mHidDeviceProfile, profiles, removedProfiles);
+            }
 
-        if ((ArrayUtils.contains(uuids, BluetoothUuid.HID)
-                || ArrayUtils.contains(uuids, BluetoothUuid.HOGP)) && mHidProfile != null) {
-            profiles.add(mHidProfile);
-            removedProfiles.remove(mHidProfile);
-        }
+            if(isPanNapConnected)
+                if(DEBUG) Log.d(TAG, "Valid PAN-NAP connection exists.");
+            if ((hasAny(uuidMask, ProfileUuidTable.NAP) && mPanProfile != null)
+                    || isPanNapConnected) {
+                addResolvedProfile(mPanProfile, profiles, removedProfiles);
+            }
 
-        if (mHidDeviceProfile != null && mHidDeviceProfile.getConnectionStatus(device)
-                != BluetoothProfile.STATE_DISCONNECTED) {
-            profiles.add(mHidDeviceProfile);
-            removedProfiles.remove(mHidDeviceProfile);
-        }
+            if (mapConnected) {
+                addResolvedProfile(mMapProfile, profiles, removedProfiles);
+            }
 
-        if(isPanNapConnected)
-            if(DEBUG) Log.d(TAG, "Valid PAN-NAP connection exists.");
-        if ((ArrayUtils.contains(uuids, BluetoothUuid.NAP) && mPanProfile != null)
-                || isPanNapConnected) {
-            profiles.add(mPanProfile);
-            removedProfiles.remove(mPanProfile);
-        }
+            if (pbapConnected) {
+                addResolvedProfile(mPbapProfile, profiles, removedProfiles);
+            }
 
-        if ((mMapProfile != null) &&
-            (mMapProfile.getConnectionStatus(device) == BluetoothProfile.STATE_CONNECTED)) {
-            profiles.add(mMapProfile);
-            removedProfiles.remove(mMapProfile);
-            mMapProfile.setEnabled(device, true);
-        }
+            if (mMapClientProfile != null && hasAny(uuidMask, ProfileUuidTable.MAS)) {
+                addResolvedProfile(mMapClientProfile, profiles, removedProfiles);
+            }
 
-        if ((mPbapProfile != null) &&
-            (mPbapProfile.getConnectionStatus(device) == BluetoothProfile.STATE_CONNECTED)) {
-            profiles.add(mPbapProfile);
-            removedProfiles.remove(mPbapProfile);
-            mPbapProfile.setEnabled(device, true);
-        }
+            if (mPbapClientProfile != null && hasAny(uuidMask, ProfileUuidTable.PBAP_PSE)) {
+                addResolvedProfile(mPbapClientProfile, profiles, removedProfiles);
+            }
 
-        if ((mMapClientProfile != null)
-                && BluetoothUuid.containsAnyUuid(uuids, MapClientProfile.UUIDS)) {
-            profiles.add(mMapClientProfile);
-            removedProfiles.remove(mMapClientProfile);
-        }
+            if (mHearingAidProfile != null && hasAny(uuidMask, ProfileUuidTable.HEARING_AID)) {
+                addResolvedProfile(mHearingAidProfile, profiles, removedProfiles);
+            }
 
-        if ((mPbapClientProfile != null)
-                && BluetoothUuid.containsAnyUuid(uuids, PbapClientProfile.SRC_UUIDS)) {
-            profiles.add(mPbapClientProfile);
-            removedProfiles.remove(mPbapClientProfile);
-        }
+            if (mLeAudioProfile != null && hasAny(uuidMask, ProfileUuidTable.LE_AUDIO)) {
+                addResolvedProfile(mLeAudioProfile, profiles, removedProfiles);
+            }
 
-        if (ArrayUtils.contains(uuids, BluetoothUuid.HEARING_AID) && mHearingAidProfile != null) {
-            profiles.add(mHearingAidProfile);
-            removedProfiles.remove(mHearingAidProfile);
-        }
+            if (mSapProfile != null && hasAny(uuidMask, ProfileUuidTable.SAP)) {
+                addResolvedProfile(mSapProfile, profiles, removedProfiles);
+            }
 
-        if (ArrayUtils.contains(uuids, BluetoothUuid.LE_AUDIO) && mLeAudioProfile != null) {
-            profiles.add(mLeAudioProfile);
-            removedProfiles.remove(mLeAudioProfile);
-        }
+            if (mVolumeControlProfile != null
+                    && hasAny(uuidMask, ProfileUuidTable.VOLUME_CONTROL)) {
+                addResolvedProfile(mVolumeControlProfile, profiles, removedProfiles);
+            }
 
-        if (mSapProfile != null && ArrayUtils.contains(uuids, BluetoothUuid.SAP)) {
-            profiles.add(mSapProfile);
-            removedProfiles.remove(mSapProfile);
-        }
+            if (mCsipSetCoordinatorProfile != null
+                    && hasAny(uuidMask, ProfileUuidTable.COORDINATED_SET)) {
+                addResolvedProfile(mCsipSetCoordinatorProfile, profiles, removedProfiles);
+            }
 
-        if (mVolumeControlProfile != null
-                && ArrayUtils.contains(uuids, BluetoothUuid.VOLUME_CONTROL)) {
-            profiles.add(mVolumeControlProfile);
-            removedProfiles.remove(mVolumeControlProfile);
+            if (DEBUG) {
+                Log.d(TAG,"New Profiles" + profiles.toString());
+            }
+            if (sLazyProfileBinding) {
+                mResolvedProfiles.addAll(profiles);
+            }
         }
 
-        if (mCsipSetCoordinatorProfile != null
-                && ArrayUtils.contains(uuids, BluetoothUuid.COORDINATED_SET)) {
-            profiles.add(mCsipSetCoordinatorProfile);
-            removedProfiles.remove(mCsipSetCoordinatorProfile);
+        if (mapConnected) {
+            mMapProfile.setEnabled(device, true);
         }
-
-        if (DEBUG) {
-            Log.d(TAG,"New Profiles" + profiles.toString());
+        if (pbapConnected) {
+            mPbapProfile.setEnabled(device, true);
         }
     }
+
+    private static boolean hasAny(int mask, int bits) {
+        return (mask & bits) != 0;
+    }
+
+    private static void addResolvedProfile(LocalBluetoothProfile profile,
+            Collection<LocalBluetoothProfile> profiles,
+            Collection<LocalBluetoothProfile> removedProfiles) {
+        profiles.add(profile);
+        removedProfiles.remove(profile);
+    }
 }
@@ -80,7 +80,8 @@ public final class PbapClientProfile implements LocalBluetoothProfile {
     }
 
     private void refreshProfiles() {
-        Collection<CachedBluetoothDevice> cachedDevices = mDeviceManager.getCachedDevicesCopy();
+        Collection<CachedBluetoothDevice> cachedDevices =
+                mDeviceManager.getCachedDevicesSnapshot().getDevices();
         for (CachedBluetoothDevice device : cachedDevices) {
             device.onUuidChanged();
         }
@@ -188,6 +189,11 @@ public final class PbapClientProfile implements LocalBluetoothProfile {
 
     protected void finalize() {
         Log.d(TAG, "finalize()");
+        closeProfileProxy();
+    }
+
+    @Override
+    public void closeProfileProxy() {
         if (mService != null) {
             try {
                 BluetoothAdapter.getDefaultAdapter().closeProfileProxy(
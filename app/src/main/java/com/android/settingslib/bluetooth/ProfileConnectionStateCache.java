@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ProfileConnectionStateCache keeps the connection state of each device for the profiles that
+ * report their service connection and disconnection to {@link LocalBluetoothProfileManager}, so
+ * that reading a state does not need a binder call to the profile service. The states of other
+ * profiles are always read from their service.
+ *
+ * <p>A profile table is created and seeded when its service connects, is emptied when the
+ * service disconnects and is dropped when the profile is released. After an invalidation, a
+ * missing entry is read from the service once and kept until the next seed. In consistency check
+ * mode every cached read is compared with the service and the live state is returned.
+ */
+public final class ProfileConnectionStateCache {
+    private static final String TAG = "ProfileConnStateCache";
+
+    private final Map<LocalBluetoothProfile, ProfileTable> mTables = new ConcurrentHashMap<>();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mCheckCount = new AtomicLong();
+    private final AtomicLong mDivergenceCount = new AtomicLong();
+
+    private volatile boolean mCheckEnabled;
+
+    /**
+     * Starts caching the states of {@code profile}, merging in {@code connectedDevices}, the
+     * connected devices reported by its service that just connected. The states already known,
+     * from state changes or service reads since the last invalidation, are kept as they are not
+     * older than this list. Devices without a state are then read as disconnected until their
+     * next state change. Its state changes must then be reported through
+     * {@link #onConnectionStateChanged}.
+     */
+    void seed(LocalBluetoothProfile profile, List<BluetoothDevice> connectedDevices) {
+        final ProfileTable table = mTables.computeIfAbsent(profile, p -> new ProfileTable());
+        for (BluetoothDevice device : connectedDevices) {
+            table.mStates.putIfAbsent(device.getAddress(), BluetoothProfile.STATE_CONNECTED);
+        }
+        table.mSeeded = true;
+    }
+
+    /**
+     * Forgets the states of {@code profile}, e.g. when its service disconnects.
+     */
+    void invalidate(LocalBluetoothProfile profile) {
+        final ProfileTable table = mTables.get(profile);
+        if (table != null) {
+            table.mSeeded = false;
+            table.mStates.clear();
+        }
+    }
+
+    /**
+     * Drops the table of {@code profile}, e.g. when the profile is released, so that neither the
+     * profile nor its states are retained.
+     */
+    void untrack(LocalBluetoothProfile profile) {
+        mTables.remove(profile);
+    }
+
+    /**
+     * Forgets the states of all profiles.
+     */
+    void invalidateAll() {
+        for (ProfileTable table : mTables.values()) {
+            table.mSeeded = false;
+            table.mStates.clear();
+        }
+    }
+
+    void onConnectionStateChanged(LocalBluetoothProfile profile, BluetoothDevice device,
+            int state) {
+        final ProfileTable table = mTables.get(profile);
+        if (table != null) {
+            table.mStates.put(device.getAddress(), state);
+        }
+    }
+
+    /**
+     * @return the connection state of {@code device} for {@code profile}
+     */
+    int getConnectionStatus(LocalBluetoothProfile profile, BluetoothDevice device) {
+        final ProfileTable table = mTables.get(profile);
+        if (table == null || !profile.isProfileReady()) {
+            return profile.getConnectionStatus(device);
+        }
+        final Integer cached = table.mStates.get(device.getAddress());
+        if (cached == null && !table.mSeeded) {
+            mMissCount.incrementAndGet();
+            final int state = profile.getConnectionStatus(device);
+            final Integer raced = table.mStates.putIfAbsent(device.getAddress(), state);
+            return raced != null ? raced : state;
+        }
+
+        mHitCount.incrementAndGet();
+        final int state = cached != null ? cached : BluetoothProfile.STATE_DISCONNECTED;
+        if (!mCheckEnabled) {
+            return state;
+        }
+        mCheckCount.incrementAndGet();
+        final int liveState = profile.getConnectionStatus(device);
+        if (liveState != state) {
+            mDivergenceCount.incrementAndGet();
+            Log.w(TAG, "Cached state " + state + " of " + profile + " differs from "
+                    + liveState + " for " + device);
+            table.mStates.put(device.getAddress(), liveState);
+        }
+        return liveState;
+    }
+
+    /**
+     * Enables the consistency check mode, in which each cached read is verified against the
+     * profile service and divergences are counted.
+     */
+    public void setConsistencyCheckEnabled(boolean enabled) {
+        mCheckEnabled = enabled;
+    }
+
+    /**
+     * @return the number of reads answered from the cache
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return the number of reads that had to query the profile service
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return the number of cached reads verified in consistency check mode
+     */
+    public long getCheckCount() {
+        return mCheckCount.get();
+    }
+
+    /**
+     * @return the number of verified reads whose cached state differed from the service
+     */
+    public long getDivergenceCount() {
+        return mDivergenceCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileConnectionStateCache[hits=" + getHitCount() + " misses=" + getMissCount()
+                + " checks=" + getCheckCount() + " divergences=" + getDivergenceCount() + "]";
+    }
+
+    private static final class ProfileTable {
+        final Map<String, Integer> mStates = new ConcurrentHashMap<>();
+        volatile boolean mSeeded;
+    }
+}
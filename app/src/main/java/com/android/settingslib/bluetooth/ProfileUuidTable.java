@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothUuid;
+import android.os.ParcelUuid;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ProfileUuidTable maps the service UUIDs used for profile resolution and device filtering to
+ * capability bits, so that a UUID array is converted to a bitmask in a single pass and profile
+ * checks become bit tests instead of linear scans.
+ */
+final class ProfileUuidTable {
+    static final int HSP = 1 << 0;
+    static final int HSP_AG = 1 << 1;
+    static final int HFP = 1 << 2;
+    static final int HFP_AG = 1 << 3;
+    static final int A2DP_SINK = 1 << 4;        // Any of A2dpProfile.SINK_UUIDS
+    static final int A2DP_SOURCE = 1 << 5;      // Any of A2dpSinkProfile.SRC_UUIDS
+    static final int OBEX_OBJECT_PUSH = 1 << 6;
+    static final int HID = 1 << 7;              // HID or HOGP
+    static final int NAP = 1 << 8;
+    static final int MAS = 1 << 9;              // Any of MapClientProfile.UUIDS
+    static final int PBAP_PSE = 1 << 10;        // Any of PbapClientProfile.SRC_UUIDS
+    static final int HEARING_AID = 1 << 11;
+    static final int LE_AUDIO = 1 << 12;
+    static final int SAP = 1 << 13;
+    static final int VOLUME_CONTROL = 1 << 14;
+    static final int COORDINATED_SET = 1 << 15;
+    static final int PANU = 1 << 16;            // Only used by BluetoothDeviceFilter
+
+    private static final Map<ParcelUuid, Integer> sUuidBits = new HashMap<>();
+
+    static {
+        put(BluetoothUuid.HSP, HSP);
+        put(BluetoothUuid.HSP_AG, HSP_AG);
+        put(BluetoothUuid.HFP, HFP);
+        put(BluetoothUuid.HFP_AG, HFP_AG);
+        for (ParcelUuid uuid : A2dpProfile.SINK_UUIDS) {
+            put(uuid, A2DP_SINK);
+        }
+        for (ParcelUuid uuid : A2dpSinkProfile.SRC_UUIDS) {
+            put(uuid, A2DP_SOURCE);
+        }
+        put(BluetoothUuid.OBEX_OBJECT_PUSH, OBEX_OBJECT_PUSH);
+        put(BluetoothUuid.HID, HID);
+        put(BluetoothUuid.HOGP, HID);
+        put(BluetoothUuid.NAP, NAP);
+        put(BluetoothUuid.PANU, PANU);
+        for (ParcelUuid uuid : MapClientProfile.UUIDS) {
+            put(uuid, MAS);
+        }
+        for (ParcelUuid uuid : PbapClientProfile.SRC_UUIDS) {
+            put(uuid, PBAP_PSE);
+        }
+        put(BluetoothUuid.HEARING_AID, HEARING_AID);
+        put(BluetoothUuid.LE_AUDIO, LE_AUDIO);
+        put(BluetoothUuid.SAP, SAP);
+        put(BluetoothUuid.VOLUME_CONTROL, VOLUME_CONTROL);
+        put(BluetoothUuid.COORDINATED_SET, COORDINATED_SET);
+    }
+
+    private ProfileUuidTable() {
+    }
+
+    // A UUID may stand for several capabilities, e.g. ADV_AUDIO_DIST
+    private static void put(ParcelUuid uuid, int bit) {
+        final Integer bits = sUuidBits.get(uuid);
+        sUuidBits.put(uuid, bits == null ? bit : bits | bit);
+    }
+
+    /**
+     * @return the capability bits of {@code uuids}, or 0 if it is {@code null}
+     */
+    static int toBitmask(ParcelUuid[] uuids) {
+        if (uuids == null) {
+            return 0;
+        }
+        int mask = 0;
+        for (ParcelUuid uuid : uuids) {
+            final Integer bits = sUuidBits.get(uuid);
+            if (bits != null) {
+                mask |= bits;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return the capability bits of {@code uuids}, or 0 if it is {@code null}
+     */
+    static int toBitmask(Iterable<ParcelUuid> uuids) {
+        if (uuids == null) {
+            return 0;
+        }
+        int mask = 0;
+        for (ParcelUuid uuid : uuids) {
+            final Integer bits = sUuidBits.get(uuid);
+            if (bits != null) {
+                mask |= bits;
+            }
+        }
+        return mask;
+    }
+}
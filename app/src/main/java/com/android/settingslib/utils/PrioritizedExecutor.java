@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settingslib.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Background executor with priority lanes. Workers always take the oldest task of the most
+ * urgent non-empty lane, and one worker is reserved for the UI-critical lane, so default and
+ * prefetch work can not starve UI-critical work.
+ *
+ * <p>Each lane has a bounded queue with a rejection policy. A task submitted with a key
+ * supersedes the queued task with the same key, which is cancelled. Queue depth, wait time and
+ * run time are recorded per lane, see {@link #getMetrics(int)}.
+ */
+public class PrioritizedExecutor implements Executor {
+    /** Work whose result the user is waiting for. */
+    public static final int LANE_UI_CRITICAL = 0;
+    /** Regular background work, used by {@link #execute(Runnable)}. */
+    public static final int LANE_DEFAULT = 1;
+    /** Speculative work such as cache warming, dropped first under load. */
+    public static final int LANE_PREFETCH = 2;
+    private static final int LANE_COUNT = 3;
+
+    /** Reject a task submitted to a full lane with a {@link RejectedExecutionException}. */
+    public static final int POLICY_ABORT = 0;
+    /** Cancel the oldest queued task of a full lane to make room. */
+    public static final int POLICY_DISCARD_OLDEST = 1;
+    /** Run a task submitted to a full lane on the submitting thread. */
+    public static final int POLICY_CALLER_RUNS = 2;
+
+    private static final String[] LANE_NAMES = {"uiCritical", "default", "prefetch"};
+
+    private final Object mLock = new Object();
+    private final Lane[] mLanes = new Lane[LANE_COUNT];
+    private final Map<Object, Task<?>> mKeyedTasks = new HashMap<>();
+    private final Thread[] mWorkers;
+    // Workers the default and prefetch lanes may occupy together
+    private final int mMaxBackgroundConcurrent;
+    private int mBackgroundRunningCount;
+
+    /**
+     * Creates an executor with {@code threadCount} workers and default lane limits: 256 queued
+     * tasks per UI-critical and default lane rejecting new tasks when full, and 64 prefetch tasks
+     * discarding the oldest. The default and prefetch lanes share all workers but one. Tasks are
+     * submitted from the main thread, so no lane runs them on the caller by default.
+     */
+    public PrioritizedExecutor(String name, int threadCount) {
+        threadCount = Math.max(2, threadCount);
+        mLanes[LANE_UI_CRITICAL] = new Lane(256, POLICY_ABORT, threadCount,
+                Process.THREAD_PRIORITY_DEFAULT);
+        // Keep one worker free for the UI-critical lane
+        mMaxBackgroundConcurrent = threadCount - 1;
+        mLanes[LANE_DEFAULT] = new Lane(256, POLICY_ABORT, threadCount - 1,
+                Process.THREAD_PRIORITY_DEFAULT);
+        // and, given enough workers, another one for the default lane
+        mLanes[LANE_PREFETCH] = new Lane(64, POLICY_DISCARD_OLDEST, Math.max(1, threadCount - 2),
+                Process.THREAD_PRIORITY_BACKGROUND);
+
+        mWorkers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mWorkers[i] = new Thread(this::runWorker, name + "-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Changes the queue capacity and rejection policy of {@code lane}.
+     */
+    public void configureLane(int lane, int capacity, int policy) {
+        synchronized (mLock) {
+            mLanes[lane].mCapacity = capacity;
+            mLanes[lane].mPolicy = policy;
+        }
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        submit(LANE_DEFAULT, null, runnable);
+    }
+
+    /**
+     * Queues {@code runnable} on {@code lane}.
+     *
+     * @param key if not {@code null}, the still queued task submitted with an equal key is
+     *            cancelled in favor of this one
+     * @return A future of the task that can be monitored for updates or cancelled.
+     * @throws RejectedExecutionException if {@code lane} is full and aborts new tasks, in which
+     *             case the still queued task with an equal key is kept
+     */
+    public Future<?> submit(int lane, Object key, Runnable runnable) {
+        return enqueue(new Task<>(Executors.callable(runnable), lane, key));
+    }
+
+    /**
+     * Queues {@code callable} on {@code lane}, see {@link #submit(int, Object, Runnable)}.
+     */
+    public <T> Future<T> submit(int lane, Object key, Callable<T> callable) {
+        return enqueue(new Task<>(callable, lane, key));
+    }
+
+    private <T> Task<T> enqueue(Task<T> task) {
+        final Lane lane = mLanes[task.mLane];
+        boolean runOnCaller = false;
+        synchronized (mLock) {
+            // Check capacity first, a rejected task must not cancel the task it would replace
+            final boolean full = lane.mQueue.size() >= lane.mCapacity;
+            if (full) {
+                lane.mRejectedCount++;
+                if (lane.mPolicy == POLICY_CALLER_RUNS) {
+                    runOnCaller = true;
+                } else if (lane.mPolicy != POLICY_DISCARD_OLDEST) {
+                    throw new RejectedExecutionException(
+                            "Lane " + LANE_NAMES[task.mLane] + " is full");
+                }
+            }
+            if (task.mKey != null) {
+                final Task<?> superseded = mKeyedTasks.put(task.mKey, task);
+                if (superseded != null && superseded.cancel(false)) {
+                    mLanes[superseded.mLane].mSupersededCount++;
+                }
+            }
+            if (full && lane.mPolicy == POLICY_DISCARD_OLDEST
+                    && lane.mQueue.size() >= lane.mCapacity) {
+                final Task<?> oldest = lane.mQueue.peekFirst();
+                if (oldest != null) {
+                    oldest.cancel(false);
+                }
+            }
+            if (!runOnCaller) {
+                task.mEnqueueNanos = SystemClock.elapsedRealtimeNanos();
+                lane.mQueue.addLast(task);
+                lane.mSubmittedCount++;
+                lane.mMaxQueueDepth = Math.max(lane.mMaxQueueDepth, lane.mQueue.size());
+                mLock.notify();
+            }
+        }
+        if (runOnCaller) {
+            synchronized (mLock) {
+                forgetKeyLocked(task);
+            }
+            task.mEnqueueNanos = SystemClock.elapsedRealtimeNanos();
+            runTask(task);
+        }
+        return task;
+    }
+
+    private void forgetKeyLocked(Task<?> task) {
+        if (task.mKey != null && mKeyedTasks.get(task.mKey) == task) {
+            mKeyedTasks.remove(task.mKey);
+        }
+    }
+
+    private void runWorker() {
+        int priority = Process.THREAD_PRIORITY_DEFAULT;
+        while (true) {
+            final Task<?> task;
+            synchronized (mLock) {
+                Task<?> next;
+                while ((next = pollLocked()) == null) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Keep serving, the pool lives as long as the process
+                    }
+                }
+                task = next;
+                mLanes[task.mLane].mRunningCount++;
+                if (task.mLane != LANE_UI_CRITICAL) {
+                    mBackgroundRunningCount++;
+                }
+            }
+            final int lanePriority = mLanes[task.mLane].mThreadPriority;
+            if (lanePriority != priority) {
+                Process.setThreadPriority(lanePriority);
+                priority = lanePriority;
+            }
+            runTask(task);
+            synchronized (mLock) {
+                mLanes[task.mLane].mRunningCount--;
+                if (task.mLane != LANE_UI_CRITICAL) {
+                    mBackgroundRunningCount--;
+                }
+                // A lane held back by its concurrency limit may be runnable now
+                mLock.notify();
+            }
+        }
+    }
+
+    private Task<?> pollLocked() {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            if (i != LANE_UI_CRITICAL && mBackgroundRunningCount >= mMaxBackgroundConcurrent) {
+                // The remaining lanes would take the worker reserved for UI-critical work
+                return null;
+            }
+            final Lane lane = mLanes[i];
+            if (!lane.mQueue.isEmpty() && lane.mRunningCount < lane.mMaxConcurrent) {
+                final Task<?> task = lane.mQueue.pollFirst();
+                forgetKeyLocked(task);
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private void runTask(Task<?> task) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        task.run();
+        final long endNanos = SystemClock.elapsedRealtimeNanos();
+        synchronized (mLock) {
+            final Lane lane = mLanes[task.mLane];
+            final long waitNanos = startNanos - task.mEnqueueNanos;
+            lane.mCompletedCount++;
+            lane.mTotalWaitNanos += waitNanos;
+            lane.mMaxWaitNanos = Math.max(lane.mMaxWaitNanos, waitNanos);
+            lane.mTotalRunNanos += endNanos - startNanos;
+        }
+    }
+
+    /**
+     * @return a snapshot of the metrics of {@code lane}
+     */
+    public LaneMetrics getMetrics(int lane) {
+        synchronized (mLock) {
+            return new LaneMetrics(mLanes[lane]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PrioritizedExecutor[");
+        for (int i = 0; i < LANE_COUNT; i++) {
+            sb.append(i == 0 ? "" : " ").append(LANE_NAMES[i]).append('=').append(getMetrics(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static final class Lane {
+        final ArrayDeque<Task<?>> mQueue = new ArrayDeque<>();
+        final int mMaxConcurrent;
+        final int mThreadPriority;
+        int mCapacity;
+        int mPolicy;
+        int mRunningCount;
+        int mMaxQueueDepth;
+        long mSubmittedCount;
+        long mCompletedCount;
+        long mRejectedCount;
+        long mSupersededCount;
+        long mTotalWaitNanos;
+        long mMaxWaitNanos;
+        long mTotalRunNanos;
+
+        Lane(int capacity, int policy, int maxConcurrent, int threadPriority) {
+            mCapacity = capacity;
+            mPolicy = policy;
+            mMaxConcurrent = maxConcurrent;
+            mThreadPriority = threadPriority;
+        }
+    }
+
+    private final class Task<T> extends FutureTask<T> {
+        final int mLane;
+        final Object mKey;
+        long mEnqueueNanos;
+
+        Task(Callable<T> callable, int lane, Object key) {
+            super(callable);
+            mLane = lane;
+            mKey = key;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (mLock) {
+                    mLanes[mLane].mQueue.remove(this);
+                    forgetKeyLocked(this);
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Point in time metrics of one lane.
+     */
+    public static final class LaneMetrics {
+        private final int mQueueDepth;
+        private final int mMaxQueueDepth;
+        private final long mSubmittedCount;
+        private final long mCompletedCount;
+        private final long mRejectedCount;
+        private final long mSupersededCount;
+        private final long mTotalWaitNanos;
+        private final long mMaxWaitNanos;
+        private final long mTotalRunNanos;
+
+        private LaneMetrics(Lane lane) {
+            mQueueDepth = lane.mQueue.size();
+            mMaxQueueDepth = lane.mMaxQueueDepth;
+            mSubmittedCount = lane.mSubmittedCount;
+            mCompletedCount = lane.mCompletedCount;
+            mRejectedCount = lane.mRejectedCount;
+            mSupersededCount = lane.mSupersededCount;
+            mTotalWaitNanos = lane.mTotalWaitNanos;
+            mMaxWaitNanos = lane.mMaxWaitNanos;
+            mTotalRunNanos = lane.mTotalRunNanos;
+        }
+
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        public long getSubmittedCount() {
+            return mSubmittedCount;
+        }
+
+        public long getCompletedCount() {
+            return mCompletedCount;
+        }
+
+        /**
+         * @return the number of tasks that found the lane full
+         */
+        public long getRejectedCount() {
+            return mRejectedCount;
+        }
+
+        /**
+         * @return the number of queued tasks cancelled by a task with the same key
+         */
+        public long getSupersededCount() {
+            return mSupersededCount;
+        }
+
+        /**
+         * @return the average time between queueing and start of the completed tasks
+         */
+        public long getAverageWaitNanos() {
+            return mCompletedCount > 0 ? mTotalWaitNanos / mCompletedCount : 0;
+        }
+
+        public long getMaxWaitNanos() {
+            return mMaxWaitNanos;
+        }
+
+        /**
+         * @return the average run time of the completed tasks
+         */
+        public long getAverageRunNanos() {
+            return mCompletedCount > 0 ? mTotalRunNanos / mCompletedCount : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "{depth=" + mQueueDepth + " maxDepth=" + mMaxQueueDepth
+                    + " submitted=" + mSubmittedCount + " completed=" + mCompletedCount
+                    + " rejected=" + mRejectedCount + " superseded=" + mSupersededCount
+                    + " avgWaitUs=" + getAverageWaitNanos() / 1000
+                    + " maxWaitUs=" + mMaxWaitNanos / 1000
+                    + " avgRunUs=" + getAverageRunNanos() / 1000 + "}";
+        }
+    }
+}
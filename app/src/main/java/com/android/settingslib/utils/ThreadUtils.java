@@ -17,17 +17,26 @@ package com.android.settingslib.utils;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ThreadUtils {
+    private static final String TAG = "ThreadUtils";
+    // Tasks queued on the overflow thread at most, once the background lanes are full
+    private static final int OVERFLOW_CAPACITY = 64;
 
     private static volatile Thread sMainThread;
     private static volatile Handler sMainThreadHandler;
-    private static volatile ExecutorService sThreadExecutor;
+    private static volatile PrioritizedExecutor sThreadExecutor;
+    private static volatile ThreadPoolExecutor sOverflowExecutor;
 
     /**
      * Returns true if the current thread is the UI thread.
@@ -65,7 +74,7 @@ public class ThreadUtils {
      * @Return A future of the task that can be monitored for updates or cancelled.
      */
     public static Future postOnBackgroundThread(Runnable runnable) {
-        return getThreadExecutor().submit(runnable);
+        return submit(PrioritizedExecutor.LANE_DEFAULT, null, Executors.callable(runnable));
     }
 
     /**
@@ -74,7 +83,43 @@ public class ThreadUtils {
      * @Return A future of the task that can be monitored for updates or cancelled.
      */
     public static Future postOnBackgroundThread(Callable callable) {
-        return getThreadExecutor().submit(callable);
+        return submit(PrioritizedExecutor.LANE_DEFAULT, null, callable);
+    }
+
+    /**
+     * Posts runnable in background on the given {@link PrioritizedExecutor} lane.
+     *
+     * @Return A future of the task that can be monitored for updates or cancelled.
+     */
+    public static Future postOnBackgroundThread(int lane, Runnable runnable) {
+        return submit(lane, null, Executors.callable(runnable));
+    }
+
+    /**
+     * Posts runnable in background on the given {@link PrioritizedExecutor} lane, cancelling the
+     * still queued runnable posted with an equal key.
+     *
+     * @Return A future of the task that can be monitored for updates or cancelled.
+     */
+    public static Future postOnBackgroundThread(Object key, int lane, Runnable runnable) {
+        return submit(lane, key, Executors.callable(runnable));
+    }
+
+    private static <T> Future<T> submit(int lane, Object key, Callable<T> callable) {
+        try {
+            return getThreadExecutor().submit(lane, key, callable);
+        } catch (RejectedExecutionException e) {
+            // Never fall back to the caller, which usually is the main thread
+            Log.w(TAG, "Background lane " + lane + " is full, queueing task on overflow thread");
+        }
+        try {
+            return getOverflowExecutor().submit(callable);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Overflow thread is full, dropping task");
+            final FutureTask<T> task = new FutureTask<>(callable);
+            task.cancel(false);
+            return task;
+        }
     }
 
     /**
@@ -91,9 +136,27 @@ public class ThreadUtils {
         getUiThreadHandler().postDelayed(runnable, delayMillis);
     }
 
-    private static synchronized ExecutorService getThreadExecutor() {
+    /**
+     * Returns the shared background executor, e.g. to read its metrics.
+     */
+    public static PrioritizedExecutor getBackgroundExecutor() {
+        return getThreadExecutor();
+    }
+
+    // Single bounded thread, idle most of the time, taking the tasks rejected by full lanes
+    private static synchronized ThreadPoolExecutor getOverflowExecutor() {
+        if (sOverflowExecutor == null) {
+            sOverflowExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(OVERFLOW_CAPACITY),
+                    runnable -> new Thread(runnable, "SettingsLibBgOverflow"));
+            sOverflowExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sOverflowExecutor;
+    }
+
+    private static synchronized PrioritizedExecutor getThreadExecutor() {
         if (sThreadExecutor == null) {
-            sThreadExecutor = Executors.newFixedThreadPool(
+            sThreadExecutor = new PrioritizedExecutor("SettingsLibBg",
                     Runtime.getRuntime().availableProcessors());
         }
         return sThreadExecutor;
@@ -107,13 +107,18 @@ public class BluetoothActivity extends AppCompatActivity {
 
     public void initBt() {
 
-        LocalBluetoothManager.getInstance(this, new LocalBluetoothManager.BluetoothManagerCallback() {
+        LocalBluetoothManager.getInstanceAsync(this, new LocalBluetoothManager.BluetoothManagerCallback() {
             @Override
             public void onBluetoothManagerInitialized(Context appContext, LocalBluetoothManager bluetoothManager) {
                 Log.d(TAG, "onBluetoothManagerInitialized: " + bluetoothManager);
                 localBluetoothManager = bluetoothManager;
                 initCallback();
             }
+
+            @Override
+            public void onInitStageCompleted(int stage, long durationMs) {
+                Log.d(TAG, "onInitStageCompleted: stage " + stage + ", " + durationMs + "ms");
+            }
         });
 
     }
@@ -0,0 +1,93 @@
+package com.gdet.testapp.bluetooth.car
+
+import android.bluetooth.BluetoothDevice
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.util.Log
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 蓝牙广播分发器 - 各模块共用的广播接收器，按action把广播路由给关心它的模块
+ *
+ * 每个action只在一个接收器上注册，每条广播只投递一次，其中的设备也只解析一次。
+ * 新出现的action注册到新的接收器上，已注册的接收器不会被重新注册，避免重注册期间漏收广播。
+ */
+class BluetoothBroadcastHub(private val context: Context) {
+
+    companion object {
+        private const val TAG = "BluetoothBroadcastHub"
+    }
+
+    /**
+     * 广播处理器
+     */
+    fun interface BroadcastHandler {
+        // device为广播中的EXTRA_DEVICE，没有时为null
+        fun onReceive(action: String, intent: Intent, device: BluetoothDevice?)
+    }
+
+    // 各action的处理器
+    private val handlers = ConcurrentHashMap<String, CopyOnWriteArrayList<BroadcastHandler>>()
+
+    // 已注册的接收器及其action，受 this 保护
+    private val receivers = ArrayList<BroadcastReceiver>()
+    private val registeredActions = HashSet<String>()
+
+    /**
+     * 注册处理器，接收指定action的广播
+     */
+    fun register(actions: Collection<String>, handler: BroadcastHandler) {
+        synchronized(this) {
+            actions.forEach { handlers.getOrPut(it) { CopyOnWriteArrayList() }.addIfAbsent(handler) }
+
+            val newActions = actions.filter { registeredActions.add(it) }
+            if (newActions.isEmpty()) return
+            val receiver = HubReceiver()
+            val filter = IntentFilter().apply { newActions.forEach { addAction(it) } }
+            context.registerReceiver(receiver, filter)
+            receivers.add(receiver)
+        }
+    }
+
+    /**
+     * 移除处理器；接收器保留到 release，action的处理器为空时广播直接丢弃
+     */
+    fun unregister(handler: BroadcastHandler) {
+        handlers.values.forEach { it.remove(handler) }
+    }
+
+    /**
+     * 释放所有接收器
+     */
+    fun release() {
+        synchronized(this) {
+            receivers.forEach {
+                try {
+                    context.unregisterReceiver(it)
+                } catch (e: Exception) {
+                    Log.e(TAG, "解除广播接收器注册失败", e)
+                }
+            }
+            receivers.clear()
+            registeredActions.clear()
+            handlers.clear()
+        }
+    }
+
+    /**
+     * 广播接收器，所有接收器共用同一路由表
+     */
+    private inner class HubReceiver : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            val action = intent.action ?: return
+            val actionHandlers = handlers[action]
+            if (actionHandlers.isNullOrEmpty()) return
+
+            val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
+            actionHandlers.forEach { it.onReceive(action, intent, device) }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.gdet.testapp.bluetooth.car
 
 import android.bluetooth.BluetoothClass
 import android.bluetooth.BluetoothDevice
+import java.util.EnumSet
 
 
 /**
@@ -43,6 +44,21 @@ data class BluetoothDeviceInfo(
 
     // 是否为全功能模式
     fun isFullFunctionMode(): Boolean = supportsCalling && supportsMedia
+
+    // 与旧的设备信息相比发生变化的字段
+    fun changedFieldsFrom(old: BluetoothDeviceInfo): Set<DeviceInfoField> {
+        val fields = EnumSet.noneOf(DeviceInfoField::class.java)
+        if (name != old.name) fields.add(DeviceInfoField.NAME)
+        if (deviceClass != old.deviceClass) fields.add(DeviceInfoField.DEVICE_CLASS)
+        if (bondState != old.bondState) fields.add(DeviceInfoField.BOND_STATE)
+        if (isConnected != old.isConnected) fields.add(DeviceInfoField.CONNECTED)
+        if (supportsCalling != old.supportsCalling) fields.add(DeviceInfoField.CALLING)
+        if (supportsMedia != old.supportsMedia) fields.add(DeviceInfoField.MEDIA)
+        if (batteryLevel != old.batteryLevel) fields.add(DeviceInfoField.BATTERY_LEVEL)
+        if (isCurrentCallDevice != old.isCurrentCallDevice) fields.add(DeviceInfoField.CURRENT_CALL_DEVICE)
+        if (isCurrentMediaDevice != old.isCurrentMediaDevice) fields.add(DeviceInfoField.CURRENT_MEDIA_DEVICE)
+        return fields
+    }
 }
 
 /**
@@ -55,6 +71,66 @@ enum class DeviceType {
     OTHER       // 其他
 }
 
+/**
+ * 设备信息字段，用于标识增量更新中变化的字段
+ */
+enum class DeviceInfoField {
+    NAME,                   // 设备名称
+    DEVICE_CLASS,           // 设备类别
+    BOND_STATE,             // 配对状态
+    CONNECTED,              // 是否已连接
+    CALLING,                // 是否支持通话
+    MEDIA,                  // 是否支持媒体播放
+    BATTERY_LEVEL,          // 电池电量
+    CURRENT_CALL_DEVICE,    // 是否为当前通话设备
+    CURRENT_MEDIA_DEVICE    // 是否为当前媒体设备
+}
+
+/**
+ * 设备列表类型枚举
+ */
+enum class DeviceListType {
+    PAIRED,         // 已配对设备
+    CONNECTED,      // 已连接设备
+    DISCOVERABLE    // 可发现设备
+}
+
+/**
+ * 设备列表变化类型枚举
+ */
+enum class DeviceChangeType {
+    ADDED,      // 加入列表
+    UPDATED,    // 设备信息更新
+    REMOVED     // 移出列表
+}
+
+/**
+ * 设备列表的一次增量变化
+ */
+data class DeviceListChange(
+    val listType: DeviceListType,                           // 所属列表
+    val type: DeviceChangeType,                             // 变化类型
+    val device: BluetoothDeviceInfo,                        // 变化后的设备信息，移除时为最后的设备信息
+    val changedFields: Set<DeviceInfoField> = emptySet()    // 变化的字段，仅UPDATED时非空
+)
+
+/**
+ * 媒体播放状态
+ */
+data class MediaPlaybackState(
+    val device: BluetoothDeviceInfo? = null,    // 当前媒体设备，无则为null
+    val isPlaying: Boolean = false              // 是否正在播放
+)
+
+/**
+ * 配置文件代理就绪耗时统计
+ */
+data class ProfileProxyStats(
+    val profile: Int,                   // 配置文件
+    val timeToReadyMs: Long,            // 从请求到就绪的耗时
+    val readyAfterStartMs: Long         // 从蓝牙核心创建到就绪的耗时
+)
+
 /**
  * 蓝牙通话信息
  */
@@ -143,6 +219,15 @@ interface BluetoothLibCallback {
     // 设备取消配对
     fun onDeviceUnpaired(device: BluetoothDeviceInfo) {}
 
+    // 设备加入列表(增量)
+    fun onDeviceAdded(listType: DeviceListType, device: BluetoothDeviceInfo) {}
+
+    // 列表中的设备信息更新(增量)，changedFields为变化的字段
+    fun onDeviceUpdated(listType: DeviceListType, device: BluetoothDeviceInfo, changedFields: Set<DeviceInfoField>) {}
+
+    // 设备移出列表(增量)
+    fun onDeviceRemoved(listType: DeviceListType, device: BluetoothDeviceInfo) {}
+
     // 通话设备连接
     fun onCallDeviceConnected(device: BluetoothDeviceInfo) {}
 
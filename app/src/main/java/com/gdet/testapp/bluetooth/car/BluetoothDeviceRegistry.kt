@@ -0,0 +1,132 @@
+package com.gdet.testapp.bluetooth.car
+
+import android.bluetooth.BluetoothDevice
+import java.util.EnumMap
+import java.util.EnumSet
+
+/**
+ * 蓝牙设备注册表 - 按地址索引设备及其设备信息，并计算各设备列表的增量变化
+ *
+ * 设备信息只在设备状态变化时由调用方重新读取后写入，完整列表直接由缓存生成，不再逐个设备读取。
+ * 所有方法均可在任意线程调用。
+ */
+class BluetoothDeviceRegistry {
+
+    /**
+     * 注册表中的设备条目
+     */
+    private class Entry(val device: BluetoothDevice, var info: BluetoothDeviceInfo) {
+        // 设备所在的列表
+        val lists: EnumSet<DeviceListType> = EnumSet.noneOf(DeviceListType::class.java)
+    }
+
+    // 设备条目，按地址索引；与 lists 一起受 lock 保护
+    private val entries = HashMap<String, Entry>()
+
+    // 各列表中的设备地址，保持加入顺序
+    private val lists = EnumMap<DeviceListType, LinkedHashSet<String>>(DeviceListType::class.java).apply {
+        DeviceListType.values().forEach { put(it, LinkedHashSet()) }
+    }
+
+    private val lock = Any()
+
+    /**
+     * 按地址查找设备
+     */
+    fun findDevice(address: String): BluetoothDevice? = synchronized(lock) {
+        entries[address]?.device
+    }
+
+    /**
+     * 获取设备的缓存设备信息
+     */
+    fun getDeviceInfo(address: String): BluetoothDeviceInfo? = synchronized(lock) {
+        entries[address]?.info
+    }
+
+    /**
+     * 设备是否在指定列表中
+     */
+    fun contains(listType: DeviceListType, address: String): Boolean = synchronized(lock) {
+        lists.getValue(listType).contains(address)
+    }
+
+    /**
+     * 获取指定列表中的设备
+     */
+    fun getDevices(listType: DeviceListType): List<BluetoothDevice> = synchronized(lock) {
+        lists.getValue(listType).map { entries.getValue(it).device }
+    }
+
+    /**
+     * 获取指定列表中设备的缓存设备信息
+     */
+    fun getDeviceInfos(listType: DeviceListType): List<BluetoothDeviceInfo> = synchronized(lock) {
+        lists.getValue(listType).map { entries.getValue(it).info }
+    }
+
+    /**
+     * 将设备加入列表并更新其设备信息
+     *
+     * @return 产生的增量变化：设备信息变化时，其已在的列表各有一条UPDATED；首次加入该列表时有一条ADDED
+     */
+    fun add(listType: DeviceListType, device: BluetoothDevice, info: BluetoothDeviceInfo): List<DeviceListChange> =
+        synchronized(lock) {
+            val entry = entries.getOrPut(device.address) { Entry(device, info) }
+            val changes = updateLocked(entry, info)
+            if (entry.lists.add(listType)) {
+                lists.getValue(listType).add(device.address)
+                changes.add(DeviceListChange(listType, DeviceChangeType.ADDED, info))
+            }
+            changes
+        }
+
+    /**
+     * 更新已注册设备的设备信息，设备未注册时忽略
+     *
+     * @return 设备所在的每个列表各一条UPDATED，设备信息未变化时为空
+     */
+    fun update(info: BluetoothDeviceInfo): List<DeviceListChange> = synchronized(lock) {
+        entries[info.address]?.let { updateLocked(it, info) } ?: emptyList()
+    }
+
+    /**
+     * 将设备移出列表，设备不在任何列表中后移出注册表
+     */
+    fun remove(listType: DeviceListType, address: String): List<DeviceListChange> = synchronized(lock) {
+        val entry = entries[address]
+        if (entry == null || !entry.lists.remove(listType)) {
+            return emptyList()
+        }
+        lists.getValue(listType).remove(address)
+        if (entry.lists.isEmpty()) {
+            entries.remove(address)
+        }
+        listOf(DeviceListChange(listType, DeviceChangeType.REMOVED, entry.info))
+    }
+
+    /**
+     * 清空指定列表
+     */
+    fun clear(listType: DeviceListType): List<DeviceListChange> = synchronized(lock) {
+        val addresses = lists.getValue(listType).toList()
+        addresses.flatMap { remove(listType, it) }
+    }
+
+    /**
+     * 清空所有列表
+     */
+    fun clear(): List<DeviceListChange> = synchronized(lock) {
+        DeviceListType.values().flatMap { clear(it) }
+    }
+
+    private fun updateLocked(entry: Entry, info: BluetoothDeviceInfo): MutableList<DeviceListChange> {
+        val changes = ArrayList<DeviceListChange>()
+        val changedFields = info.changedFieldsFrom(entry.info)
+        entry.info = info
+        if (changedFields.isNotEmpty()) {
+            entry.lists.forEach { changes.add(DeviceListChange(it, DeviceChangeType.UPDATED, info, changedFields)) }
+        }
+        return changes
+    }
+}
@@ -1,131 +1,352 @@
 package com.gdet.testapp.bluetooth.car
 
-import java.util.concurrent.CopyOnWriteArraySet
+import android.os.SystemClock
+import android.util.Log
+import java.util.ArrayDeque
+import java.util.EnumMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * 蓝牙事件分发器 - 负责将蓝牙事件分发给监听器
+ *
+ * 监听器可按同步或异步模式注册。同步监听器在广播线程上依次回调；异步监听器各自拥有一个串行队列，
+ * 在共享线程池上投递，慢监听器只会拖慢自己。异步队列中通话事件优先于列表和媒体事件，
+ * 尚未投递的完整设备列表事件会被更新的同类事件取代。
  */
 class BluetoothEventDispatcher {
 
+    companion object {
+        private const val TAG = "BluetoothEventDispatcher"
+    }
+
+    /**
+     * 监听器分发模式
+     */
+    enum class DispatchMode {
+        SYNC,   // 在分发线程上同步回调
+        ASYNC   // 在监听器自己的串行队列上异步回调
+    }
+
+    /**
+     * 事件优先级
+     */
+    private enum class Priority {
+        CALL,   // 通话事件，优先投递
+        NORMAL  // 设备列表、媒体等其他事件
+    }
+
+    /**
+     * 单个监听器的分发统计
+     */
+    data class ListenerMetrics(
+        val listenerName: String,           // 监听器类名
+        val mode: DispatchMode,             // 分发模式
+        val deliveredCount: Long,           // 已投递事件数
+        val conflatedCount: Long,           // 被取代而未投递的事件数
+        val backlog: Int,                   // 当前积压事件数
+        val maxBacklog: Int,                // 最大积压事件数
+        val averageLatencyMs: Double,       // 平均投递延迟(从分发到开始回调)
+        val maxLatencyMs: Double            // 最大投递延迟
+    )
+
     // 监听器集合
-    private val listeners = CopyOnWriteArraySet<BluetoothLibCallback>()
+    private val listeners = CopyOnWriteArrayList<ListenerChannel>()
+
+    // 异步监听器共用的线程池，每个监听器同一时刻最多占用一个线程
+    private val executor: Executor by lazy {
+        val threadCount = AtomicInteger()
+        Executors.newCachedThreadPool { runnable ->
+            Thread(runnable, "BtEventDispatcher-${threadCount.incrementAndGet()}").apply { isDaemon = true }
+        }
+    }
 
     /**
      * 添加监听器
      */
-    fun addListener(listener: BluetoothLibCallback) {
-        listeners.add(listener)
+    fun addListener(listener: BluetoothLibCallback, mode: DispatchMode = DispatchMode.SYNC) {
+        synchronized(listeners) {
+            if (listeners.none { it.listener === listener }) {
+                listeners.add(ListenerChannel(listener, mode))
+            }
+        }
     }
 
     /**
-     * 移除监听器
+     * 移除监听器，未投递的事件被丢弃
      */
     fun removeListener(listener: BluetoothLibCallback) {
-        listeners.remove(listener)
+        synchronized(listeners) {
+            listeners.find { it.listener === listener }?.let {
+                listeners.remove(it)
+                it.close()
+            }
+        }
     }
 
     /**
      * 清空所有监听器
      */
     fun clear() {
-        listeners.clear()
+        synchronized(listeners) {
+            listeners.forEach { it.close() }
+            listeners.clear()
+        }
+    }
+
+    /**
+     * 获取各监听器的分发统计
+     */
+    fun getListenerMetrics(): List<ListenerMetrics> = listeners.map { it.getMetrics() }
+
+    private fun dispatch(
+        priority: Priority,
+        conflationKey: DeviceListType? = null,
+        action: (BluetoothLibCallback) -> Unit
+    ) {
+        if (listeners.isEmpty()) return
+        val event = PendingEvent(priority, conflationKey, SystemClock.elapsedRealtimeNanos(), action)
+        listeners.forEach { it.post(event) }
+    }
+
+    /**
+     * 待投递事件；同一事件对象可投递给多个监听器，取代标记记录在各监听器队列中
+     */
+    private class PendingEvent(
+        val priority: Priority,
+        val conflationKey: DeviceListType?,
+        val postedNanos: Long,
+        val action: (BluetoothLibCallback) -> Unit
+    )
+
+    /**
+     * 监听器的分发通道，异步模式下按监听器串行投递事件
+     */
+    private inner class ListenerChannel(
+        val listener: BluetoothLibCallback,
+        val mode: DispatchMode
+    ) : Runnable {
+
+        // 以下字段受 this 保护
+        private val callQueue = ArrayDeque<PendingEvent>()
+        private val normalQueue = ArrayDeque<PendingEvent>()
+        // 各类完整列表事件中最新的待投递事件，其余同类事件已被取代
+        private val latestListEvents = EnumMap<DeviceListType, PendingEvent>(DeviceListType::class.java)
+        private var draining = false
+        private var closed = false
+        private var backlog = 0
+        private var maxBacklog = 0
+        private var deliveredCount = 0L
+        private var conflatedCount = 0L
+        private var totalLatencyNanos = 0L
+        private var maxLatencyNanos = 0L
+
+        fun post(event: PendingEvent) {
+            if (mode == DispatchMode.SYNC) {
+                deliver(event)
+                return
+            }
+            synchronized(this) {
+                if (closed) return
+                event.conflationKey?.let { key ->
+                    // 被取代的事件留在队列中，取出时跳过；新事件排在队尾，保持与增量事件的先后顺序
+                    if (latestListEvents.put(key, event) != null) {
+                        backlog--
+                        conflatedCount++
+                    }
+                }
+                if (event.priority == Priority.CALL) callQueue.add(event) else normalQueue.add(event)
+                backlog++
+                maxBacklog = maxOf(maxBacklog, backlog)
+                if (draining) return
+                draining = true
+            }
+            executor.execute(this)
+        }
+
+        override fun run() {
+            while (true) {
+                val event = synchronized(this) {
+                    val next = pollLocked()
+                    if (next == null) {
+                        draining = false
+                        return
+                    }
+                    next
+                }
+                deliver(event)
+            }
+        }
+
+        private fun pollLocked(): PendingEvent? {
+            if (closed) return null
+            while (true) {
+                val event = callQueue.pollFirst() ?: normalQueue.pollFirst() ?: return null
+                val key = event.conflationKey
+                if (key != null) {
+                    if (latestListEvents[key] !== event) continue
+                    latestListEvents.remove(key)
+                }
+                backlog--
+                return event
+            }
+        }
+
+        private fun deliver(event: PendingEvent) {
+            val latencyNanos = SystemClock.elapsedRealtimeNanos() - event.postedNanos
+            synchronized(this) {
+                if (closed) return
+                deliveredCount++
+                totalLatencyNanos += latencyNanos
+                maxLatencyNanos = maxOf(maxLatencyNanos, latencyNanos)
+            }
+            if (mode == DispatchMode.SYNC) {
+                event.action(listener)
+                return
+            }
+            try {
+                event.action(listener)
+            } catch (e: Exception) {
+                Log.e(TAG, "监听器处理事件失败: ${listener.javaClass.name}", e)
+            }
+        }
+
+        fun close() {
+            synchronized(this) {
+                closed = true
+                callQueue.clear()
+                normalQueue.clear()
+                latestListEvents.clear()
+                backlog = 0
+            }
+        }
+
+        fun getMetrics(): ListenerMetrics = synchronized(this) {
+            ListenerMetrics(
+                listenerName = listener.javaClass.name,
+                mode = mode,
+                deliveredCount = deliveredCount,
+                conflatedCount = conflatedCount,
+                backlog = backlog,
+                maxBacklog = maxBacklog,
+                averageLatencyMs = if (deliveredCount == 0L) 0.0 else totalLatencyNanos / deliveredCount / 1e6,
+                maxLatencyMs = maxLatencyNanos / 1e6
+            )
+        }
     }
 
     // ========== 通知方法 ==========
 
     fun dispatchBluetoothStateChanged(enabled: Boolean) {
-        listeners.forEach { it.onBluetoothStateChanged(enabled) }
+        dispatch(Priority.NORMAL) { it.onBluetoothStateChanged(enabled) }
     }
 
     fun dispatchServiceConnected(profile: Int) {
-        listeners.forEach { it.onBluetoothServiceConnected(profile) }
+        dispatch(Priority.NORMAL) { it.onBluetoothServiceConnected(profile) }
     }
 
     fun dispatchServiceDisconnected(profile: Int) {
-        listeners.forEach { it.onBluetoothServiceDisconnected(profile) }
+        dispatch(Priority.NORMAL) { it.onBluetoothServiceDisconnected(profile) }
     }
 
     fun dispatchPairedDevicesChanged(devices: List<BluetoothDeviceInfo>) {
-        listeners.forEach { it.onPairedDevicesChanged(devices) }
+        dispatch(Priority.NORMAL, DeviceListType.PAIRED) { it.onPairedDevicesChanged(devices) }
     }
 
     fun dispatchConnectedDevicesChanged(devices: List<BluetoothDeviceInfo>) {
-        listeners.forEach { it.onConnectedDevicesChanged(devices) }
+        dispatch(Priority.NORMAL, DeviceListType.CONNECTED) { it.onConnectedDevicesChanged(devices) }
     }
 
     fun dispatchDiscoverableDevicesChanged(devices: List<BluetoothDeviceInfo>) {
-        listeners.forEach { it.onDiscoverableDevicesChanged(devices) }
+        dispatch(Priority.NORMAL, DeviceListType.DISCOVERABLE) { it.onDiscoverableDevicesChanged(devices) }
+    }
+
+    fun dispatchDeviceListChanges(changes: List<DeviceListChange>) {
+        if (changes.isEmpty()) return
+        // 增量变化需要逐条应用，不能合并
+        dispatch(Priority.NORMAL) { listener ->
+            changes.forEach { change ->
+                when (change.type) {
+                    DeviceChangeType.ADDED -> listener.onDeviceAdded(change.listType, change.device)
+                    DeviceChangeType.UPDATED ->
+                        listener.onDeviceUpdated(change.listType, change.device, change.changedFields)
+                    DeviceChangeType.REMOVED -> listener.onDeviceRemoved(change.listType, change.device)
+                }
+            }
+        }
     }
 
     fun dispatchDiscoveryFinished() {
-        listeners.forEach { it.onDiscoveryFinished() }
+        dispatch(Priority.NORMAL) { it.onDiscoveryFinished() }
     }
 
     fun dispatchDeviceConnected(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onDeviceConnected(device) }
+        dispatch(Priority.NORMAL) { it.onDeviceConnected(device) }
     }
 
     fun dispatchDeviceDisconnected(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onDeviceDisconnected(device) }
+        dispatch(Priority.NORMAL) { it.onDeviceDisconnected(device) }
     }
 
     fun dispatchDevicePaired(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onDevicePaired(device) }
+        dispatch(Priority.NORMAL) { it.onDevicePaired(device) }
     }
 
     fun dispatchDeviceUnpaired(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onDeviceUnpaired(device) }
+        dispatch(Priority.NORMAL) { it.onDeviceUnpaired(device) }
     }
 
     fun dispatchCallDeviceConnected(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onCallDeviceConnected(device) }
+        dispatch(Priority.CALL) { it.onCallDeviceConnected(device) }
     }
 
     fun dispatchCallDeviceDisconnected(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onCallDeviceDisconnected(device) }
+        dispatch(Priority.CALL) { it.onCallDeviceDisconnected(device) }
     }
 
     fun dispatchMediaDeviceConnected(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onMediaDeviceConnected(device) }
+        dispatch(Priority.NORMAL) { it.onMediaDeviceConnected(device) }
     }
 
     fun dispatchMediaDeviceDisconnected(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onMediaDeviceDisconnected(device) }
+        dispatch(Priority.NORMAL) { it.onMediaDeviceDisconnected(device) }
     }
 
     fun dispatchCallStarted(call: BluetoothCallInfo) {
-        listeners.forEach { it.onCallStarted(call) }
+        dispatch(Priority.CALL) { it.onCallStarted(call) }
     }
 
     fun dispatchCallEnded(call: BluetoothCallInfo) {
-        listeners.forEach { it.onCallEnded(call) }
+        dispatch(Priority.CALL) { it.onCallEnded(call) }
     }
 
     fun dispatchCallUpdated(call: BluetoothCallInfo) {
-        listeners.forEach { it.onCallUpdated(call) }
+        dispatch(Priority.CALL) { it.onCallUpdated(call) }
     }
 
     fun dispatchMediaPlaybackStarted(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onMediaPlaybackStarted(device) }
+        dispatch(Priority.NORMAL) { it.onMediaPlaybackStarted(device) }
     }
 
     fun dispatchMediaPlaybackStopped(device: BluetoothDeviceInfo) {
-        listeners.forEach { it.onMediaPlaybackStopped(device) }
+        dispatch(Priority.NORMAL) { it.onMediaPlaybackStopped(device) }
     }
 
     fun dispatchScoAudioConnected() {
-        listeners.forEach { it.onScoAudioConnected() }
+        dispatch(Priority.CALL) { it.onScoAudioConnected() }
     }
 
     fun dispatchScoAudioDisconnected() {
-        listeners.forEach { it.onScoAudioDisconnected() }
+        dispatch(Priority.CALL) { it.onScoAudioDisconnected() }
     }
 
     fun dispatchRingEvent(deviceAddress: String) {
-        listeners.forEach { it.onRingReceived(deviceAddress) }
+        dispatch(Priority.CALL) { it.onRingReceived(deviceAddress) }
     }
 
     fun dispatchCallWaitingEvent(deviceAddress: String, number: String?) {
-        listeners.forEach { it.onCallWaiting(deviceAddress, number) }
+        dispatch(Priority.CALL) { it.onCallWaiting(deviceAddress, number) }
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.gdet.testapp.bluetooth.car
+
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.asStateFlow
+
+/**
+ * 蓝牙状态模型 - 车载蓝牙各模块共用的内存状态，以Flow形式提供
+ *
+ * 模型作为同步监听器注册到事件分发器，由分发的事件更新，本身不做任何binder调用。
+ * StateFlow只保留最新值，新订阅者立即拿到当前状态，无需再调用getPairedDevices等方法。
+ */
+class BluetoothStateModel : BluetoothLibCallback {
+
+    // 已配对设备
+    private val _pairedDevices = MutableStateFlow<List<BluetoothDeviceInfo>>(emptyList())
+    val pairedDevices: StateFlow<List<BluetoothDeviceInfo>> = _pairedDevices.asStateFlow()
+
+    // 已连接设备
+    private val _connectedDevices = MutableStateFlow<List<BluetoothDeviceInfo>>(emptyList())
+    val connectedDevices: StateFlow<List<BluetoothDeviceInfo>> = _connectedDevices.asStateFlow()
+
+    // 可发现设备
+    private val _discoverableDevices = MutableStateFlow<List<BluetoothDeviceInfo>>(emptyList())
+    val discoverableDevices: StateFlow<List<BluetoothDeviceInfo>> = _discoverableDevices.asStateFlow()
+
+    // 当前通话，无通话时为null
+    private val _currentCall = MutableStateFlow<BluetoothCallInfo?>(null)
+    val currentCall: StateFlow<BluetoothCallInfo?> = _currentCall.asStateFlow()
+
+    // 媒体播放状态
+    private val _mediaPlayback = MutableStateFlow(MediaPlaybackState())
+    val mediaPlayback: StateFlow<MediaPlaybackState> = _mediaPlayback.asStateFlow()
+
+    // SCO音频是否已连接
+    private val _scoAudioConnected = MutableStateFlow(false)
+    val scoAudioConnected: StateFlow<Boolean> = _scoAudioConnected.asStateFlow()
+
+    // 来电铃声事件(设备地址)，不重放，订阅者处理不及时时丢弃最旧的事件
+    private val _ringEvents = MutableSharedFlow<String>(
+        extraBufferCapacity = 16,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+    val ringEvents: SharedFlow<String> = _ringEvents.asSharedFlow()
+
+    /**
+     * 直接写入媒体播放状态，用于代理就绪或刷新时同步当前状态，不产生任何回调事件
+     */
+    fun syncMediaPlayback(state: MediaPlaybackState) {
+        _mediaPlayback.value = state
+    }
+
+    override fun onPairedDevicesChanged(devices: List<BluetoothDeviceInfo>) {
+        _pairedDevices.value = devices
+    }
+
+    override fun onConnectedDevicesChanged(devices: List<BluetoothDeviceInfo>) {
+        _connectedDevices.value = devices
+    }
+
+    override fun onDiscoverableDevicesChanged(devices: List<BluetoothDeviceInfo>) {
+        _discoverableDevices.value = devices
+    }
+
+    override fun onCallStarted(call: BluetoothCallInfo) {
+        _currentCall.value = call
+    }
+
+    override fun onCallUpdated(call: BluetoothCallInfo) {
+        _currentCall.value = call
+    }
+
+    override fun onCallEnded(call: BluetoothCallInfo) {
+        // 只清除同一设备上的通话
+        _currentCall.value?.let {
+            if (it.deviceAddress == call.deviceAddress) {
+                _currentCall.value = null
+            }
+        }
+    }
+
+    override fun onCallDeviceDisconnected(device: BluetoothDeviceInfo) {
+        _currentCall.value?.let {
+            if (it.deviceAddress == device.address) {
+                _currentCall.value = null
+            }
+        }
+    }
+
+    override fun onRingReceived(deviceAddress: String) {
+        _ringEvents.tryEmit(deviceAddress)
+    }
+
+    override fun onMediaDeviceConnected(device: BluetoothDeviceInfo) {
+        // 没有当前媒体设备时，以新连接的设备为当前媒体设备
+        if (_mediaPlayback.value.device == null) {
+            _mediaPlayback.value = MediaPlaybackState(device, false)
+        }
+    }
+
+    override fun onMediaDeviceDisconnected(device: BluetoothDeviceInfo) {
+        if (_mediaPlayback.value.device?.address == device.address) {
+            _mediaPlayback.value = MediaPlaybackState()
+        }
+    }
+
+    override fun onMediaPlaybackStarted(device: BluetoothDeviceInfo) {
+        _mediaPlayback.value = MediaPlaybackState(device, true)
+    }
+
+    override fun onMediaPlaybackStopped(device: BluetoothDeviceInfo) {
+        _mediaPlayback.value = MediaPlaybackState(device, false)
+    }
+
+    override fun onScoAudioConnected() {
+        _scoAudioConnected.value = true
+    }
+
+    override fun onScoAudioDisconnected() {
+        _scoAudioConnected.value = false
+    }
+
+    override fun onBluetoothStateChanged(enabled: Boolean) {
+        // 蓝牙关闭后清空连接相关状态，已配对设备由设备管理器重新分发
+        if (!enabled) {
+            _connectedDevices.value = emptyList()
+            _discoverableDevices.value = emptyList()
+            _currentCall.value = null
+            _mediaPlayback.value = MediaPlaybackState()
+            _scoAudioConnected.value = false
+        }
+    }
+}
@@ -5,12 +5,11 @@ import android.bluetooth.BluetoothDevice
 import android.bluetooth.BluetoothHeadsetClient
 import android.bluetooth.BluetoothHeadsetClientCall
 import android.bluetooth.BluetoothProfile
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import android.media.AudioManager
 import android.util.Log
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
 
 /**
  * 车载蓝牙通话管理类 - 负责HFP通话功能
@@ -25,9 +24,6 @@ class CarBluetoothCallManager(private val context: Context) {
     // 蓝牙核心
     private val bluetoothCore = CarBluetoothCore.getInstance(context)
 
-    // 设备管理器
-    private val deviceManager = CarBluetoothDeviceManager(context)
-
     // 当前通话设备
     private var currentCallDevice: BluetoothDevice? = null
 
@@ -38,30 +34,35 @@ class CarBluetoothCallManager(private val context: Context) {
     val eventDispatcher: BluetoothEventDispatcher
         get() = bluetoothCore.eventDispatcher
 
-    // 通话状态广播接收器
-    private val callStateReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context, intent: Intent) {
-            val action = intent.action ?: return
+    // 当前通话状态
+    val currentCallFlow: StateFlow<BluetoothCallInfo?>
+        get() = bluetoothCore.stateModel.currentCall
 
-            when (action) {
-                BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    val state = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_DISCONNECTED)
-                    handleHfpConnectionStateChanged(device, state)
-                }
-                BluetoothHeadsetClient.ACTION_CALL_CHANGED -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    val call = intent.getParcelableExtra<BluetoothHeadsetClientCall>(BluetoothHeadsetClient.EXTRA_CALL)
-                    handleCallChanged(device, call)
-                }
-                BluetoothHeadsetClient.ACTION_AG_EVENT -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
+    // SCO音频连接状态
+    val scoAudioConnectedFlow: StateFlow<Boolean>
+        get() = bluetoothCore.stateModel.scoAudioConnected
 
-                }
-                AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED -> {
-                    val state = intent.getIntExtra(AudioManager.EXTRA_SCO_AUDIO_STATE, AudioManager.SCO_AUDIO_STATE_ERROR)
-                    handleScoAudioStateUpdated(state)
-                }
+    // 来电铃声事件
+    val ringEvents: SharedFlow<String>
+        get() = bluetoothCore.stateModel.ringEvents
+
+    // 通话状态广播处理器
+    private val callStateHandler = BluetoothBroadcastHub.BroadcastHandler { action, intent, device ->
+        when (action) {
+            BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED -> {
+                val state = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_DISCONNECTED)
+                handleHfpConnectionStateChanged(device, state)
+            }
+            BluetoothHeadsetClient.ACTION_CALL_CHANGED -> {
+                val call = intent.getParcelableExtra<BluetoothHeadsetClientCall>(BluetoothHeadsetClient.EXTRA_CALL)
+                handleCallChanged(device, call)
+            }
+            BluetoothHeadsetClient.ACTION_AG_EVENT -> {
+
+            }
+            AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED -> {
+                val state = intent.getIntExtra(AudioManager.EXTRA_SCO_AUDIO_STATE, AudioManager.SCO_AUDIO_STATE_ERROR)
+                handleScoAudioStateUpdated(state)
             }
         }
     }
@@ -75,21 +76,21 @@ class CarBluetoothCallManager(private val context: Context) {
             }
         }
 
-        // 注册通话状态广播接收器
-        val filter = IntentFilter().apply {
-            addAction(BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED)
-            addAction(BluetoothHeadsetClient.ACTION_CALL_CHANGED)
-            addAction(BluetoothHeadsetClient.ACTION_AG_EVENT)
-            addAction(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED)
-        }
-        context.registerReceiver(callStateReceiver, filter)
+        // 注册通话状态广播
+        val actions = listOf(
+            BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED,
+            BluetoothHeadsetClient.ACTION_CALL_CHANGED,
+            BluetoothHeadsetClient.ACTION_AG_EVENT,
+            AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED
+        )
+        bluetoothCore.broadcastHub.register(actions, callStateHandler)
     }
 
     /**
      * 连接设备作为通话设备
      */
     fun connectAsCallDevice(address: String): Boolean {
-        val device = deviceManager.findDeviceByAddress(address) ?: return false
+        val device = bluetoothCore.findDevice(address) ?: return false
 
         // 断开当前的通话设备
         currentCallDevice?.let {
@@ -492,11 +493,7 @@ class CarBluetoothCallManager(private val context: Context) {
      * 释放资源
      */
     fun release() {
-        try {
-            context.unregisterReceiver(callStateReceiver)
-        } catch (e: Exception) {
-            Log.e(TAG, "解除通话状态广播接收器注册失败", e)
-        }
+        bluetoothCore.broadcastHub.unregister(callStateHandler)
 
         currentCallDevice = null
         currentCall = null
@@ -2,15 +2,17 @@ package com.gdet.testapp.bluetooth.car
 
 import android.annotation.SuppressLint
 import android.bluetooth.BluetoothAdapter
+import android.bluetooth.BluetoothDevice
 import android.bluetooth.BluetoothManager
 import android.bluetooth.BluetoothProfile
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import android.media.AudioManager
+import android.os.SystemClock
 import android.util.Log
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.withTimeoutOrNull
 
 /**
  * 车载蓝牙核心管理类 - 负责基础蓝牙功能和服务初始化
@@ -21,6 +23,16 @@ class CarBluetoothCore(private val context: Context) {
     companion object {
         private const val TAG = "CarBluetoothCore"
 
+        // 启动时并行请求的配置文件代理；A2DP仍由媒体管理器用于播放控制
+        val BOOT_PROFILES = listOf(
+            BluetoothProfile.HEADSET_CLIENT,
+            BluetoothProfile.A2DP_SINK,
+            BluetoothProfile.AVRCP_CONTROLLER,
+            BluetoothProfile.PBAP_CLIENT,
+            BluetoothProfile.MAP_CLIENT,
+            BluetoothProfile.A2DP
+        )
+
         @Volatile
         private var instance: CarBluetoothCore? = null
 
@@ -45,28 +57,42 @@ class CarBluetoothCore(private val context: Context) {
     // 蓝牙配置文件
     private val profileProxies = ConcurrentHashMap<Int, BluetoothProfile>()
 
-    // 服务监听器
-    private val serviceListeners = ConcurrentHashMap<Int, BluetoothProfile.ServiceListener>()
+    // 配置文件代理请求，同一配置文件只请求一次；请求同时持有服务监听器避免被垃圾回收
+    private val proxyRequests = ConcurrentHashMap<Int, ProxyRequest>()
+
+    // 各配置文件代理首次就绪的耗时统计
+    private val proxyStats = ConcurrentHashMap<Int, ProfileProxyStats>()
+
+    // 核心创建时间，作为蓝牙就绪耗时的起点
+    private val startElapsedMs = SystemClock.elapsedRealtime()
 
     // 事件分发器
     val eventDispatcher = BluetoothEventDispatcher()
 
-    // 蓝牙状态广播接收器
-    private val bluetoothStateReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context, intent: Intent) {
-            val action = intent.action ?: return
+    // 蓝牙状态模型，各模块共用
+    val stateModel = BluetoothStateModel()
 
-            if (action == BluetoothAdapter.ACTION_STATE_CHANGED) {
-                val state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR)
-                handleBluetoothStateChanged(state)
-            }
-        }
+    // 广播分发器，各模块共用，每条广播只接收和解析一次
+    val broadcastHub = BluetoothBroadcastHub(context)
+
+    // 设备注册表，各模块共用同一份设备列表
+    val deviceRegistry = BluetoothDeviceRegistry()
+
+    // 蓝牙状态广播处理器
+    private val bluetoothStateHandler = BluetoothBroadcastHub.BroadcastHandler { _, intent, _ ->
+        val state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR)
+        handleBluetoothStateChanged(state)
     }
 
     init {
+        // 状态模型同步接收事件，保证订阅者拿到的始终是最新状态
+        eventDispatcher.addListener(stateModel)
+
         // 注册蓝牙状态广播
-        val filter = IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED)
-        context.registerReceiver(bluetoothStateReceiver, filter)
+        broadcastHub.register(listOf(BluetoothAdapter.ACTION_STATE_CHANGED), bluetoothStateHandler)
+
+        // 并行请求启动所需的全部配置文件代理
+        requestProfileProxies(BOOT_PROFILES)
     }
 
     /**
@@ -78,49 +104,161 @@ class CarBluetoothCore(private val context: Context) {
     }
 
     /**
-     * 初始化蓝牙配置文件代理
+     * 初始化蓝牙配置文件代理，每次服务连接(包括蓝牙重启后重新连接)回调true，请求失败时回调false
      */
     fun initProfileProxy(profile: Int, callback: (Boolean) -> Unit) {
-        // 如果已经有此代理则直接返回
-        if (profileProxies.containsKey(profile)) {
-            callback(true)
-            return
+        val request = requestProfileProxy(profile)
+        request.connectListeners.add(callback)
+        when {
+            // 已就绪时立即回调
+            request.proxy != null -> callback(true)
+            // 请求失败或已关闭
+            request.ready.isCompleted -> callback(false)
         }
+    }
 
-        val listener = object : BluetoothProfile.ServiceListener {
-            override fun onServiceConnected(profileId: Int, proxy: BluetoothProfile) {
-                profileProxies[profileId] = proxy
-                Log.d(TAG, "蓝牙配置文件连接成功: $profileId")
-                eventDispatcher.dispatchServiceConnected(profileId)
-                callback(true)
-            }
+    /**
+     * 并行请求一组配置文件代理，已请求的配置文件不会重复请求
+     */
+    fun requestProfileProxies(profiles: Collection<Int>) {
+        profiles.forEach { requestProfileProxy(it) }
+    }
 
-            override fun onServiceDisconnected(profileId: Int) {
-                profileProxies.remove(profileId)
-                Log.d(TAG, "蓝牙配置文件断开: $profileId")
-                eventDispatcher.dispatchServiceDisconnected(profileId)
-            }
-        }
+    /**
+     * 挂起等待一组配置文件代理全部就绪
+     *
+     * @return 全部就绪时为true；超时或有配置文件请求失败时为false
+     */
+    suspend fun awaitProfileProxies(profiles: Collection<Int>, timeoutMs: Long): Boolean {
+        val requests = profiles.map { requestProfileProxy(it) }
+        return withTimeoutOrNull(timeoutMs) {
+            requests.all { it.awaitConnected() != null }
+        } ?: false
+    }
 
-        // 保存监听器避免被垃圾回收
-        serviceListeners[profile] = listener
+    /**
+     * 挂起等待单个配置文件代理就绪，超时或请求失败时返回null
+     */
+    @Suppress("UNCHECKED_CAST")
+    suspend fun <T : BluetoothProfile> awaitProfileProxy(profile: Int, timeoutMs: Long): T? {
+        val request = requestProfileProxy(profile)
+        return withTimeoutOrNull(timeoutMs) { request.awaitConnected() } as? T
+    }
+
+    /**
+     * 获取各配置文件代理首次就绪的耗时统计
+     */
+    fun getProfileProxyStats(): List<ProfileProxyStats> = proxyStats.values.sortedBy { it.readyAfterStartMs }
+
+    /**
+     * 请求配置文件代理，已有请求时直接返回
+     */
+    private fun requestProfileProxy(profile: Int): ProxyRequest {
+        val request = synchronized(proxyRequests) {
+            proxyRequests[profile]?.let { return it }
+            ProxyRequest(profile).also { proxyRequests[profile] = it }
+        }
 
-        // 获取配置文件代理
-        val success = bluetoothAdapter?.getProfileProxy(context, listener, profile) ?: false
+        // 获取配置文件代理，结果通过服务监听器异步返回
+        val success = bluetoothAdapter?.getProfileProxy(context, request, profile) ?: false
         if (!success) {
             Log.e(TAG, "获取蓝牙配置文件代理失败: $profile")
-            callback(false)
+            proxyRequests.remove(profile, request)
+            request.ready.complete(null)
         }
+        return request
     }
 
     /**
      * 关闭蓝牙配置文件代理
      */
     fun closeProfileProxy(profile: Int) {
-        val proxy = profileProxies[profile] ?: return
+        val request = proxyRequests.remove(profile) ?: return
+        // 仍在等待的调用方收到null
+        request.ready.complete(null)
+        request.proxy = null
+        request.connectListeners.clear()
+        val proxy = profileProxies.remove(profile) ?: return
         bluetoothAdapter?.closeProfileProxy(profile, proxy)
-        profileProxies.remove(profile)
-        serviceListeners.remove(profile)
+    }
+
+    /**
+     * 单个配置文件的代理请求
+     */
+    private inner class ProxyRequest(val profile: Int) : BluetoothProfile.ServiceListener {
+        // 请求时间
+        val requestedAtMs = SystemClock.elapsedRealtime()
+
+        // 当前代理，未就绪时为null
+        @Volatile
+        var proxy: BluetoothProfile? = null
+
+        // 就绪信号，服务断开后换成新的信号，等待方重新等待服务恢复
+        @Volatile
+        var ready = CompletableDeferred<BluetoothProfile?>()
+
+        // initProfileProxy的回调，每次服务连接都会调用
+        val connectListeners = CopyOnWriteArrayList<(Boolean) -> Unit>()
+
+        /**
+         * 挂起等待代理连接，请求失败或已关闭时返回null
+         */
+        suspend fun awaitConnected(): BluetoothProfile? {
+            while (true) {
+                // 每次都读取当前的就绪信号，已完成的旧信号对应的代理可能已断开
+                val connected = ready.await() ?: return null
+                // 请求已被关闭
+                if (proxyRequests[profile] !== this) {
+                    return null
+                }
+                if (proxy === connected) {
+                    return connected
+                }
+            }
+        }
+
+        override fun onServiceConnected(profileId: Int, proxy: BluetoothProfile) {
+            if (proxyRequests[profileId] !== this) {
+                // 请求已被关闭
+                bluetoothAdapter?.closeProfileProxy(profileId, proxy)
+                return
+            }
+            this.proxy = proxy
+            profileProxies[profileId] = proxy
+
+            val now = SystemClock.elapsedRealtime()
+            proxyStats.putIfAbsent(profileId, ProfileProxyStats(profileId, now - requestedAtMs, now - startElapsedMs))
+            Log.d(TAG, "蓝牙配置文件连接成功: $profileId, 耗时${now - requestedAtMs}ms")
+
+            eventDispatcher.dispatchServiceConnected(profileId)
+            ready.complete(proxy)
+            connectListeners.forEach { it(true) }
+        }
+
+        override fun onServiceDisconnected(profileId: Int) {
+            // 先换信号再清除代理，等待方不会在旧信号上空转
+            if (ready.isCompleted) {
+                ready = CompletableDeferred()
+            }
+            proxy = null
+            profileProxies.remove(profileId)
+            Log.d(TAG, "蓝牙配置文件断开: $profileId")
+            eventDispatcher.dispatchServiceDisconnected(profileId)
+        }
+    }
+
+    /**
+     * 按地址查找设备，先查设备注册表，再通过蓝牙适配器获取
+     */
+    fun findDevice(address: String): BluetoothDevice? {
+        deviceRegistry.findDevice(address)?.let { return it }
+
+        return try {
+            bluetoothAdapter?.getRemoteDevice(address)
+        } catch (e: Exception) {
+            Log.e(TAG, "通过地址获取蓝牙设备失败: $address", e)
+            null
+        }
     }
 
     /**
@@ -174,19 +312,15 @@ class CarBluetoothCore(private val context: Context) {
      * 释放资源
      */
     fun release() {
-        try {
-            context.unregisterReceiver(bluetoothStateReceiver)
-        } catch (e: Exception) {
-            Log.e(TAG, "解除蓝牙状态广播接收器注册失败", e)
-        }
+        broadcastHub.release()
 
         // 关闭所有配置文件代理
-        profileProxies.keys.toList().forEach { profile ->
+        proxyRequests.keys.toList().forEach { profile ->
             closeProfileProxy(profile)
         }
 
         profileProxies.clear()
-        serviceListeners.clear()
+        deviceRegistry.clear()
         eventDispatcher.clear()
         instance = null
     }
@@ -7,12 +7,10 @@ import android.bluetooth.BluetoothDevice
 import android.bluetooth.BluetoothHeadsetClient
 import android.bluetooth.BluetoothProfile
 
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import android.util.Log
-import java.util.concurrent.CopyOnWriteArrayList
+import java.util.EnumSet
+import kotlinx.coroutines.flow.StateFlow
 
 /**
  * 车载蓝牙设备管理类 - 负责设备发现、配对和连接管理
@@ -27,59 +25,67 @@ class CarBluetoothDeviceManager(private val context: Context) {
     // 蓝牙核心
     private val bluetoothCore = CarBluetoothCore.getInstance(context)
 
-    // 已配对的设备列表
-    private val pairedDevices = CopyOnWriteArrayList<BluetoothDevice>()
-
-    // 可发现的设备列表(未配对)
-    private val discoverableDevices = CopyOnWriteArrayList<BluetoothDevice>()
-
-    // 连接的设备列表
-    private val connectedDevices = CopyOnWriteArrayList<BluetoothDevice>()
+    // 设备注册表，按地址索引已配对、已连接和可发现(未配对)的设备；由蓝牙核心持有，各模块共用
+    private val registry: BluetoothDeviceRegistry
+        get() = bluetoothCore.deviceRegistry
 
     // 事件分发器
     val eventDispatcher: BluetoothEventDispatcher
         get() = bluetoothCore.eventDispatcher
 
-    // 设备发现广播接收器
-    private val deviceDiscoveryReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context, intent: Intent) {
-            val action = intent.action ?: return
+    // 已配对设备列表状态
+    val pairedDevicesFlow: StateFlow<List<BluetoothDeviceInfo>>
+        get() = bluetoothCore.stateModel.pairedDevices
 
-            when (action) {
-                BluetoothDevice.ACTION_FOUND -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    handleDeviceFound(device)
-                }
-                BluetoothAdapter.ACTION_DISCOVERY_FINISHED -> {
-                    eventDispatcher.dispatchDiscoveryFinished()
-                }
-                BluetoothDevice.ACTION_BOND_STATE_CHANGED -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    val bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR)
-                    handleBondStateChanged(device, bondState)
-                }
-                BluetoothDevice.ACTION_ACL_CONNECTED -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    handleDeviceConnected(device)
-                }
-                BluetoothDevice.ACTION_ACL_DISCONNECTED -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    handleDeviceDisconnected(device)
-                }
+    // 已连接设备列表状态
+    val connectedDevicesFlow: StateFlow<List<BluetoothDeviceInfo>>
+        get() = bluetoothCore.stateModel.connectedDevices
+
+    // 可发现设备列表状态
+    val discoverableDevicesFlow: StateFlow<List<BluetoothDeviceInfo>>
+        get() = bluetoothCore.stateModel.discoverableDevices
+
+    // 设备发现广播处理器
+    private val deviceDiscoveryHandler = BluetoothBroadcastHub.BroadcastHandler { action, intent, device ->
+        when (action) {
+            BluetoothDevice.ACTION_FOUND -> {
+                handleDeviceFound(device)
+            }
+            BluetoothAdapter.ACTION_DISCOVERY_FINISHED -> {
+                eventDispatcher.dispatchDiscoveryFinished()
+            }
+            BluetoothDevice.ACTION_BOND_STATE_CHANGED -> {
+                val bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR)
+                handleBondStateChanged(device, bondState)
+            }
+            BluetoothDevice.ACTION_ACL_CONNECTED -> {
+                handleDeviceConnected(device)
+            }
+            BluetoothDevice.ACTION_ACL_DISCONNECTED -> {
+                handleDeviceDisconnected(device)
+            }
+            BluetoothDevice.ACTION_NAME_CHANGED,
+            BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED,
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED -> {
+                refreshDevice(device)
             }
         }
     }
 
     init {
-        // 注册设备发现广播接收器
-        val filter = IntentFilter().apply {
-            addAction(BluetoothDevice.ACTION_FOUND)
-            addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED)
-            addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
-            addAction(BluetoothDevice.ACTION_ACL_CONNECTED)
-            addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED)
-        }
-        context.registerReceiver(deviceDiscoveryReceiver, filter)
+        // 注册设备发现广播
+        val actions = listOf(
+            BluetoothDevice.ACTION_FOUND,
+            BluetoothAdapter.ACTION_DISCOVERY_FINISHED,
+            BluetoothDevice.ACTION_BOND_STATE_CHANGED,
+            BluetoothDevice.ACTION_ACL_CONNECTED,
+            BluetoothDevice.ACTION_ACL_DISCONNECTED,
+            // 以下事件只刷新单个设备的缓存设备信息
+            BluetoothDevice.ACTION_NAME_CHANGED,
+            BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED,
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED
+        )
+        bluetoothCore.broadcastHub.register(actions, deviceDiscoveryHandler)
 
         // 初始化已配对设备列表
         updatePairedDevices()
@@ -93,8 +99,7 @@ class CarBluetoothDeviceManager(private val context: Context) {
             if (it.isDiscovering) {
                 it.cancelDiscovery()
             }
-            discoverableDevices.clear()
-            eventDispatcher.dispatchDiscoverableDevicesChanged(emptyList())
+            dispatchChanges(registry.clear(DeviceListType.DISCOVERABLE))
             it.startDiscovery()
         } ?: false
     }
@@ -110,21 +115,21 @@ class CarBluetoothDeviceManager(private val context: Context) {
      * 获取已配对设备列表
      */
     fun getPairedDevices(): List<BluetoothDeviceInfo> {
-        return pairedDevices.map { convertToDeviceInfo(it) }
+        return registry.getDeviceInfos(DeviceListType.PAIRED)
     }
 
     /**
      * 获取可发现设备列表
      */
     fun getDiscoverableDevices(): List<BluetoothDeviceInfo> {
-        return discoverableDevices.map { convertToDeviceInfo(it) }
+        return registry.getDeviceInfos(DeviceListType.DISCOVERABLE)
     }
 
     /**
      * 获取已连接设备列表
      */
     fun getConnectedDevices(): List<BluetoothDeviceInfo> {
-        return connectedDevices.map { convertToDeviceInfo(it) }
+        return registry.getDeviceInfos(DeviceListType.CONNECTED)
     }
 
     /**
@@ -188,7 +193,7 @@ class CarBluetoothDeviceManager(private val context: Context) {
 
         try {
             device.setAlias(newName)
-            updatePairedDevices()
+            refreshDevice(device)
             return true
         } catch (e: Exception) {
             Log.e(TAG, "重命名设备失败", e)
@@ -208,32 +213,48 @@ class CarBluetoothDeviceManager(private val context: Context) {
      * 查找设备
      */
     fun findDeviceByAddress(address: String): BluetoothDevice? {
-        // 先从已连接设备查找
-        connectedDevices.find { it.address == address }?.let { return it }
-
-        // 再从已配对设备查找
-        pairedDevices.find { it.address == address }?.let { return it }
-
-        // 最后从可发现设备查找
-        discoverableDevices.find { it.address == address }?.let { return it }
-
-        // 通过蓝牙适配器直接获取
-        return try {
-            bluetoothCore.bluetoothAdapter?.getRemoteDevice(address)
-        } catch (e: Exception) {
-            Log.e(TAG, "通过地址获取蓝牙设备失败: $address", e)
-            null
-        }
+        return bluetoothCore.findDevice(address)
     }
 
     /**
      * 更新已配对设备列表
      */
     fun updatePairedDevices() {
-        pairedDevices.clear()
-        bluetoothCore.bluetoothAdapter?.bondedDevices?.let { pairedDevices.addAll(it) }
-        val deviceInfos = pairedDevices.map { convertToDeviceInfo(it) }
-        eventDispatcher.dispatchPairedDevicesChanged(deviceInfos)
+        val bondedDevices = bluetoothCore.bluetoothAdapter?.bondedDevices ?: emptySet()
+        val bondedAddresses = bondedDevices.mapTo(HashSet()) { it.address }
+        val changes = ArrayList<DeviceListChange>()
+        registry.getDevices(DeviceListType.PAIRED)
+            .filter { it.address !in bondedAddresses }
+            .forEach { changes += registry.remove(DeviceListType.PAIRED, it.address) }
+        bondedDevices.forEach { changes += registry.add(DeviceListType.PAIRED, it, convertToDeviceInfo(it)) }
+        dispatchChanges(changes)
+    }
+
+    /**
+     * 重新读取单个已注册设备的设备信息，并分发变化
+     */
+    private fun refreshDevice(device: BluetoothDevice?) {
+        if (device == null || registry.getDeviceInfo(device.address) == null) return
+        dispatchChanges(registry.update(convertToDeviceInfo(device)))
+    }
+
+    /**
+     * 分发增量变化，并为有变化的列表分发完整列表
+     */
+    private fun dispatchChanges(changes: List<DeviceListChange>) {
+        if (changes.isEmpty()) return
+        eventDispatcher.dispatchDeviceListChanges(changes)
+
+        // 完整列表由缓存设备信息生成，不再逐个设备读取
+        val listTypes = changes.mapTo(EnumSet.noneOf(DeviceListType::class.java)) { it.listType }
+        listTypes.forEach { listType ->
+            val deviceInfos = registry.getDeviceInfos(listType)
+            when (listType) {
+                DeviceListType.PAIRED -> eventDispatcher.dispatchPairedDevicesChanged(deviceInfos)
+                DeviceListType.CONNECTED -> eventDispatcher.dispatchConnectedDevicesChanged(deviceInfos)
+                DeviceListType.DISCOVERABLE -> eventDispatcher.dispatchDiscoverableDevicesChanged(deviceInfos)
+            }
+        }
     }
 
     /**
@@ -302,10 +323,10 @@ class CarBluetoothDeviceManager(private val context: Context) {
     private fun handleDeviceFound(device: BluetoothDevice?) {
         device?.let {
             // 过滤掉已配对的设备
-            if (it.bondState != BluetoothDevice.BOND_BONDED && !discoverableDevices.contains(it)) {
-                discoverableDevices.add(it)
-                val deviceInfos = discoverableDevices.map { dev -> convertToDeviceInfo(dev) }
-                eventDispatcher.dispatchDiscoverableDevicesChanged(deviceInfos)
+            if (it.bondState != BluetoothDevice.BOND_BONDED &&
+                !registry.contains(DeviceListType.DISCOVERABLE, it.address)
+            ) {
+                dispatchChanges(registry.add(DeviceListType.DISCOVERABLE, it, convertToDeviceInfo(it)))
             }
         }
     }
@@ -317,29 +338,24 @@ class CarBluetoothDeviceManager(private val context: Context) {
         device?.let {
             when (bondState) {
                 BluetoothDevice.BOND_BONDED -> {
-                    // 配对成功
-                    if (!pairedDevices.contains(it)) {
-                        pairedDevices.add(it)
-                    }
-                    discoverableDevices.remove(it)
-
-                    updatePairedDevices()
-                    val deviceInfos = discoverableDevices.map { dev -> convertToDeviceInfo(dev) }
-                    eventDispatcher.dispatchDiscoverableDevicesChanged(deviceInfos)
-                    eventDispatcher.dispatchDevicePaired(convertToDeviceInfo(it))
+                    // 配对成功，从可发现设备移到已配对设备
+                    val deviceInfo = convertToDeviceInfo(it)
+                    val changes = registry.remove(DeviceListType.DISCOVERABLE, it.address) +
+                            registry.add(DeviceListType.PAIRED, it, deviceInfo)
+                    dispatchChanges(changes)
+                    eventDispatcher.dispatchDevicePaired(deviceInfo)
 
                     // 自动连接新配对的设备
                     connectDevice(it.address)
                 }
                 BluetoothDevice.BOND_NONE -> {
                     // 取消配对
-                    pairedDevices.remove(it)
-                    connectedDevices.remove(it)
-
-                    updatePairedDevices()
-                    val deviceInfos = connectedDevices.map { dev -> convertToDeviceInfo(dev) }
-                    eventDispatcher.dispatchConnectedDevicesChanged(deviceInfos)
-                    eventDispatcher.dispatchDeviceUnpaired(convertToDeviceInfo(it))
+                    val deviceInfo = convertToDeviceInfo(it)
+                    val changes = registry.remove(DeviceListType.PAIRED, it.address) +
+                            registry.remove(DeviceListType.CONNECTED, it.address) +
+                            registry.update(deviceInfo)
+                    dispatchChanges(changes)
+                    eventDispatcher.dispatchDeviceUnpaired(deviceInfo)
                 }
 
                 else -> {}
@@ -352,11 +368,10 @@ class CarBluetoothDeviceManager(private val context: Context) {
      */
     private fun handleDeviceConnected(device: BluetoothDevice?) {
         device?.let {
-            if (!connectedDevices.contains(it)) {
-                connectedDevices.add(it)
-                val deviceInfos = connectedDevices.map { dev -> convertToDeviceInfo(dev) }
-                eventDispatcher.dispatchConnectedDevicesChanged(deviceInfos)
-                eventDispatcher.dispatchDeviceConnected(convertToDeviceInfo(it))
+            if (!registry.contains(DeviceListType.CONNECTED, it.address)) {
+                val deviceInfo = convertToDeviceInfo(it)
+                dispatchChanges(registry.add(DeviceListType.CONNECTED, it, deviceInfo))
+                eventDispatcher.dispatchDeviceConnected(deviceInfo)
             }
         }
     }
@@ -366,27 +381,21 @@ class CarBluetoothDeviceManager(private val context: Context) {
      */
     private fun handleDeviceDisconnected(device: BluetoothDevice?) {
         device?.let {
-            if (connectedDevices.contains(it)) {
-                connectedDevices.remove(it)
-                val deviceInfos = connectedDevices.map { dev -> convertToDeviceInfo(dev) }
-                eventDispatcher.dispatchConnectedDevicesChanged(deviceInfos)
-                eventDispatcher.dispatchDeviceDisconnected(convertToDeviceInfo(it))
+            if (registry.contains(DeviceListType.CONNECTED, it.address)) {
+                // 先移出已连接设备，再刷新其在其他列表中的设备信息
+                val deviceInfo = convertToDeviceInfo(it)
+                val changes = registry.remove(DeviceListType.CONNECTED, it.address) +
+                        registry.update(deviceInfo)
+                dispatchChanges(changes)
+                eventDispatcher.dispatchDeviceDisconnected(deviceInfo)
             }
         }
     }
 
     /**
-     * 释放资源
+     * 释放资源；注册表由各模块共用，由 CarBluetoothCore.release 统一清空
      */
     fun release() {
-        try {
-            context.unregisterReceiver(deviceDiscoveryReceiver)
-        } catch (e: Exception) {
-            Log.e(TAG, "解除设备发现广播接收器注册失败", e)
-        }
-
-        pairedDevices.clear()
-        discoverableDevices.clear()
-        connectedDevices.clear()
+        bluetoothCore.broadcastHub.unregister(deviceDiscoveryHandler)
     }
 }
\ No newline at end of file
@@ -39,11 +39,18 @@ class CarBluetoothManager private constructor(private val context: Context) {
     private val eventDispatcher: BluetoothEventDispatcher
         get() = bluetoothCore.eventDispatcher
 
+    // 蓝牙状态模型，订阅其中的Flow即可获得当前状态及后续变化
+    val stateModel: BluetoothStateModel
+        get() = bluetoothCore.stateModel
+
     /**
-     * 添加蓝牙状态回调
+     * 添加蓝牙状态回调，耗时较长的回调(如界面刷新)建议使用异步模式
      */
-    fun addCallback(callback: BluetoothLibCallback) {
-        eventDispatcher.addListener(callback)
+    fun addCallback(
+        callback: BluetoothLibCallback,
+        mode: BluetoothEventDispatcher.DispatchMode = BluetoothEventDispatcher.DispatchMode.SYNC
+    ) {
+        eventDispatcher.addListener(callback, mode)
     }
 
     /**
@@ -53,6 +60,30 @@ class CarBluetoothManager private constructor(private val context: Context) {
         eventDispatcher.removeListener(callback)
     }
 
+    /**
+     * 获取各回调的事件分发统计(投递延迟、积压等)
+     */
+    fun getCallbackMetrics(): List<BluetoothEventDispatcher.ListenerMetrics> {
+        return eventDispatcher.getListenerMetrics()
+    }
+
+    /**
+     * 等待一组配置文件代理就绪，超时返回false
+     */
+    suspend fun awaitProfilesReady(
+        profiles: Collection<Int> = CarBluetoothCore.BOOT_PROFILES,
+        timeoutMs: Long
+    ): Boolean {
+        return bluetoothCore.awaitProfileProxies(profiles, timeoutMs)
+    }
+
+    /**
+     * 获取各配置文件代理的就绪耗时统计
+     */
+    fun getProfileProxyStats(): List<ProfileProxyStats> {
+        return bluetoothCore.getProfileProxyStats()
+    }
+
     // ========== 蓝牙基础功能 ==========
 
     /**
@@ -4,12 +4,11 @@ import android.annotation.SuppressLint
 import android.bluetooth.BluetoothA2dp
 import android.bluetooth.BluetoothDevice
 import android.bluetooth.BluetoothProfile
-import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
-import android.content.IntentFilter
 import android.util.Log
 import android.view.KeyEvent
+import kotlinx.coroutines.flow.StateFlow
 
 /**
  * 车载蓝牙媒体管理类 - 负责A2DP媒体播放控制
@@ -24,9 +23,6 @@ class CarBluetoothMediaManager(private val context: Context) {
     // 蓝牙核心
     private val bluetoothCore = CarBluetoothCore.getInstance(context)
 
-    // 设备管理器
-    private val deviceManager = CarBluetoothDeviceManager(context)
-
     // 当前媒体设备
     private var currentMediaDevice: BluetoothDevice? = null
 
@@ -37,22 +33,20 @@ class CarBluetoothMediaManager(private val context: Context) {
     val eventDispatcher: BluetoothEventDispatcher
         get() = bluetoothCore.eventDispatcher
 
-    // 媒体状态广播接收器
-    private val mediaStateReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context, intent: Intent) {
-            val action = intent.action ?: return
+    // 媒体播放状态
+    val mediaPlaybackFlow: StateFlow<MediaPlaybackState>
+        get() = bluetoothCore.stateModel.mediaPlayback
 
-            when (action) {
-                BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    val state = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_DISCONNECTED)
-                    handleA2dpConnectionStateChanged(device, state)
-                }
-                BluetoothA2dp.ACTION_PLAYING_STATE_CHANGED -> {
-                    val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)
-                    val state = intent.getIntExtra(BluetoothA2dp.EXTRA_STATE, BluetoothA2dp.STATE_NOT_PLAYING)
-                    handleA2dpPlayingStateChanged(device, state)
-                }
+    // 媒体状态广播处理器
+    private val mediaStateHandler = BluetoothBroadcastHub.BroadcastHandler { action, intent, device ->
+        when (action) {
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED -> {
+                val state = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_DISCONNECTED)
+                handleA2dpConnectionStateChanged(device, state)
+            }
+            BluetoothA2dp.ACTION_PLAYING_STATE_CHANGED -> {
+                val state = intent.getIntExtra(BluetoothA2dp.EXTRA_STATE, BluetoothA2dp.STATE_NOT_PLAYING)
+                handleA2dpPlayingStateChanged(device, state)
             }
         }
     }
@@ -66,19 +60,19 @@ class CarBluetoothMediaManager(private val context: Context) {
             }
         }
 
-        // 注册媒体状态广播接收器
-        val filter = IntentFilter().apply {
-            addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED)
-            addAction(BluetoothA2dp.ACTION_PLAYING_STATE_CHANGED)
-        }
-        context.registerReceiver(mediaStateReceiver, filter)
+        // 注册媒体状态广播
+        val actions = listOf(
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED,
+            BluetoothA2dp.ACTION_PLAYING_STATE_CHANGED
+        )
+        bluetoothCore.broadcastHub.register(actions, mediaStateHandler)
     }
 
     /**
      * 连接设备作为媒体设备
      */
     fun connectAsMediaDevice(address: String): Boolean {
-        val device = deviceManager.findDeviceByAddress(address) ?: return false
+        val device = bluetoothCore.findDevice(address) ?: return false
 
         // 断开当前的媒体设备
         currentMediaDevice?.let {
@@ -162,9 +156,17 @@ class CarBluetoothMediaManager(private val context: Context) {
 
                 // 检查是否正在播放
                 isMediaPlaying = a2dp.isA2dpPlaying(device)
+
+                // 直接同步到状态模型，订阅者无需再查询播放状态；这不是播放事件，不分发给回调
+                device?.let {
+                    bluetoothCore.stateModel.syncMediaPlayback(
+                        MediaPlaybackState(createDeviceInfoWithMediaSupport(it), isMediaPlaying)
+                    )
+                }
             } else {
                 currentMediaDevice = null
                 isMediaPlaying = false
+                bluetoothCore.stateModel.syncMediaPlayback(MediaPlaybackState())
             }
         }
     }
@@ -317,11 +319,7 @@ class CarBluetoothMediaManager(private val context: Context) {
      * 释放资源
      */
     fun release() {
-        try {
-            context.unregisterReceiver(mediaStateReceiver)
-        } catch (e: Exception) {
-            Log.e(TAG, "解除媒体状态广播接收器注册失败", e)
-        }
+        bluetoothCore.broadcastHub.unregister(mediaStateHandler)
 
         currentMediaDevice = null
         isMediaPlaying = false
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Shared setup of the settingslib Bluetooth benchmarks: one {@link LocalBluetoothManager} for
+ * the process, whose device cache is filled with a given number of devices that do not exist.
+ * Their profile is a {@link FakeProfile}, so connection states come from memory.
+ */
+final class BluetoothBenchmarkFixture {
+    /** Cached device counts every benchmark runs with. */
+    static final List<Object[]> DEVICE_COUNTS = Arrays.asList(
+            new Object[] {10}, new Object[] {100}, new Object[] {1000});
+
+    private static LocalBluetoothManager sBtManager;
+
+    final LocalBluetoothManager mBtManager;
+    final CachedBluetoothDeviceManager mDeviceManager;
+    final FakeProfile mProfile = new FakeProfile();
+    final List<BluetoothDevice> mDevices = new ArrayList<>();
+    final List<CachedBluetoothDevice> mCachedDevices = new ArrayList<>();
+
+    BluetoothBenchmarkFixture(int deviceCount) {
+        mBtManager = getBtManager();
+        mDeviceManager = mBtManager.getCachedDeviceManager();
+        mDeviceManager.clearNonBondedDevices();
+        for (int i = 0; i < deviceCount; i++) {
+            final BluetoothDevice device = getDevice(i);
+            mDevices.add(device);
+            final CachedBluetoothDevice cachedDevice = mDeviceManager.addDevice(device);
+            cachedDevice.setRssi((short) (-40 - i % 60));
+            // Adds the profile to the device, every other device then reads as connected so
+            // that summaries take both paths
+            cachedDevice.onProfileStateChanged(mProfile, BluetoothProfile.STATE_CONNECTED);
+            if (i % 2 == 0) {
+                mProfile.mStates.put(device.getAddress(), BluetoothProfile.STATE_CONNECTED);
+            }
+            mCachedDevices.add(cachedDevice);
+        }
+    }
+
+    void tearDown() {
+        mDeviceManager.clearNonBondedDevices();
+    }
+
+    /**
+     * @return a device with a locally administered address derived from {@code index}
+     */
+    static BluetoothDevice getDevice(int index) {
+        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(String.format(Locale.US,
+                "02:00:00:%02X:%02X:%02X", (index >> 16) & 0xff, (index >> 8) & 0xff,
+                index & 0xff));
+    }
+
+    private static synchronized LocalBluetoothManager getBtManager() {
+        if (sBtManager == null) {
+            final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+            sBtManager = LocalBluetoothManager.create(context, /* handler= */ null);
+            if (sBtManager == null) {
+                throw new IllegalStateException("Bluetooth is not supported on this device");
+            }
+        }
+        return sBtManager;
+    }
+
+    /**
+     * Profile stand-in answering from an in-memory state table, without binder calls.
+     */
+    static final class FakeProfile implements LocalBluetoothProfile {
+        final Map<String, Integer> mStates = new HashMap<>();
+
+        @Override
+        public boolean accessProfileEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isAutoConnectable() {
+            return true;
+        }
+
+        @Override
+        public int getConnectionStatus(BluetoothDevice device) {
+            final Integer state = mStates.get(device.getAddress());
+            return state != null ? state : BluetoothProfile.STATE_DISCONNECTED;
+        }
+
+        @Override
+        public boolean isEnabled(BluetoothDevice device) {
+            return true;
+        }
+
+        @Override
+        public int getConnectionPolicy(BluetoothDevice device) {
+            return BluetoothProfile.CONNECTION_POLICY_ALLOWED;
+        }
+
+        @Override
+        public boolean setEnabled(BluetoothDevice device, boolean enabled) {
+            return true;
+        }
+
+        @Override
+        public boolean isProfileReady() {
+            return true;
+        }
+
+        @Override
+        public int getProfileId() {
+            return BluetoothProfile.A2DP;
+        }
+
+        @Override
+        public int getOrdinal() {
+            return 0;
+        }
+
+        @Override
+        public int getNameResource(BluetoothDevice device) {
+            return 0;
+        }
+
+        @Override
+        public int getSummaryResourceForDevice(BluetoothDevice device) {
+            return 0;
+        }
+
+        @Override
+        public int getDrawableResource(BluetoothClass btClass) {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "FakeProfile";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of filtering the cached devices with {@link BluetoothDeviceFilter}: per device
+ * filters against the compiled filter and the incremental {@link
+ * BluetoothDeviceFilter.FilteredView}.
+ */
+@RunWith(Parameterized.class)
+public class BluetoothDeviceFilterBenchmark {
+    // BluetoothDevicePicker.FILTER_TYPE_AUDIO
+    private static final int FILTER_TYPE_AUDIO = 1;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mDeviceCount;
+
+    private BluetoothBenchmarkFixture mFixture;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static List<Object[]> getParameters() {
+        return BluetoothBenchmarkFixture.DEVICE_COUNTS;
+    }
+
+    @Before
+    public void setUp() {
+        mFixture = new BluetoothBenchmarkFixture(mDeviceCount);
+    }
+
+    @After
+    public void tearDown() {
+        mFixture.tearDown();
+    }
+
+    /** Bonded audio devices, each filter reading UUIDs, class and bond state over binder. */
+    @Test
+    public void filter_perDevice() {
+        final BluetoothDeviceFilter.Filter audio =
+                BluetoothDeviceFilter.getFilter(FILTER_TYPE_AUDIO);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final List<CachedBluetoothDevice> devices = new ArrayList<>();
+            for (CachedBluetoothDevice cachedDevice
+                    : mFixture.mDeviceManager.getCachedDevicesCopy()) {
+                final BluetoothDevice device = cachedDevice.getDevice();
+                if (BluetoothDeviceFilter.BONDED_DEVICE_FILTER.matches(device)
+                        && audio.matches(device)) {
+                    devices.add(cachedDevice);
+                }
+            }
+        }
+    }
+
+    /** Bonded audio devices, from the cached capabilities. */
+    @Test
+    public void filter_compiled() {
+        final BluetoothDeviceFilter.CompiledFilter filter = BluetoothDeviceFilter.compile(
+                BluetoothDeviceFilter.BONDED_DEVICE_FILTER,
+                BluetoothDeviceFilter.getFilter(FILTER_TYPE_AUDIO));
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            filter.filter(mFixture.mDeviceManager.getCachedDevicesSnapshot());
+        }
+    }
+
+    /** Bonded audio devices, from a view in which one device changes between reads. */
+    @Test
+    public void filter_view() {
+        final BluetoothDeviceFilter.FilteredView view = new BluetoothDeviceFilter.FilteredView(
+                mFixture.mDeviceManager, BluetoothDeviceFilter.compile(
+                        BluetoothDeviceFilter.BONDED_DEVICE_FILTER,
+                        BluetoothDeviceFilter.getFilter(FILTER_TYPE_AUDIO)));
+        view.getDevices();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            // Drops the cached capabilities of the device, as a UUID or class change does
+            mFixture.mCachedDevices.get(i++ % mDeviceCount).applyWarmStartRecord(null);
+            view.getDevices();
+        }
+    }
+}
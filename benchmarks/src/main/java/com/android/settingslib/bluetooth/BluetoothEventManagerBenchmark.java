@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothProfile;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.List;
+
+/**
+ * Benchmarks of the {@link BluetoothEventManager} dispatch path to the cached devices and the
+ * registered callbacks.
+ */
+@RunWith(Parameterized.class)
+public class BluetoothEventManagerBenchmark {
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mDeviceCount;
+
+    private BluetoothBenchmarkFixture mFixture;
+    private final BluetoothCallback mCallback = new BluetoothCallback() {};
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static List<Object[]> getParameters() {
+        return BluetoothBenchmarkFixture.DEVICE_COUNTS;
+    }
+
+    @Before
+    public void setUp() {
+        mFixture = new BluetoothBenchmarkFixture(mDeviceCount);
+        mFixture.mBtManager.getEventManager().registerCallback(mCallback);
+    }
+
+    @After
+    public void tearDown() {
+        mFixture.mBtManager.getEventManager().unregisterCallback(mCallback);
+        mFixture.tearDown();
+    }
+
+    /** Moves the active A2DP device back and forth between two devices. */
+    @Test
+    public void dispatchActiveDeviceChanged() {
+        final BluetoothEventManager eventManager = mFixture.mBtManager.getEventManager();
+        final CachedBluetoothDevice first = mFixture.mCachedDevices.get(0);
+        final CachedBluetoothDevice second = mFixture.mCachedDevices.get(1);
+        boolean toFirst = true;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            eventManager.dispatchActiveDeviceChanged(toFirst ? first : second,
+                    BluetoothProfile.A2DP);
+            toFirst = !toFirst;
+        }
+    }
+
+    /** Notifies a profile connection state change of one device. */
+    @Test
+    public void dispatchProfileConnectionStateChanged() {
+        final BluetoothEventManager eventManager = mFixture.mBtManager.getEventManager();
+        final CachedBluetoothDevice device = mFixture.mCachedDevices.get(0);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            eventManager.dispatchProfileConnectionStateChanged(device,
+                    BluetoothProfile.STATE_CONNECTED, BluetoothProfile.A2DP);
+        }
+    }
+}
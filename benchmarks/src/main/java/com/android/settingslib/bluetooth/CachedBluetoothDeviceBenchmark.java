@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settingslib.bluetooth;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the {@link CachedBluetoothDevice} calls made when a device list is sorted and
+ * bound.
+ */
+@RunWith(Parameterized.class)
+public class CachedBluetoothDeviceBenchmark {
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mDeviceCount;
+
+    private BluetoothBenchmarkFixture mFixture;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static List<Object[]> getParameters() {
+        return BluetoothBenchmarkFixture.DEVICE_COUNTS;
+    }
+
+    @Before
+    public void setUp() {
+        mFixture = new BluetoothBenchmarkFixture(mDeviceCount);
+    }
+
+    @After
+    public void tearDown() {
+        mFixture.tearDown();
+    }
+
+    /** Sorts a shuffled list of all devices with {@link CachedBluetoothDevice#compareTo}. */
+    @Test
+    public void compareTo_sort() {
+        final List<CachedBluetoothDevice> devices = new ArrayList<>(mFixture.mCachedDevices);
+        final Random random = new Random(0);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            Collections.shuffle(devices, random);
+            state.resumeTiming();
+            Collections.sort(devices);
+        }
+    }
+
+    /** Reads the sorted view kept by the device manager. */
+    @Test
+    public void getSortedCachedDevices() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mFixture.mDeviceManager.getSortedCachedDevices();
+        }
+    }
+
+    /** Binds the summary of every device after all of them changed. */
+    @Test
+    public void getConnectionSummary_cold() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+                device.invalidateSummaries();
+            }
+            state.resumeTiming();
+            for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+                device.getConnectionSummary();
+            }
+        }
+    }
+
+    /** Binds the summary of every device again without any change. */
+    @Test
+    public void getConnectionSummary_cached() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+                device.getConnectionSummary();
+            }
+        }
+    }
+
+    /** Binds the car summary of every device after all of them changed. */
+    @Test
+    public void getCarConnectionSummary_cold() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+                device.invalidateSummaries();
+            }
+            state.resumeTiming();
+            for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+                device.getCarConnectionSummary();
+            }
+        }
+    }
+
+    /** Binds the car summary of every device again without any change. */
+    @Test
+    public void getCarConnectionSummary_cached() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+                device.getCarConnectionSummary();
+            }
+        }
+    }
+}
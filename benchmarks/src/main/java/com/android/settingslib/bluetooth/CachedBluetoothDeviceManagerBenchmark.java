@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.List;
+
+/**
+ * Benchmarks of the device lookups and insertions of {@link CachedBluetoothDeviceManager}.
+ */
+@RunWith(Parameterized.class)
+public class CachedBluetoothDeviceManagerBenchmark {
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mDeviceCount;
+
+    private BluetoothBenchmarkFixture mFixture;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static List<Object[]> getParameters() {
+        return BluetoothBenchmarkFixture.DEVICE_COUNTS;
+    }
+
+    @Before
+    public void setUp() {
+        mFixture = new BluetoothBenchmarkFixture(mDeviceCount);
+    }
+
+    @After
+    public void tearDown() {
+        mFixture.tearDown();
+    }
+
+    /** Looks up every cached device once. */
+    @Test
+    public void findDevice_cached() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (BluetoothDevice device : mFixture.mDevices) {
+                mFixture.mDeviceManager.findDevice(device);
+            }
+        }
+    }
+
+    /** Looks up a device that is not cached. */
+    @Test
+    public void findDevice_missing() {
+        final BluetoothDevice missing = BluetoothBenchmarkFixture.getDevice(mDeviceCount);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mFixture.mDeviceManager.findDevice(missing);
+        }
+    }
+
+    /** Fills an empty cache with all the devices. */
+    @Test
+    public void addDevice_all() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            mFixture.mDeviceManager.clearNonBondedDevices();
+            state.resumeTiming();
+            for (BluetoothDevice device : mFixture.mDevices) {
+                mFixture.mDeviceManager.addDevice(device);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothLeAudioCodecConfigMetadata;
+import android.bluetooth.BluetoothLeAudioContentMetadata;
+import android.bluetooth.BluetoothLeBroadcastChannel;
+import android.bluetooth.BluetoothLeBroadcastMetadata;
+import android.bluetooth.BluetoothLeBroadcastSubgroup;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmarks of the LE Audio broadcast QR code conversion of {@link LeBroadcastMetadataCodec}.
+ * The previous nested StringBuilder encoder is kept below as the baseline. The previous
+ * regular expression decoder has no baseline, as it could not parse its own output.
+ */
+@RunWith(Parameterized.class)
+public class LeBroadcastMetadataCodecBenchmark {
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mSubgroupCount;
+
+    private BluetoothLeBroadcastMetadata mMetadata;
+    private String mQrCode;
+
+    @Parameterized.Parameters(name = "subgroups={0}")
+    public static List<Object[]> getParameters() {
+        return Arrays.asList(new Object[] {1}, new Object[] {4});
+    }
+
+    @Before
+    public void setUp() {
+        final BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("02:00:00:AA:BB:CC");
+        final BluetoothLeBroadcastMetadata.Builder builder =
+                new BluetoothLeBroadcastMetadata.Builder()
+                        .setSourceDevice(device, BluetoothDevice.ADDRESS_TYPE_RANDOM)
+                        .setSourceAdvertisingSid(1)
+                        .setBroadcastId(0x123456)
+                        .setPaSyncInterval(0xffff)
+                        .setEncrypted(true)
+                        .setBroadcastCode("0123456789abcdef".getBytes(StandardCharsets.UTF_8))
+                        .setPresentationDelayMicros(40000);
+        for (int i = 0; i < mSubgroupCount; i++) {
+            final BluetoothLeAudioCodecConfigMetadata config =
+                    new BluetoothLeAudioCodecConfigMetadata.Builder()
+                            .setAudioLocation(3)
+                            .build();
+            builder.addSubgroup(new BluetoothLeBroadcastSubgroup.Builder()
+                    .setCodecId(6)
+                    .setCodecSpecificConfig(config)
+                    .setContentMetadata(new BluetoothLeAudioContentMetadata.Builder()
+                            .setProgramInfo("Broadcast program " + i)
+                            .setLanguage("eng")
+                            .build())
+                    .addChannel(new BluetoothLeBroadcastChannel.Builder()
+                            .setChannelIndex(1)
+                            .setCodecMetadata(config)
+                            .build())
+                    .addChannel(new BluetoothLeBroadcastChannel.Builder()
+                            .setChannelIndex(2)
+                            .setCodecMetadata(config)
+                            .build())
+                    .build());
+        }
+        mMetadata = builder.build();
+        mQrCode = LeBroadcastMetadataCodec.encode(mMetadata);
+    }
+
+    @Test
+    public void encode() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            LeBroadcastMetadataCodec.encode(mMetadata);
+        }
+    }
+
+    @Test
+    public void encode_baseline() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            BaselineEncoder.encode(mMetadata);
+        }
+    }
+
+    @Test
+    public void decode() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            LeBroadcastMetadataCodec.decode(mQrCode);
+        }
+    }
+
+    /**
+     * The encoder of LocalBluetoothLeBroadcastMetadata before LeBroadcastMetadataCodec.
+     */
+    private static final class BaselineEncoder {
+        private static final String METADATA_START = "<";
+        private static final String METADATA_END = ">";
+
+        static String encode(BluetoothLeBroadcastMetadata metadata) {
+            String subgroupString = convertSubgroupToString(metadata.getSubgroups());
+            return new StringBuilder()
+                    .append(BluetoothBroadcastUtils.SCHEME_BT_BROADCAST_METADATA)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_ADDRESS_TYPE)
+                    .append(METADATA_START).append(metadata.getSourceAddressType())
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_DEVICE)
+                    .append(METADATA_START).append(metadata.getSourceDevice())
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_ADVERTISING_SID)
+                    .append(METADATA_START).append(metadata.getSourceAdvertisingSid())
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_BROADCAST_ID)
+                    .append(METADATA_START).append(metadata.getBroadcastId()).append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_SYNC_INTERVAL)
+                    .append(METADATA_START).append(metadata.getPaSyncInterval())
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_IS_ENCRYPTED)
+                    .append(METADATA_START).append(metadata.isEncrypted()).append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_BROADCAST_CODE)
+                    .append(METADATA_START).append(Arrays.toString(metadata.getBroadcastCode()))
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_PRESENTATION_DELAY)
+                    .append(METADATA_START).append(metadata.getPresentationDelayMicros())
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BT_SUBGROUPS)
+                    .append(METADATA_START).append(subgroupString).append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .toString();
+        }
+
+        private static String convertSubgroupToString(
+                List<BluetoothLeBroadcastSubgroup> subgroupList) {
+            StringBuilder subgroupListBuilder = new StringBuilder();
+            for (BluetoothLeBroadcastSubgroup subgroup : subgroupList) {
+                String audioCodec =
+                        convertAudioCodecConfigToString(subgroup.getCodecSpecificConfig());
+                String audioContent = convertAudioContentToString(subgroup.getContentMetadata());
+                String channels = convertChannelToString(subgroup.getChannels());
+                subgroupListBuilder.append(new StringBuilder()
+                        .append(BluetoothBroadcastUtils.PREFIX_BTSG_CODEC_ID)
+                        .append(METADATA_START).append(subgroup.getCodecId()).append(METADATA_END)
+                        .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                        .append(BluetoothBroadcastUtils.PREFIX_BTSG_CODEC_CONFIG)
+                        .append(METADATA_START).append(audioCodec).append(METADATA_END)
+                        .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                        .append(BluetoothBroadcastUtils.PREFIX_BTSG_AUDIO_CONTENT)
+                        .append(METADATA_START).append(audioContent).append(METADATA_END)
+                        .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                        .append(BluetoothBroadcastUtils.PREFIX_BTSG_BROADCAST_CHANNEL)
+                        .append(METADATA_START).append(channels).append(METADATA_END)
+                        .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                        .toString());
+            }
+            return subgroupListBuilder.toString();
+        }
+
+        private static String convertAudioCodecConfigToString(
+                BluetoothLeAudioCodecConfigMetadata config) {
+            String audioLocation = String.valueOf(config.getAudioLocation());
+            String rawMetadata = new String(config.getRawMetadata(), StandardCharsets.UTF_8);
+            return new StringBuilder()
+                    .append(BluetoothBroadcastUtils.PREFIX_BTCC_AUDIO_LOCATION)
+                    .append(METADATA_START).append(audioLocation).append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BTCC_RAW_METADATA)
+                    .append(METADATA_START).append(rawMetadata).append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .toString();
+        }
+
+        private static String convertAudioContentToString(
+                BluetoothLeAudioContentMetadata audioContent) {
+            String rawMetadata =
+                    new String(audioContent.getRawMetadata(), StandardCharsets.UTF_8);
+            return new StringBuilder()
+                    .append(BluetoothBroadcastUtils.PREFIX_BTAC_PROGRAM_INFO)
+                    .append(METADATA_START).append(audioContent.getProgramInfo())
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BTAC_LANGUAGE)
+                    .append(METADATA_START).append(audioContent.getLanguage())
+                    .append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .append(BluetoothBroadcastUtils.PREFIX_BTAC_RAW_METADATA)
+                    .append(METADATA_START).append(rawMetadata).append(METADATA_END)
+                    .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                    .toString();
+        }
+
+        private static String convertChannelToString(
+                List<BluetoothLeBroadcastChannel> channelList) {
+            StringBuilder channelListBuilder = new StringBuilder();
+            for (BluetoothLeBroadcastChannel channel : channelList) {
+                String channelAudioCodec =
+                        convertAudioCodecConfigToString(channel.getCodecMetadata());
+                channelListBuilder.append(new StringBuilder()
+                        .append(BluetoothBroadcastUtils.PREFIX_BTBC_CHANNEL_INDEX)
+                        .append(METADATA_START).append(channel.getChannelIndex())
+                        .append(METADATA_END)
+                        .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                        .append(BluetoothBroadcastUtils.PREFIX_BTBC_CODEC_CONFIG)
+                        .append(METADATA_START).append(channelAudioCodec).append(METADATA_END)
+                        .append(BluetoothBroadcastUtils.DELIMITER_QR_CODE)
+                        .toString());
+            }
+            return channelListBuilder.toString();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settingslib.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothUuid;
+import android.os.ParcelUuid;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of the profile resolution of {@link LocalBluetoothProfileManager}.
+ */
+@RunWith(Parameterized.class)
+public class LocalBluetoothProfileManagerBenchmark {
+    // UUIDs of a typical headset
+    private static final ParcelUuid[] HEADSET_UUIDS = {
+            BluetoothUuid.A2DP_SINK,
+            BluetoothUuid.ADV_AUDIO_DIST,
+            BluetoothUuid.AVRCP_CONTROLLER,
+            BluetoothUuid.HFP,
+            BluetoothUuid.HSP,
+            BluetoothUuid.LE_AUDIO,
+            BluetoothUuid.VOLUME_CONTROL,
+            BluetoothUuid.COORDINATED_SET,
+    };
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mDeviceCount;
+
+    private BluetoothBenchmarkFixture mFixture;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static List<Object[]> getParameters() {
+        return BluetoothBenchmarkFixture.DEVICE_COUNTS;
+    }
+
+    @Before
+    public void setUp() {
+        mFixture = new BluetoothBenchmarkFixture(mDeviceCount);
+    }
+
+    @After
+    public void tearDown() {
+        mFixture.tearDown();
+    }
+
+    /** Resolves the profiles of every device from its UUIDs. */
+    @Test
+    public void updateProfiles() {
+        final LocalBluetoothProfileManager profileManager = mFixture.mBtManager.getProfileManager();
+        final int localUuidMask = ProfileUuidTable.toBitmask(
+                BluetoothAdapter.getDefaultAdapter().getUuidsList());
+        final List<LocalBluetoothProfile> profiles = new ArrayList<>();
+        final List<LocalBluetoothProfile> removedProfiles = new ArrayList<>();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (BluetoothDevice device : mFixture.mDevices) {
+                profileManager.updateProfiles(ProfileUuidTable.toBitmask(HEADSET_UUIDS),
+                        localUuidMask, profiles, removedProfiles, false, device);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.bluetooth;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of the first render of the bonded device list, with and without the warm start
+ * snapshot of {@link BondedDeviceSnapshot}.
+ */
+@RunWith(Parameterized.class)
+public class WarmStartBenchmark {
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mDeviceCount;
+
+    private BluetoothBenchmarkFixture mFixture;
+    private File mFile;
+    private List<BondedDeviceSnapshot.Record> mRecords;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static List<Object[]> getParameters() {
+        return BluetoothBenchmarkFixture.DEVICE_COUNTS;
+    }
+
+    @Before
+    public void setUp() {
+        mFixture = new BluetoothBenchmarkFixture(mDeviceCount);
+        mFile = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "warm_start_benchmark.bin");
+        mRecords = new ArrayList<>();
+        for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+            mRecords.add(device.toWarmStartRecord());
+        }
+        BondedDeviceSnapshot.write(mFile, mRecords);
+    }
+
+    @After
+    public void tearDown() {
+        mFixture.tearDown();
+        mFile.delete();
+    }
+
+    /** Reads the displayed attributes of every device over binder. */
+    @Test
+    public void renderDeviceList_live() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            renderDeviceList();
+        }
+    }
+
+    /** Reads the displayed attributes of every device from the warm start snapshot. */
+    @Test
+    public void renderDeviceList_warmStart() {
+        for (int i = 0; i < mRecords.size(); i++) {
+            mFixture.mCachedDevices.get(i).applyWarmStartRecord(mRecords.get(i));
+        }
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            renderDeviceList();
+        }
+    }
+
+    /** Loads the warm start snapshot file. */
+    @Test
+    public void readSnapshot() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final Map<String, BondedDeviceSnapshot.Record> records =
+                    BondedDeviceSnapshot.read(mFile);
+            if (records.size() != mDeviceCount) {
+                throw new AssertionError("Read " + records.size() + " records");
+            }
+        }
+    }
+
+    private void renderDeviceList() {
+        for (CachedBluetoothDevice device : mFixture.mCachedDevices) {
+            device.getName();
+            device.getBtClass();
+            device.getBatteryLevel();
+        }
+    }
+}